@@ -0,0 +1,27 @@
+package com.example.backend.bench;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/** Minimal "--name value" command line parsing for the bench mains. */
+class Args {
+
+  private final Map<String, String> values = new HashMap<>();
+
+  Args(String[] args) {
+    for (int i = 0; i + 1 < args.length; i += 2) {
+      if (!args[i].startsWith("--"))
+        throw new IllegalArgumentException("Expected an option but got: " + args[i]);
+      values.put(args[i], args[i + 1]);
+    }
+  }
+
+  String value(String name, String defaultValue) {
+    return values.getOrDefault(name, defaultValue);
+  }
+
+  int intValue(String name, int defaultValue) {
+    String value = values.get(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+}
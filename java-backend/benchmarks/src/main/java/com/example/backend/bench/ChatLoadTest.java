@@ -0,0 +1,130 @@
+package com.example.backend.bench;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Closed-loop load generator for /api/chat. Each worker sends a request, reads
+ * the whole SSE stream and immediately sends the next one; time to first
+ * content frame and per-request duration are reported as percentiles.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.example.backend.bench.ChatLoadTest \
+ *     --url http://localhost:8080/api/chat --concurrency 8 --requests 200 --tools true
+ * </pre>
+ */
+public class ChatLoadTest {
+
+  private static final String PROMPT = "Summarise the trade-offs of quantizing a 7B model to 4 bits.";
+
+  public static void main(String[] args) throws Exception {
+    Args options = new Args(args);
+    URI url = URI.create(options.value("--url", "http://localhost:8080/api/chat"));
+    int concurrency = options.intValue("--concurrency", 8);
+    int requests = options.intValue("--requests", 200);
+    boolean tools = Boolean.parseBoolean(options.value("--tools", "false"));
+
+    String body = "{\"messages\":[{\"role\":\"system\",\"content\":\"You are a helpful assistant.\"},"
+        + "{\"role\":\"user\",\"content\":\"" + PROMPT + "\"}],\"stream\":true"
+        + (tools ? ",\"tools\":[{\"type\":\"function\",\"function\":{\"name\":\"web_search\","
+            + "\"parameters\":{\"type\":\"object\",\"properties\":{\"query\":{\"type\":\"string\"}}}}}]" : "")
+        + "}";
+
+    HttpClient client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+
+    List<Long> firstTokenNanos = Collections.synchronizedList(new ArrayList<>());
+    List<Long> totalNanos = Collections.synchronizedList(new ArrayList<>());
+    AtomicInteger remaining = new AtomicInteger(requests);
+    AtomicInteger failures = new AtomicInteger();
+    AtomicInteger frames = new AtomicInteger();
+
+    ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+    List<Future<?>> running = new ArrayList<>();
+    long start = System.nanoTime();
+    for (int w = 0; w < concurrency; w++) {
+      running.add(workers.submit(() -> {
+        while (remaining.getAndDecrement() > 0) {
+          String clientId = "load-" + Thread.currentThread().getId();
+          HttpRequest request = HttpRequest.newBuilder(url)
+              .header("Content-Type", "application/json")
+              .header("X-Client-Id", clientId)
+              .POST(HttpRequest.BodyPublishers.ofString(body))
+              .build();
+          long sent = System.nanoTime();
+          try {
+            HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+            if (response.statusCode() != 200) {
+              response.body().close();
+              failures.incrementAndGet();
+              continue;
+            }
+            long first = -1;
+            try (BufferedReader reader = new BufferedReader(
+                new InputStreamReader(response.body(), StandardCharsets.UTF_8))) {
+              String line;
+              while ((line = reader.readLine()) != null) {
+                if (!line.startsWith("data:"))
+                  continue;
+                frames.incrementAndGet();
+                if (first < 0 && line.contains("\"content\"") && !line.contains("\"used_tool\""))
+                  first = System.nanoTime() - sent;
+                if (line.contains("[DONE]"))
+                  break;
+              }
+            }
+            if (first >= 0)
+              firstTokenNanos.add(first);
+            totalNanos.add(System.nanoTime() - sent);
+          } catch (Exception e) {
+            failures.incrementAndGet();
+          }
+        }
+      }));
+    }
+    for (Future<?> future : running)
+      future.get();
+    workers.shutdown();
+    double elapsedSeconds = (System.nanoTime() - start) / 1e9;
+
+    System.out.printf("requests=%d failures=%d concurrency=%d elapsed=%.2fs%n",
+        totalNanos.size(), failures.get(), concurrency, elapsedSeconds);
+    System.out.printf("throughput: %.2f req/s, %.1f frames/s%n",
+        totalNanos.size() / elapsedSeconds, frames.get() / elapsedSeconds);
+    report("time to first token", firstTokenNanos);
+    report("request duration", totalNanos);
+  }
+
+  private static void report(String label, List<Long> samples) {
+    if (samples.isEmpty()) {
+      System.out.println(label + ": no samples");
+      return;
+    }
+    List<Long> sorted = new ArrayList<>(samples);
+    Collections.sort(sorted);
+    System.out.printf("%s (ms): p50=%.1f p90=%.1f p99=%.1f max=%.1f%n", label,
+        percentile(sorted, 0.50), percentile(sorted, 0.90), percentile(sorted, 0.99),
+        sorted.get(sorted.size() - 1) / 1e6);
+  }
+
+  private static double percentile(List<Long> sorted, double p) {
+    int index = (int) Math.ceil(p * sorted.size()) - 1;
+    return sorted.get(Math.max(0, Math.min(index, sorted.size() - 1))) / 1e6;
+  }
+}
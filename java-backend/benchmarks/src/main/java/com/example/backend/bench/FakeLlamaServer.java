@@ -0,0 +1,113 @@
+package com.example.backend.bench;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Stand-in for llama-server that answers /health and streams synthetic
+ * /v1/chat/completions responses with a configurable latency profile, so the
+ * backend can be load tested without a model.
+ *
+ * <p>
+ * When the request offers tools and has no tool results yet, the first turn
+ * answers with a web_search call, like a model that decides to search.
+ *
+ * <pre>
+ * java -cp benchmarks.jar com.example.backend.bench.FakeLlamaServer \
+ *     --port 8082 --first-token-ms 150 --token-ms 15 --tokens 200
+ * </pre>
+ */
+public class FakeLlamaServer {
+
+  private final int firstTokenMs;
+  private final int tokenMs;
+  private final int tokens;
+
+  FakeLlamaServer(int firstTokenMs, int tokenMs, int tokens) {
+    this.firstTokenMs = firstTokenMs;
+    this.tokenMs = tokenMs;
+    this.tokens = tokens;
+  }
+
+  public static void main(String[] args) throws IOException {
+    Args options = new Args(args);
+    int port = options.intValue("--port", 8082);
+    FakeLlamaServer fake = new FakeLlamaServer(
+        options.intValue("--first-token-ms", 150),
+        options.intValue("--token-ms", 15),
+        options.intValue("--tokens", 200));
+
+    HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", port), 256);
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.createContext("/health", fake::health);
+    server.createContext("/v1/chat/completions", fake::completions);
+    server.start();
+    System.out.println("Fake llama-server listening on http://127.0.0.1:" + port);
+  }
+
+  private void health(HttpExchange exchange) throws IOException {
+    byte[] body = "{\"status\":\"ok\"}".getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json");
+    exchange.sendResponseHeaders(200, body.length);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(body);
+    }
+  }
+
+  private void completions(HttpExchange exchange) throws IOException {
+    String request = new String(exchange.getRequestBody().readAllBytes(), StandardCharsets.UTF_8);
+    // A cheap structural check is enough here; the backend always sends well-formed JSON
+    boolean wantsTool = request.contains("\"tools\"")
+        && !request.contains("\"role\":\"tool\"")
+        && !request.contains("\"tool_choice\":\"none\"");
+
+    exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+    exchange.sendResponseHeaders(200, 0);
+    try (OutputStream out = exchange.getResponseBody()) {
+      sleep(firstTokenMs);
+      if (wantsTool) {
+        frame(out, "{\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[{\"index\":0,\"id\":\"call_0\","
+            + "\"type\":\"function\",\"function\":{\"name\":\"web_search\",\"arguments\":\"\"}}]}}]}");
+        frame(out, "{\"choices\":[{\"index\":0,\"delta\":{\"tool_calls\":[{\"index\":0,"
+            + "\"function\":{\"arguments\":\"{\\\"query\\\":\\\"load test\\\"}\"}}]}}]}");
+        frame(out, "{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"tool_calls\"}]}");
+      } else {
+        for (int i = 0; i < tokens; i++) {
+          if (i > 0)
+            sleep(tokenMs);
+          frame(out, "{\"choices\":[{\"index\":0,\"delta\":{\"content\":\" tok" + i + "\"},\"finish_reason\":null}]}");
+        }
+        long predictedMs = (long) firstTokenMs + (long) tokenMs * Math.max(0, tokens - 1);
+        frame(out, "{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}],"
+            + "\"timings\":{\"cache_n\":0,\"prompt_n\":" + request.length() / 4
+            + ",\"prompt_ms\":" + firstTokenMs + ",\"predicted_n\":" + tokens
+            + ",\"predicted_ms\":" + predictedMs + "}}");
+      }
+      frame(out, "[DONE]");
+    } catch (IOException e) {
+      // Client went away mid-stream
+    }
+  }
+
+  private static void frame(OutputStream out, String data) throws IOException {
+    out.write(("data: " + data + "\n\n").getBytes(StandardCharsets.UTF_8));
+    out.flush();
+  }
+
+  private static void sleep(int ms) {
+    if (ms <= 0)
+      return;
+    try {
+      TimeUnit.MILLISECONDS.sleep(ms);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+}
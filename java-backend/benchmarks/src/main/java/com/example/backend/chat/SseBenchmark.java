@@ -0,0 +1,82 @@
+package com.example.backend.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-frame cost of the chat streaming path: splitting an upstream token
+ * stream into SSE frames and serializing the status events sent around tool
+ * calls.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SseBenchmark {
+
+  private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.US_ASCII);
+  private static final byte[] TOOL_CALLS = "\"tool_calls\"".getBytes(StandardCharsets.US_ASCII);
+
+  @Param({ "256", "2048" })
+  int tokens;
+
+  private byte[] stream;
+  private ObjectMapper objectMapper;
+
+  @Setup
+  public void setup() {
+    objectMapper = new ObjectMapper();
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    for (int i = 0; i < tokens; i++) {
+      String frame = "data: {\"id\":\"chatcmpl-1\",\"object\":\"chat.completion.chunk\",\"created\":1700000000,"
+          + "\"model\":\"bench\",\"choices\":[{\"index\":0,\"delta\":{\"content\":\" token" + i
+          + "\"},\"finish_reason\":null}]}\n\n";
+      out.writeBytes(frame.getBytes(StandardCharsets.UTF_8));
+    }
+    out.writeBytes("data: [DONE]\n\n".getBytes(StandardCharsets.US_ASCII));
+    stream = out.toByteArray();
+  }
+
+  /** Whole-stream scan as done by ChatController.streamTurn, without the network. */
+  @Benchmark
+  public int scanTokenStream(Blackhole bh) throws Exception {
+    SseFrameScanner scanner = new SseFrameScanner(new ByteArrayInputStream(stream), 8192);
+    int frames = 0;
+    while (scanner.next()) {
+      if (scanner.dataEquals(DONE))
+        break;
+      bh.consume(scanner.dataContains(TOOL_CALLS));
+      frames++;
+    }
+    return frames;
+  }
+
+  @Benchmark
+  public Object toolStartEvent() throws Exception {
+    return ChatController.statusEvent(objectMapper, "tool_start", "web");
+  }
+
+  @Benchmark
+  public Object toolOutputEvent() throws Exception {
+    return ChatController.statusEvent(objectMapper, "tool_output",
+        "[{\"title\":\"llama.cpp\",\"url\":\"https://example.org\",\"snippet\":\"Inference of LLaMA models in C/C++\"}]");
+  }
+}
@@ -0,0 +1,100 @@
+package com.example.backend.chat.tools;
+
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+import org.jsoup.select.Elements;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parse and extraction cost of saved DuckDuckGo results pages, the CPU side
+ * of web_search once the response has arrived. {@code domExtract} is the
+ * whole-document parse web_search used before {@link SearchFetcher}; the
+ * stream benchmarks stop after the first one or three unseen results, or read
+ * the whole page. Run with {@code -prof gc} for allocation per search.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SearchExtractionBenchmark {
+
+  /** The current layout, and the older one without data-layout list items. */
+  @Param({ "ddg-results.html", "ddg-results-legacy.html" })
+  public String fixture;
+
+  private String html;
+
+  @Setup
+  public void setup() throws IOException {
+    String path = "/fixtures/" + fixture;
+    try (InputStream in = SearchExtractionBenchmark.class.getResourceAsStream(path)) {
+      if (in == null)
+        throw new IOException("Missing fixture " + path);
+      html = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+    }
+    int results = streamWholePage().ranked.size();
+    if (results != 10)
+      throw new IllegalStateException(fixture + " yielded " + results + " results, expected 10");
+  }
+
+  @Benchmark
+  public List<Map<String, String>> domExtract() {
+    return domExtract(Jsoup.parse(html, SearchFetcher.ENDPOINT));
+  }
+
+  @Benchmark
+  public SearchFetcher.Results streamTopOne() throws IOException {
+    return SearchFetcher.extract(new StringReader(html), Set.of(), 1);
+  }
+
+  @Benchmark
+  public SearchFetcher.Results streamTopThree() throws IOException {
+    return SearchFetcher.extract(new StringReader(html), Set.of(), 3);
+  }
+
+  @Benchmark
+  public SearchFetcher.Results streamWholePage() throws IOException {
+    return SearchFetcher.extract(new StringReader(html), Set.of(), Integer.MAX_VALUE);
+  }
+
+  private static List<Map<String, String>> domExtract(Document doc) {
+    Elements organicResults = doc.select("li[data-layout='organic']");
+    if (organicResults.isEmpty())
+      organicResults = doc.select(".result__body:not(.result--ad)");
+
+    List<Map<String, String>> ranked = new ArrayList<>();
+    for (Element res : organicResults) {
+      Element link = res.selectFirst(".result__a");
+      if (link == null)
+        continue;
+      ranked.add(Map.of(
+          "title", link.text(),
+          "url", link.attr("href"),
+          "snippet", res.select(".result__snippet").text()));
+    }
+    return ranked;
+  }
+}
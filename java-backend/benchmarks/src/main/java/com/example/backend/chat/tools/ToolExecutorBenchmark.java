@@ -0,0 +1,66 @@
+package com.example.backend.chat.tools;
+
+import com.example.backend.chat.ChatResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Dispatch overhead of ToolExecutor.execute: typed argument binding and the
+ * catalog lookup, with a registry whose tools return immediately.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ToolExecutorBenchmark {
+
+  /** Registry without network access. */
+  static class StubRegistry extends ToolRegistry {
+    @Override
+    public String web_search(WebSearchArgs args, Set<String> seenUrls) {
+      return "[]";
+    }
+
+    @Override
+    boolean isEnabled(String name) {
+      return true;
+    }
+  }
+
+  private ToolExecutor executor;
+  private ChatResponse.Function function;
+
+  @Setup
+  public void setup() {
+    ToolCatalog catalog = new ToolCatalog();
+    catalog.objectMapper = new ObjectMapper();
+    catalog.registry = new StubRegistry();
+    catalog.init();
+
+    executor = new ToolExecutor();
+    executor.catalog = catalog;
+
+    function = new ChatResponse.Function();
+    function.name = "web_search";
+    function.arguments = "{\"query\":\"llama.cpp speculative decoding\",\"target\":\"web\"}";
+  }
+
+  @Benchmark
+  public String execute() {
+    return executor.execute(function, Set.of());
+  }
+}
@@ -0,0 +1,234 @@
+package com.example.backend.chat;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntConsumer;
+
+/**
+ * Admission control in front of llama-server. At most as many chat requests
+ * run as the servers have slots; the rest wait in a bounded queue that is served
+ * round-robin across clients, so one client firing many requests cannot starve
+ * the others. Waiting holds no thread: a ticket calls back when it is granted.
+ */
+@ApplicationScoped
+public class ChatAdmission {
+
+  public class Ticket {
+    final String client;
+    boolean granted;
+    boolean released;
+    final long enqueuedAt = System.nanoTime();
+    long grantedAt;
+    IntConsumer onPosition;
+    Runnable onGranted;
+    int lastPosition = -1;
+
+    Ticket(String client) {
+      this.client = client;
+    }
+
+    /**
+     * Runs {@code onGranted} once the request may run, right away if it
+     * already may. Until then {@code onPosition} is called with the 1-based
+     * queue position whenever it changes. Both are called without the
+     * admission lock held, on whichever thread changed the queue.
+     */
+    public void whenGranted(IntConsumer onPosition, Runnable onGranted) {
+      List<Runnable> callbacks;
+      synchronized (ChatAdmission.this) {
+        if (released)
+          return;
+        if (granted) {
+          callbacks = List.of(onGranted);
+        } else {
+          this.onPosition = onPosition;
+          this.onGranted = onGranted;
+          callbacks = positionUpdates();
+        }
+      }
+      callbacks.forEach(Runnable::run);
+    }
+
+    public long getWaitNanos() {
+      return grantedAt - enqueuedAt;
+    }
+
+    /** Frees the ticket's place, whether it was granted or is still waiting. */
+    public void release() {
+      ChatAdmission.this.release(this);
+    }
+  }
+
+  @Inject
+  ChatUpstream chatUpstream;
+
+  // Defaults to the slot count of the primary plus healthy replicas when unset or zero
+  @ConfigProperty(name = "chat.admission.max-concurrent", defaultValue = "0")
+  int maxConcurrent;
+
+  @ConfigProperty(name = "chat.admission.queue-size", defaultValue = "32")
+  int queueSize;
+
+  @ConfigProperty(name = "chat.admission.retry-after-seconds", defaultValue = "5")
+  int retryAfterSeconds;
+
+  private int running;
+  private int queued;
+  // Insertion order is the round-robin order of clients with waiting requests
+  private final LinkedHashMap<String, ArrayDeque<Ticket>> waiting = new LinkedHashMap<>();
+
+  @PostConstruct
+  void init() {
+    chatUpstream.onCapacityChange(this::capacityChanged);
+  }
+
+  public int getRetryAfterSeconds() {
+    return retryAfterSeconds;
+  }
+
+  /** Returns a ticket for {@code client}, or null if the wait queue is full. */
+  public Ticket enter(String client) {
+    Ticket ticket = new Ticket(client);
+    List<Runnable> callbacks;
+    synchronized (this) {
+      if (running < limit() && queued == 0) {
+        grant(ticket);
+        return ticket;
+      }
+      if (queued >= queueSize)
+        return null;
+
+      waiting.computeIfAbsent(client, c -> new ArrayDeque<>()).addLast(ticket);
+      queued++;
+      // The limit is read again here, and may have grown since the last grant
+      callbacks = grantWaiting();
+    }
+    callbacks.forEach(Runnable::run);
+    return ticket;
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    return Map.of(
+        "running", running,
+        "queued", queued,
+        "limit", limit(),
+        "queueSize", queueSize,
+        "waitingClients", waiting.size());
+  }
+
+  /** Grants waiting tickets the servers now have room for. */
+  void capacityChanged() {
+    List<Runnable> callbacks;
+    synchronized (this) {
+      callbacks = grantWaiting();
+    }
+    callbacks.forEach(Runnable::run);
+  }
+
+  private int limit() {
+    return maxConcurrent > 0 ? maxConcurrent : chatUpstream.capacity();
+  }
+
+  private void grant(Ticket ticket) {
+    ticket.granted = true;
+    ticket.grantedAt = System.nanoTime();
+    running++;
+  }
+
+  private void release(Ticket ticket) {
+    List<Runnable> callbacks;
+    synchronized (this) {
+      if (ticket.released)
+        return;
+      ticket.released = true;
+      if (ticket.granted)
+        running--;
+      else
+        withdraw(ticket);
+      callbacks = grantWaiting();
+    }
+    callbacks.forEach(Runnable::run);
+  }
+
+  /** Grants waiting tickets while there is room; returns the callbacks to run outside the lock. */
+  private List<Runnable> grantWaiting() {
+    List<Runnable> callbacks = new ArrayList<>();
+    while (running < limit() && queued > 0) {
+      Iterator<Map.Entry<String, ArrayDeque<Ticket>>> clients = waiting.entrySet().iterator();
+      Map.Entry<String, ArrayDeque<Ticket>> next = clients.next();
+      clients.remove();
+      Ticket head = next.getValue().pollFirst();
+      queued--;
+      if (!next.getValue().isEmpty())
+        waiting.put(next.getKey(), next.getValue()); // back of the rotation
+      grant(head);
+      if (head.onGranted != null)
+        callbacks.add(head.onGranted);
+    }
+    callbacks.addAll(positionUpdates());
+    return callbacks;
+  }
+
+  // A newcomer can move ahead of other clients' later tickets, so any queue change may move anyone
+  private List<Runnable> positionUpdates() {
+    List<Runnable> updates = new ArrayList<>();
+    for (ArrayDeque<Ticket> tickets : waiting.values()) {
+      for (Ticket ticket : tickets) {
+        int position = positionOf(ticket);
+        if (ticket.onPosition != null && position != ticket.lastPosition) {
+          ticket.lastPosition = position;
+          IntConsumer onPosition = ticket.onPosition;
+          updates.add(() -> onPosition.accept(position));
+        }
+      }
+    }
+    return updates;
+  }
+
+  private void withdraw(Ticket ticket) {
+    ArrayDeque<Ticket> tickets = waiting.get(ticket.client);
+    if (tickets != null && tickets.remove(ticket)) {
+      queued--;
+      if (tickets.isEmpty())
+        waiting.remove(ticket.client);
+    }
+  }
+
+  // Position in the order release() would grant tickets
+  private int positionOf(Ticket ticket) {
+    List<ArrayDeque<Ticket>> queues = new ArrayList<>(waiting.values());
+    int clientIndex = -1;
+    int depth = -1;
+    for (int c = 0; c < queues.size() && clientIndex < 0; c++) {
+      int d = 0;
+      for (Ticket t : queues.get(c)) {
+        if (t == ticket) {
+          clientIndex = c;
+          depth = d;
+          break;
+        }
+        d++;
+      }
+    }
+    if (clientIndex < 0)
+      return 0;
+
+    int position = 1;
+    for (int c = 0; c < queues.size(); c++) {
+      int size = queues.get(c).size();
+      position += Math.min(size, depth);
+      if (c < clientIndex && size > depth)
+        position++;
+    }
+    return position;
+  }
+}
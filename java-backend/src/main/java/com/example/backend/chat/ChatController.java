@@ -1,16 +1,26 @@
 package com.example.backend.chat;
 
-import io.smallrye.common.annotation.Blocking;
-import io.smallrye.mutiny.Multi;
-import io.smallrye.mutiny.subscription.MultiEmitter;
-import io.smallrye.mutiny.infrastructure.Infrastructure;
-import org.eclipse.microprofile.rest.client.inject.RestClient;
+import io.quarkus.vertx.web.Body;
+import io.quarkus.vertx.web.Route;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.ext.web.RoutingContext;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
-import org.jboss.resteasy.reactive.RestStreamElementType;
+import jakarta.ws.rs.core.Response;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.example.backend.chat.tools.SearchCache;
+import com.example.backend.llama.LlamaRunner;
+import com.example.backend.llama.ModelManager;
+import com.example.backend.chat.tools.ToolCatalog;
+import com.example.backend.metrics.BackendMetrics;
 import com.example.backend.chat.tools.ToolExecutor;
 import com.fasterxml.jackson.core.type.TypeReference;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -19,142 +29,594 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 public class ChatController {
 
   @Inject
-  @RestClient
-  ChatExternalService externalService;
+  ChatUpstream chatUpstream;
 
   @Inject
   ToolExecutor toolExecutor;
 
+  @Inject
+  ToolCatalog toolCatalog;
+
   @Inject
   ObjectMapper objectMapper;
 
-  @POST
-  @Path("/chat")
-  @Blocking
-  @Produces(MediaType.SERVER_SENT_EVENTS)
-  @RestStreamElementType(MediaType.APPLICATION_JSON)
-  public Multi<String> proxyChat(Map<String, Object> payload) {
-    return Multi.createFrom().emitter(emitter -> {
-      Infrastructure.getDefaultWorkerPool().execute(() -> {
-        try {
-          Set<String> seenUrls = new HashSet<>();
-          sendEvent(emitter, "thinking", "Analyzing request...");
-
-          @SuppressWarnings("unchecked")
-          List<Map<String, Object>> messages = (List<Map<String, Object>>) payload.get("messages");
-          if (messages == null) {
-            messages = new ArrayList<>();
-            payload.put("messages", messages);
-          }
+  @Inject
+  SearchCache searchCache;
 
-          payload.put("stream", false);
-          int loopCount = 0;
-          final int MAX_ITERATIONS = 5;
-
-          while (loopCount < MAX_ITERATIONS) {
-            ChatResponse response = externalService.getChatCompletion(payload);
-            if (response == null || response.choices == null || response.choices.isEmpty())
-              break;
-
-            ChatResponse.Message aiMessage = response.choices.get(0).message;
-            if (aiMessage.tool_calls == null || aiMessage.tool_calls.isEmpty())
-              break;
-
-            Map<String, Object> assistantHistoryEntry = new HashMap<>();
-            assistantHistoryEntry.put("role", "assistant");
-            assistantHistoryEntry.put("tool_calls", aiMessage.tool_calls);
-            messages.add(assistantHistoryEntry);
-
-            ChatResponse.ToolCall toolCall = aiMessage.tool_calls.get(0);
-            sendEvent(emitter, "tool_start", "web");
-
-            String result = toolExecutor.execute(toolCall.function, seenUrls);
-            String safeResult = (result == null || result.isBlank()) ? "No results found." : result;
-
-            try {
-              List<Map<String, Object>> resultData = objectMapper.readValue(safeResult, new TypeReference<>() {
-              });
-              if (!resultData.isEmpty()) {
-                String url = (String) resultData.get(0).get("url");
-                if (url != null)
-                  seenUrls.add(url);
-              }
-            } catch (Exception ignored) {
-            }
+  @Inject
+  SlotRouter slotRouter;
+
+  @Inject
+  BackendMetrics metrics;
 
-            sendEvent(emitter, "tool_output", safeResult);
+  @Inject
+  ChatAdmission admission;
 
-            Map<String, Object> toolResponse = new HashMap<>();
-            toolResponse.put("role", "tool");
-            toolResponse.put("tool_call_id", toolCall.id);
-            toolResponse.put("content", safeResult);
-            messages.add(toolResponse);
+  @Inject
+  ContextCompactor compactor;
 
-            loopCount++;
-            sendEvent(emitter, "thinking", "Analyzing results...");
-          }
+  @Inject
+  SessionStore sessions;
+
+  @Inject
+  ResponseCache responseCache;
+
+  @Inject
+  LlamaRunner llamaRunner;
+
+  @Inject
+  ModelManager modelManager;
+
+  @Inject
+  ChatExecutor chatExecutor;
+
+  @ConfigProperty(name = "chat.sse.flush-window-ms", defaultValue = "5")
+  long flushWindowMs;
+
+  @ConfigProperty(name = "chat.sse.flush-bytes", defaultValue = "8192")
+  int flushBytes;
+
+  private static final byte[] DONE = "[DONE]".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] TOOL_CALLS = "\"tool_calls\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] TIMINGS = "\"timings\"".getBytes(StandardCharsets.UTF_8);
+  private static final byte[] FINISHED = "\"finish_reason\":\"".getBytes(StandardCharsets.UTF_8);
+  private static final Buffer DONE_FRAME = Buffer.buffer("data: [DONE]\n\n");
+
+  /**
+   * Served as a raw Vert.x route rather than a JAX-RS SSE resource so that
+   * upstream frames can be forwarded as bytes without being re-framed.
+   */
+  @Route(path = "/api/chat", methods = Route.HttpMethod.POST)
+  void proxyChat(RoutingContext rc, @Body Buffer body) {
+    long requestStart = System.nanoTime();
+    Map<String, Object> payload;
+    try {
+      payload = objectMapper.readValue(body.getBytes(), new TypeReference<Map<String, Object>>() {
+      });
+    } catch (Exception e) {
+      rc.response().setStatusCode(400).putHeader("Content-Type", MediaType.APPLICATION_JSON)
+          .end("{\"message\":\"Invalid chat payload.\"}");
+      return;
+    }
+
+    Object sessionValue = payload.remove("session_id");
+    String sessionId = sessionValue != null ? sessionValue.toString() : null;
+    if (sessionId != null && !SessionStore.isValidId(sessionId)) {
+      rc.response().setStatusCode(400).putHeader("Content-Type", MediaType.APPLICATION_JSON)
+          .end("{\"message\":\"Invalid session id.\"}");
+      return;
+    }
+
+    String clientId = rc.request().getHeader("X-Client-Id");
+    String client = clientId != null && !clientId.isBlank() ? clientId : rc.request().remoteAddress().host();
+    ChatAdmission.Ticket ticket = admission.enter(client);
+    if (ticket == null) {
+      rc.response().setStatusCode(429)
+          .putHeader("Retry-After", String.valueOf(admission.getRetryAfterSeconds()))
+          .putHeader("Content-Type", MediaType.APPLICATION_JSON)
+          .end("{\"message\":\"Too many queued chat requests, try again shortly.\"}");
+      return;
+    }
 
-          // FINAL RESPONSE PHASE
-          sendEvent(emitter, "thinking", "Formulating final answer...");
-          payload.put("stream", true);
-
-          externalService.streamChatCompletion(payload)
-              .onItem().invoke(item -> {
-                if (!emitter.isCancelled()) {
-                  emitter.emit(formatChunk(item));
-                }
-              })
-              .onFailure().invoke(err -> {
-                System.err.println("Final stream error: " + err.getMessage());
-                sendEvent(emitter, "error", "Stream interrupted.");
-              })
-              .collect().asList() // This forces the thread to wait for all chunks
-              .await().indefinitely();
-
-          emitter.complete();
+    boolean skipCache = "no-cache".equalsIgnoreCase(rc.request().getHeader("Cache-Control"));
+    SseWriter writer = new SseWriter(rc.response(), rc.vertx(), flushWindowMs, flushBytes);
+    metrics.requestQueued();
+    llamaRunner.markActivity();
+    ChatExchange exchange = new ChatExchange(rc, writer, ticket, sessionId, payload, skipCache, requestStart);
+    chatExecutor.execute(exchange::begin);
+  }
+
+  /**
+   * One chat request, run in two steps so that no thread is held while it
+   * waits for admission: {@link #begin()} prepares the request and registers
+   * for the ticket, {@link #run()} streams the answer once it is granted.
+   * {@link #finish()} runs exactly once, however the request ends.
+   */
+  private class ChatExchange {
+    private static final int WAITING = 0;
+    private static final int RUNNING = 1;
+    private static final int DONE = 2;
+
+    private final RoutingContext rc;
+    private final SseWriter writer;
+    private final ChatAdmission.Ticket ticket;
+    private final String sessionId;
+    private final Map<String, Object> payload;
+    private final boolean skipCache;
+    private final long requestStart;
+    private final AtomicInteger state = new AtomicInteger(WAITING);
+    private final StringBuilder answer = new StringBuilder();
+    private boolean sessionOpened;
+    private ResponseCache.Recording recording;
+    private ChatUpstream.Lease modelLease;
+    private boolean completed;
+    private Thread runner;
+
+    ChatExchange(RoutingContext rc, SseWriter writer, ChatAdmission.Ticket ticket, String sessionId,
+        Map<String, Object> payload, boolean skipCache, long requestStart) {
+      this.rc = rc;
+      this.writer = writer;
+      this.ticket = ticket;
+      this.sessionId = sessionId;
+      this.payload = payload;
+      this.skipCache = skipCache;
+      this.requestStart = requestStart;
+    }
 
+    void begin() {
+      metrics.requestDequeued();
+      metrics.streamOpened();
+      boolean waiting = false;
+      try {
+        if (sessionId != null) {
+          sessionOpened = openSession(writer, sessionId, payload);
+          if (!sessionOpened)
+            return;
+        }
+        prepare(payload);
+        String cacheKey = responseCache.key(payload);
+        if (cacheKey != null) {
+          ResponseCache.Entry cached = skipCache ? null : responseCache.lookup(cacheKey);
+          metrics.recordResponseCache(cached != null ? "hit" : "miss");
+          if (cached != null) {
+            rc.response().putHeader("X-Response-Cache", "hit");
+            answer.append(cached.getAnswer());
+            responseCache.replay(cached, writer, responseCache.isPaced());
+            return;
+          }
+          recording = responseCache.record(cacheKey);
+        }
+        try {
+          // Held while queued, so a hosted model can't be evicted before its turn
+          modelLease = ensureModel(writer, payload.get("model"));
         } catch (Exception e) {
-          e.printStackTrace();
-          sendEvent(emitter, "error", "System Error: " + e.getMessage());
-          emitter.complete();
+          sendEvent(writer, "error", "Could not load the model: " + e.getMessage());
+          return;
         }
-      });
+
+        // A client that leaves while queued gives up its place; one that
+        // leaves mid-answer stops the generation and any tool calls
+        writer.onCancel(() -> {
+          if (state.compareAndSet(WAITING, DONE)) {
+            metrics.recordAbandoned("queued");
+            chatExecutor.execute(this::finish);
+          } else {
+            abort();
+          }
+        });
+        ticket.whenGranted(
+            position -> {
+              if (state.get() == WAITING) {
+                sendEvent(writer, "queued", "Waiting in queue (position " + position + ")");
+                writer.flush();
+              }
+            },
+            () -> chatExecutor.execute(this::run));
+        waiting = true;
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      } finally {
+        if (!waiting && state.getAndSet(DONE) != DONE)
+          finish();
+      }
+    }
+
+    void run() {
+      if (!state.compareAndSet(WAITING, RUNNING))
+        return;
+      synchronized (this) {
+        runner = Thread.currentThread();
+      }
+      try {
+        metrics.recordAdmissionWait(ticket.getWaitNanos());
+        writer.record(recording);
+        completed = runChat(writer, payload, requestStart, answer, modelLease);
+        metrics.recordInference(System.nanoTime() - requestStart - ticket.getWaitNanos());
+      } finally {
+        synchronized (this) {
+          runner = null;
+        }
+        // Clears an abort that came too late to matter, before the cleanup does I/O
+        Thread.interrupted();
+        state.set(DONE);
+        finish();
+      }
+    }
+
+    /** Interrupts the running request, which ends the upstream read or tool wait it is blocked in. */
+    private synchronized void abort() {
+      if (runner != null)
+        runner.interrupt();
+    }
+
+    private void finish() {
+      // The client always keeps an assistant entry for the turn, even an empty one
+      if (sessionOpened)
+        sessions.appendAnswer(sessionId, answer.toString());
+      if (modelLease != null)
+        modelLease.close();
+      ticket.release();
+      writer.complete();
+      metrics.streamClosed();
+      llamaRunner.markActivity();
+      if (recording != null && completed && !writer.isCancelled())
+        responseCache.store(recording, answer.toString());
+    }
+  }
+
+  /**
+   * Replaces the payload's messages, which hold only the turn's new messages,
+   * with the session's full history. Answers 409 if the client's view of the
+   * session is out of step, so it can resend the whole history with
+   * {@code session_reset}.
+   */
+  private boolean openSession(SseWriter writer, String sessionId, Map<String, Object> payload) {
+    Object knownLength = payload.remove("history_length");
+    boolean reset = Boolean.TRUE.equals(payload.remove("session_reset"));
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> delta = (List<Map<String, Object>>) payload.getOrDefault("messages", List.of());
+    try {
+      List<Map<String, Object>> history = sessions.open(sessionId, delta,
+          knownLength instanceof Number n ? n.intValue() : null, reset);
+      if (history == null) {
+        writer.fail(409, "{\"message\":\"Session history is out of date, resend the full conversation.\","
+            + "\"code\":\"session_mismatch\"}");
+        return false;
+      }
+      payload.put("messages", history);
+      payload.putIfAbsent("conversation_id", sessionId);
+      return true;
+    } catch (IOException e) {
+      e.printStackTrace();
+      writer.fail(500, "{\"message\":\"Could not load the chat session.\"}");
+      return false;
+    }
+  }
+
+  /**
+   * Gets the requested model ready, starting it if it is not loaded and
+   * telling the client while it loads. Returns a lease on the model's own
+   * server, or null for the primary model and its replicas.
+   */
+  private ChatUpstream.Lease ensureModel(SseWriter writer, Object model) throws IOException {
+    return modelManager.route(model, message -> {
+      sendEvent(writer, "loading_model", message);
+      writer.flush();
     });
   }
 
-  private void sendEvent(MultiEmitter<? super String> emitter, String status, String content) {
-    if (emitter.isCancelled())
-      return;
+  /** Fills in what the client left out, so the payload is final before it is hashed for the cache. */
+  private void prepare(Map<String, Object> payload) {
+    if (!(payload.get("messages") instanceof List))
+      payload.put("messages", new ArrayList<>());
+
+    // Clients that don't bring their own tool definitions get every registered tool
+    if (!payload.containsKey("tools") && !toolCatalog.schemas().isEmpty()) {
+      payload.put("tools", toolCatalog.schemas());
+      payload.putIfAbsent("tool_choice", "auto");
+    }
+    payload.put("stream", true);
+  }
+
+  /**
+   * Runs the tool loop and final answer. {@code answer} collects the content
+   * streamed to the client across all turns. {@code modelLease} pins the
+   * request to a hosted model's server; without it one is picked from the
+   * pool. Returns true if the response ran to completion.
+   */
+  private boolean runChat(SseWriter writer, Map<String, Object> payload, long requestStart, StringBuilder answer,
+      ChatUpstream.Lease modelLease) {
+    int slotId = -1;
+    int loopCount = 0;
+    String stage = "generation";
+    boolean finished = false;
+    try (ChatUpstream.Lease upstream = modelLease != null ? modelLease : chatUpstream.acquire()) {
+      Set<String> seenUrls = ConcurrentHashMap.newKeySet();
+      sendEvent(writer, "thinking", "Analyzing request...");
+
+      @SuppressWarnings("unchecked")
+      List<Map<String, Object>> messages = (List<Map<String, Object>>) payload.get("messages");
+      // Slots are tracked for the primary's server only
+      if (modelLease == null)
+        slotId = slotRouter.route(payload);
+      boolean firstTokenRecorded = false;
+      final int MAX_ITERATIONS = 5;
+
+      while (!writer.isCancelled()) {
+        if (loopCount >= MAX_ITERATIONS)
+          payload.put("tool_choice", "none");
+
+        ContextCompactor.Result compaction = compactor.compact(upstream, payload);
+        if (compaction != null && compaction.saved() > 0)
+          sendEvent(writer, "compacted", "Trimmed conversation to fit the context window ("
+              + compaction.saved() + " tokens saved)");
+
+        long turnStart = System.nanoTime();
+        StreamedTurn turn = streamTurn(writer, upstream, payload);
+        long turnEnd = System.nanoTime();
+        metrics.recordUpstreamCompletion(turnEnd - turnStart);
+        if (turn == null)
+          break;
+
+        answer.append(turn.getContent());
+
+        if (!firstTokenRecorded && turn.getFirstContentNanos() > 0) {
+          metrics.recordTimeToFirstToken(turn.getFirstContentNanos() - requestStart);
+          firstTokenRecorded = true;
+        }
+
+        if (!turn.hasToolCalls() || loopCount >= MAX_ITERATIONS) {
+          recordGeneration(turn, turnEnd);
+          writer.write(DONE_FRAME);
+          finished = true;
+          return true;
+        }
+
+        List<ChatResponse.ToolCall> toolCalls = turn.getToolCalls();
+        Map<String, Object> assistantHistoryEntry = new HashMap<>();
+        assistantHistoryEntry.put("role", "assistant");
+        if (!turn.getContent().isBlank())
+          assistantHistoryEntry.put("content", turn.getContent());
+        assistantHistoryEntry.put("tool_calls", toolCalls);
+        messages.add(assistantHistoryEntry);
+
+        for (ChatResponse.ToolCall call : toolCalls)
+          sendEvent(writer, "tool_start", call.function.name);
+
+        stage = "tools";
+        List<String> results = toolExecutor.executeAll(toolCalls, seenUrls, (index, result) -> {
+          String safeResult = safeToolResult(result);
+          sendEvent(writer, "tool_output", rememberSources(safeResult, seenUrls));
+        });
+
+        for (int i = 0; i < toolCalls.size(); i++) {
+          Map<String, Object> toolResponse = new HashMap<>();
+          toolResponse.put("role", "tool");
+          toolResponse.put("tool_call_id", toolCalls.get(i).id);
+          toolResponse.put("content", safeToolResult(results.get(i)));
+          messages.add(toolResponse);
+        }
+
+        stage = "generation";
+        loopCount++;
+        sendEvent(writer, "thinking", "Analyzing results...");
+      }
+
+    } catch (InterruptedException e) {
+      // The client left; the caller clears the interrupt
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      if (!writer.isCancelled()) {
+        e.printStackTrace();
+        sendEvent(writer, "error", "System Error: " + e.getMessage());
+      }
+    } finally {
+      slotRouter.release(slotId);
+      metrics.recordToolIterations(loopCount);
+      if (!finished && writer.isCancelled())
+        metrics.recordAbandoned(stage);
+    }
+    return false;
+  }
+
+  @GET
+  @Path("/tools")
+  @Produces(MediaType.APPLICATION_JSON)
+  public List<Map<String, Object>> getTools() {
+    return toolCatalog.schemas();
+  }
+
+  @GET
+  @Path("/tools/search-cache")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getSearchCacheStats() {
+    return searchCache.getStats();
+  }
+
+  @GET
+  @Path("/chat/admission")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getAdmissionStats() {
+    Map<String, Object> stats = new HashMap<>(admission.getStats());
+    stats.put("virtualThreads", chatExecutor.isVirtual());
+    stats.put("activeThreads", chatExecutor.getActive());
+    return stats;
+  }
+
+  @GET
+  @Path("/chat/context")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getContextStats() {
+    return compactor.getStats();
+  }
+
+  @GET
+  @Path("/chat/sessions")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getSessionStats() {
+    return sessions.getStats();
+  }
+
+  @DELETE
+  @Path("/chat/sessions/{id}")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response deleteSession(@PathParam("id") String id) {
+    if (!SessionStore.isValidId(id))
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", "Invalid session id.")).build();
     try {
-      Map<String, Object> delta = new HashMap<>();
-      delta.put("used_tool", true);
-      delta.put("status", status);
-      if ("tool_output".equals(status)) {
-        delta.put("content", content);
-      } else {
-        delta.put("tool_name", content);
+      return Response.ok(Map.of("deleted", sessions.delete(id))).build();
+    } catch (IOException e) {
+      return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
+          .entity(Map.of("message", "Failed to delete session: " + e.getMessage())).build();
+    }
+  }
+
+  @GET
+  @Path("/chat/response-cache")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getResponseCacheStats() {
+    return responseCache.getStats();
+  }
+
+  @DELETE
+  @Path("/chat/response-cache")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> clearResponseCache() {
+    responseCache.clear();
+    return responseCache.getStats();
+  }
+
+  @GET
+  @Path("/chat/slots")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getSlotStats() {
+    return slotRouter.getStats();
+  }
+
+  /**
+   * Runs one streamed completion. Returns null if the upstream stream failed
+   * or the client went away.
+   */
+  private StreamedTurn streamTurn(SseWriter writer, ChatUpstream.Lease upstream, Map<String, Object> payload) {
+    try (InputStream body = upstream.openStream(payload)) {
+      // Closing the body on the way out drops the connection, so llama-server stops generating
+      return readTurn(body, writer);
+    } catch (Exception err) {
+      if (!writer.isCancelled()) {
+        System.err.println("Stream error: " + err.getMessage());
+        sendEvent(writer, "error", "Stream interrupted.");
+      }
+      return null;
+    }
+  }
+
+  /**
+   * Reads one completion stream. Content frames are forwarded to the client
+   * byte for byte as soon as they arrive; only frames carrying tool call
+   * fragments, timings or a finish reason are decoded, and tool call fragments
+   * are held back and merged until the stream ends. Returns null once the
+   * client has gone away.
+   */
+  StreamedTurn readTurn(InputStream body, SseWriter writer) throws IOException {
+    StreamedTurn turn = new StreamedTurn(objectMapper);
+    SseFrameScanner frames = new SseFrameScanner(body, 8192);
+    while (frames.next()) {
+      if (writer.isCancelled())
+        return null;
+      int start = frames.dataStart();
+      int end = frames.dataEnd();
+      if (start < 0 || start == end || frames.dataEquals(DONE))
+        continue;
+
+      if (!frames.dataContains(TOOL_CALLS) && !frames.dataContains(TIMINGS) && !frames.dataContains(FINISHED)) {
+        turn.acceptContentFrame(frames.buffer(), start, end);
+        writer.write(frames.buffer(), frames.frameStart(), frames.frameEnd() - frames.frameStart());
+        continue;
+      }
+
+      boolean toolFragment = false;
+      try {
+        ChatResponse chunk = objectMapper.readValue(frames.buffer(), start, end - start, ChatResponse.class);
+        slotRouter.recordTimings(chunk.timings);
+        turn.acceptTimings(chunk.timings);
+        if (chunk.choices != null) {
+          for (ChatResponse.Choice choice : chunk.choices) {
+            turn.accept(choice);
+            if (choice.delta != null && choice.delta.tool_calls != null)
+              toolFragment = true;
+          }
+        }
+      } catch (Exception ignored) {
+      }
+
+      if (!toolFragment) {
+        writer.write(frames.buffer(), frames.frameStart(), frames.frameEnd() - frames.frameStart());
       }
+    }
+    return turn;
+  }
 
-      Map<String, Object> envelope = Collections.singletonMap("choices",
-          Collections.singletonList(Collections.singletonMap("delta", delta)));
+  // Prefers llama-server's own generation timings over counting forwarded chunks
+  private void recordGeneration(StreamedTurn turn, long turnEnd) {
+    ChatResponse.Timings timings = turn.getTimings();
+    if (timings != null && timings.predicted_n != null && timings.predicted_ms != null) {
+      metrics.recordGeneration(timings.predicted_n, (long) (timings.predicted_ms * 1_000_000));
+    } else if (turn.getFirstContentNanos() > 0) {
+      metrics.recordGeneration(turn.getContentChunks(), turnEnd - turn.getFirstContentNanos());
+    }
+  }
 
-      emitter.emit("data: " + objectMapper.writeValueAsString(envelope) + "\n\n");
+  private String safeToolResult(String result) {
+    return (result == null || result.isBlank()) ? "No results found." : result;
+  }
+
+  /**
+   * Adds the urls of a tool result to {@code seenUrls} and returns the result
+   * as the client's source list, without the page text of fetched pages.
+   */
+  private String rememberSources(String result, Set<String> seenUrls) {
+    try {
+      List<Map<String, Object>> resultData = objectMapper.readValue(result, new TypeReference<>() {
+      });
+      boolean hasPageText = false;
+      for (Map<String, Object> source : resultData) {
+        Object url = source.get("url");
+        if (url instanceof String)
+          seenUrls.add((String) url);
+        hasPageText |= source.remove("content") != null;
+      }
+      return hasPageText ? objectMapper.writeValueAsString(resultData) : result;
     } catch (Exception ignored) {
+      return result;
     }
   }
 
-  private String formatChunk(String chunk) {
-    if (chunk == null)
-      return "";
-    String trimmed = chunk.trim();
-    if (trimmed.isEmpty())
-      return "";
-    if (trimmed.startsWith("data:")) {
-      return trimmed.endsWith("\n\n") ? trimmed : trimmed + "\n\n";
+
+  private void sendEvent(SseWriter writer, String status, String content) {
+    if (writer.isCancelled())
+      return;
+    try {
+      writer.write(statusEvent(objectMapper, status, content));
+    } catch (Exception ignored) {
     }
-    if (trimmed.equals("[DONE]")) {
-      return "data: [DONE]\n\n";
+  }
+
+  /** An SSE frame in the delta shape the frontend expects for tool and status updates. */
+  static Buffer statusEvent(ObjectMapper objectMapper, String status, String content) throws IOException {
+    Map<String, Object> delta = new HashMap<>();
+    delta.put("used_tool", true);
+    delta.put("status", status);
+    if ("tool_output".equals(status)) {
+      delta.put("content", content);
+    } else {
+      delta.put("tool_name", content);
     }
-    return "data: " + trimmed + "\n\n";
+
+    Map<String, Object> envelope = Collections.singletonMap("choices",
+        Collections.singletonList(Collections.singletonMap("delta", delta)));
+
+    byte[] json = objectMapper.writeValueAsBytes(envelope);
+    return Buffer.buffer(json.length + 8).appendString("data: ").appendBytes(json).appendString("\n\n");
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,75 @@
+package com.example.backend.chat;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs chat requests. Admission control already bounds how many run at once,
+ * so this pool only has to avoid being the bound itself, and it keeps chat
+ * streams off the shared worker pool the REST endpoints use. On Java 21 and
+ * later each request gets a virtual thread; before that, a platform thread
+ * that lives as long as the request does.
+ */
+@ApplicationScoped
+public class ChatExecutor {
+
+  @ConfigProperty(name = "chat.executor.virtual-threads", defaultValue = "true")
+  boolean virtualThreads;
+
+  private final AtomicInteger threadCount = new AtomicInteger();
+  private final AtomicInteger active = new AtomicInteger();
+  private ExecutorService executor;
+  private boolean virtual;
+
+  @PostConstruct
+  void init() {
+    if (virtualThreads) {
+      try {
+        // Looked up reflectively so the build can keep targeting Java 17
+        executor = (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        virtual = true;
+      } catch (ReflectiveOperationException e) {
+        // Runtime predates virtual threads
+      }
+    }
+    if (executor == null) {
+      executor = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "chat-" + threadCount.incrementAndGet());
+        thread.setDaemon(true);
+        return thread;
+      });
+    }
+    System.out.println("Chat requests run on " + (virtual ? "virtual threads" : "platform threads"));
+  }
+
+  @PreDestroy
+  void shutdown() {
+    executor.shutdownNow();
+  }
+
+  public void execute(Runnable task) {
+    executor.execute(() -> {
+      active.incrementAndGet();
+      try {
+        task.run();
+      } finally {
+        active.decrementAndGet();
+      }
+    });
+  }
+
+  public boolean isVirtual() {
+    return virtual;
+  }
+
+  /** Threads currently busy with a chat request; waiting in the queue takes none. */
+  public int getActive() {
+    return active.get();
+  }
+}
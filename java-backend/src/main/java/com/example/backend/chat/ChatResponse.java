@@ -2,14 +2,20 @@ package com.example.backend.chat;
 
 import java.util.List;
 import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
 
 @JsonIgnoreProperties(ignoreUnknown = true)
 public class ChatResponse {
   public List<Choice> choices;
+  // llama-server specific, sent with the last chunk of a completion
+  public Timings timings;
 
   @JsonIgnoreProperties(ignoreUnknown = true)
   public static class Choice {
     public Message message;
+    // Populated instead of message when the upstream call is streamed
+    public Message delta;
+    public String finish_reason;
   }
 
   @JsonIgnoreProperties(ignoreUnknown = true)
@@ -20,7 +26,10 @@ public class ChatResponse {
   }
 
   @JsonIgnoreProperties(ignoreUnknown = true)
+  @JsonInclude(JsonInclude.Include.NON_NULL)
   public static class ToolCall {
+    // Only present on streamed fragments; identifies which call a fragment belongs to
+    public Integer index;
     public String id;
     public String type;
     public Function function;
@@ -31,4 +40,13 @@ public class ChatResponse {
     public String name;
     public String arguments;
   }
-}
\ No newline at end of file
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Timings {
+    public Integer cache_n;
+    public Integer prompt_n;
+    public Integer predicted_n;
+    public Double prompt_ms;
+    public Double predicted_ms;
+  }
+}
@@ -0,0 +1,484 @@
+package com.example.backend.chat;
+
+import com.example.backend.metrics.BackendMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Holds the servers that chat requests are sent to: the primary llama-server,
+ * which can be switched atomically at runtime, and any number of replicas
+ * serving the same model. Requests hold a {@link Lease} for their whole
+ * duration so they finish on the server they started on, and a previous
+ * primary can be drained before its process is stopped.
+ *
+ * <p>
+ * With replicas registered, each request goes to the less loaded of two
+ * randomly chosen healthy servers, load being in-flight requests per unit of
+ * capacity. Servers are probed in the background, and a server that refuses a
+ * completion before streaming anything is marked down and the completion is
+ * retried on another one.
+ */
+@ApplicationScoped
+public class ChatUpstream {
+
+  public static class Target {
+    final String url;
+    final boolean replica;
+    final AtomicInteger inFlight = new AtomicInteger();
+    volatile int capacity;
+    volatile boolean healthy = true;
+    volatile int failedProbes;
+    volatile String lastError;
+    volatile long lastUsed = System.currentTimeMillis();
+    final AtomicLong requests = new AtomicLong();
+    final AtomicLong failures = new AtomicLong();
+
+    Target(String url, boolean replica, int capacity) {
+      this.url = url;
+      this.replica = replica;
+      this.capacity = capacity;
+    }
+
+    public String getUrl() {
+      return url;
+    }
+
+    public int getInFlight() {
+      return inFlight.get();
+    }
+
+    public long getLastUsed() {
+      return lastUsed;
+    }
+
+    public long getRequests() {
+      return requests.get();
+    }
+
+    double load() {
+      return (inFlight.get() + 1.0) / Math.max(1, capacity);
+    }
+
+    void markDown(String error) {
+      healthy = false;
+      lastError = error;
+      failures.incrementAndGet();
+    }
+
+    Map<String, Object> describe() {
+      Map<String, Object> state = new HashMap<>();
+      state.put("url", url);
+      state.put("replica", replica);
+      state.put("healthy", healthy);
+      state.put("capacity", capacity);
+      state.put("inFlight", inFlight.get());
+      state.put("requests", requests.get());
+      state.put("failures", failures.get());
+      state.put("lastError", lastError);
+      return state;
+    }
+  }
+
+  public class Lease implements AutoCloseable {
+    private Target target;
+    private final boolean pinned;
+    private boolean closed;
+
+    Lease(Target target, boolean pinned) {
+      this.target = target;
+      this.pinned = pinned;
+      target.lastUsed = System.currentTimeMillis();
+    }
+
+    public String url() {
+      return target.url;
+    }
+
+    public Target target() {
+      return target;
+    }
+
+    /**
+     * Posts a streamed completion and returns the raw SSE body, so the caller
+     * can forward frames without decoding them. If the server can't be reached
+     * or answers 502-504, the lease moves to another server and tries again;
+     * nothing has been streamed at that point, so the retry is invisible.
+     */
+    public InputStream openStream(Map<String, Object> payload) throws IOException, InterruptedException {
+      Set<Target> tried = new HashSet<>();
+      while (true) {
+        tried.add(target);
+        target.requests.incrementAndGet();
+        String failure = null;
+        HttpResponse<InputStream> response = null;
+        try {
+          response = send(payload);
+        } catch (IOException e) {
+          failure = e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+        }
+        if (response != null) {
+          int status = response.statusCode();
+          if (status == 200)
+            return response.body();
+          try (InputStream body = response.body()) {
+            failure = "Upstream returned HTTP " + status + ": "
+                + new String(body.readNBytes(512), StandardCharsets.UTF_8);
+          }
+          // Other errors are about the request itself and would fail anywhere
+          if (status < 502 || status > 504)
+            throw new IOException(failure);
+        }
+
+        // A hosted model has no other server to go to
+        if (pinned)
+          throw new IOException(failure);
+        target.markDown(failure);
+        Target next = pick(tried);
+        if (next == null)
+          throw new IOException(failure);
+        System.err.println("Chat upstream " + target.url + " failed (" + failure + "), retrying on " + next.url);
+        metrics.recordUpstreamFailover();
+        next.inFlight.incrementAndGet();
+        target.inFlight.decrementAndGet();
+        target = next;
+      }
+    }
+
+    // A pooled connection the server closed a moment ago fails without any
+    // response; that says nothing about the server, so it gets one more try
+    private HttpResponse<InputStream> send(Map<String, Object> payload) throws IOException, InterruptedException {
+      try {
+        return streamClient.send(completionRequest(payload), IdleTimeoutBody.handler(readTimeoutMs));
+      } catch (ConnectException | HttpTimeoutException e) {
+        throw e;
+      } catch (IOException e) {
+        return streamClient.send(completionRequest(payload), IdleTimeoutBody.handler(readTimeoutMs));
+      }
+    }
+
+    // Slot ids only mean something to the primary, which SlotRouter tracks. The
+    // timeout bounds the wait for the headers; IdleTimeoutBody bounds each read
+    private HttpRequest completionRequest(Map<String, Object> payload) throws IOException {
+      Map<String, Object> body = payload;
+      if (target.replica && payload.containsKey("id_slot")) {
+        body = new HashMap<>(payload);
+        body.remove("id_slot");
+      }
+      return HttpRequest.newBuilder(URI.create(target.url + "/v1/chat/completions"))
+          .header("Content-Type", "application/json")
+          .header("Accept", "text/event-stream")
+          .timeout(Duration.ofMillis(readTimeoutMs))
+          .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+          .build();
+    }
+
+    /** Small JSON request to one of the server's auxiliary endpoints, e.g. /tokenize. */
+    public byte[] postJson(String path, byte[] json) throws IOException, InterruptedException {
+      return send(HttpRequest.newBuilder(URI.create(target.url + path))
+          .header("Content-Type", "application/json")
+          .POST(HttpRequest.BodyPublishers.ofByteArray(json)));
+    }
+
+    public byte[] get(String path) throws IOException, InterruptedException {
+      return send(HttpRequest.newBuilder(URI.create(target.url + path)).GET());
+    }
+
+    private byte[] send(HttpRequest.Builder builder) throws IOException, InterruptedException {
+      HttpRequest request = builder.timeout(Duration.ofMillis(readTimeoutMs)).build();
+      HttpResponse<byte[]> response = streamClient.send(request, HttpResponse.BodyHandlers.ofByteArray());
+      if (response.statusCode() != 200)
+        throw new IOException(request.uri().getPath() + " returned HTTP " + response.statusCode());
+      return response.body();
+    }
+
+    @Override
+    public synchronized void close() {
+      if (!closed) {
+        closed = true;
+        target.lastUsed = System.currentTimeMillis();
+        target.inFlight.decrementAndGet();
+      }
+    }
+  }
+
+  @ConfigProperty(name = "chat.upstream.url")
+  String defaultUrl;
+
+  @ConfigProperty(name = "chat.upstream.connect-timeout", defaultValue = "120000")
+  long connectTimeoutMs;
+
+  @ConfigProperty(name = "chat.upstream.read-timeout", defaultValue = "120000")
+  long readTimeoutMs;
+
+  /** Extra servers serving the same model, registered at startup. */
+  @ConfigProperty(name = "chat.replicas")
+  Optional<List<String>> configuredReplicas;
+
+  @ConfigProperty(name = "chat.replicas.capacity", defaultValue = "1")
+  int defaultReplicaCapacity;
+
+  /** Consecutive failed probes after which a server stops getting requests. */
+  @ConfigProperty(name = "chat.replicas.unhealthy-after", defaultValue = "2")
+  int unhealthyAfter;
+
+  @Inject
+  SlotRouter slotRouter;
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @Inject
+  BackendMetrics metrics;
+
+  private final AtomicReference<Target> current = new AtomicReference<>();
+  private final Map<String, Target> replicas = new ConcurrentHashMap<>();
+  // Servers for models other than the primary's; reached only through acquire(Target)
+  private final Set<Target> hosted = ConcurrentHashMap.newKeySet();
+  private final List<Runnable> capacityListeners = new CopyOnWriteArrayList<>();
+  private volatile HttpClient streamClient;
+  private final HttpClient probeClient = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(2))
+      .build();
+
+  @PostConstruct
+  void init() {
+    dropConnections();
+    configuredReplicas.ifPresent(urls -> urls.forEach(url -> addReplica(url, defaultReplicaCapacity)));
+  }
+
+  /**
+   * Starts over with a fresh connection pool. Called when a server is started
+   * on a port that a stopped one used, whose pooled keep-alive connections
+   * would otherwise fail the next request.
+   */
+  public void dropConnections() {
+    streamClient = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofMillis(connectTimeoutMs))
+        .build();
+  }
+
+  public Lease acquire() {
+    while (true) {
+      Target target = pick(Set.of());
+      target.inFlight.incrementAndGet();
+      if (target.replica ? replicas.get(target.url) == target : current.get() == target)
+        return new Lease(target, false);
+      // Lost a race with switchTo or removeReplica; don't count against the retired target
+      target.inFlight.decrementAndGet();
+    }
+  }
+
+  /** A lease on one specific server, with no failover. */
+  public Lease acquire(Target target) {
+    target.inFlight.incrementAndGet();
+    return new Lease(target, true);
+  }
+
+  /** A server for another model, counted in {@link #capacity()} but never picked for pooled requests. */
+  public Target addHosted(String url, int capacity) {
+    Target target = new Target(url, true, capacity);
+    hosted.add(target);
+    capacityChanged();
+    return target;
+  }
+
+  public void removeHosted(Target target) {
+    hosted.remove(target);
+  }
+
+  /**
+   * Power of two choices over the healthy servers not in {@code exclude}.
+   * If none is healthy every server is a candidate, since probes can lag
+   * behind a recovery. Returns null only if every server is excluded.
+   */
+  private Target pick(Set<Target> exclude) {
+    List<Target> all = new ArrayList<>();
+    all.add(current());
+    all.addAll(replicas.values());
+    all.removeAll(exclude);
+    List<Target> candidates = all.stream().filter(target -> target.healthy).toList();
+    if (candidates.isEmpty())
+      candidates = all;
+    if (candidates.size() <= 1)
+      return candidates.isEmpty() ? null : candidates.get(0);
+
+    ThreadLocalRandom random = ThreadLocalRandom.current();
+    int first = random.nextInt(candidates.size());
+    int second = random.nextInt(candidates.size() - 1);
+    if (second >= first)
+      second++;
+    Target a = candidates.get(first);
+    Target b = candidates.get(second);
+    return a.load() <= b.load() ? a : b;
+  }
+
+  /**
+   * Runs {@code listener} whenever {@link #capacity()} may have grown: a
+   * server was added or given more slots, or came back healthy.
+   */
+  public void onCapacityChange(Runnable listener) {
+    capacityListeners.add(listener);
+  }
+
+  private void capacityChanged() {
+    capacityListeners.forEach(Runnable::run);
+  }
+
+  /** Requests the healthy servers and hosted models can run at once, at least the primary's slot count. */
+  public int capacity() {
+    int total = current().healthy ? current().capacity : 0;
+    for (Target replica : replicas.values()) {
+      if (replica.healthy)
+        total += replica.capacity;
+    }
+    for (Target model : hosted)
+      total += model.capacity;
+    return Math.max(slotRouter.getSlotCount(), total);
+  }
+
+  public Target addReplica(String url, int capacity) {
+    String normalized = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    URI uri = URI.create(normalized);
+    if (!"http".equals(uri.getScheme()) && !"https".equals(uri.getScheme()) || uri.getHost() == null)
+      throw new IllegalArgumentException("Replica url must be an http(s) url: " + url);
+    Target target = replicas.compute(normalized, (key, existing) -> {
+      if (existing != null) {
+        existing.capacity = Math.max(1, capacity);
+        return existing;
+      }
+      return new Target(normalized, true, Math.max(1, capacity));
+    });
+    probe(target).join();
+    System.out.println("Chat replica " + normalized + " registered, " + (target.healthy ? "healthy" : "not reachable"));
+    capacityChanged();
+    return target;
+  }
+
+  /** In-flight requests on the replica finish there; new ones go elsewhere. */
+  public boolean removeReplica(String url) {
+    String normalized = url.endsWith("/") ? url.substring(0, url.length() - 1) : url;
+    return replicas.remove(normalized) != null;
+  }
+
+  public List<Map<String, Object>> getReplicas() {
+    List<Map<String, Object>> states = new ArrayList<>();
+    states.add(current().describe());
+    replicas.values().forEach(replica -> states.add(replica.describe()));
+    return states;
+  }
+
+  /** Probes every server while replicas are registered; a lone primary needs no routing decision. */
+  @Scheduled(every = "${chat.replicas.probe-interval:5s}")
+  void probeAll() {
+    if (replicas.isEmpty())
+      return;
+    List<CompletableFuture<Void>> probes = new ArrayList<>();
+    probes.add(probe(current()));
+    replicas.values().forEach(replica -> probes.add(probe(replica)));
+    CompletableFuture.allOf(probes.toArray(CompletableFuture[]::new)).join();
+  }
+
+  /**
+   * Asks llama-server's /health, falling back to /v1/models for other
+   * OpenAI-compatible servers. One good answer marks a server healthy again.
+   */
+  private CompletableFuture<Void> probe(Target target) {
+    return probeStatus(target, "/health")
+        .thenCompose(status -> status == 404 ? probeStatus(target, "/v1/models") : CompletableFuture.completedFuture(status))
+        .handle((status, error) -> {
+          if (error == null && status == 200) {
+            boolean recovered = !target.healthy;
+            target.healthy = true;
+            target.failedProbes = 0;
+            if (recovered)
+              capacityChanged();
+          } else {
+            target.lastError = error != null ? "Probe failed: " + error.getCause() : "Probe returned HTTP " + status;
+            if (++target.failedProbes >= unhealthyAfter)
+              target.healthy = false;
+          }
+          return null;
+        });
+  }
+
+  private CompletableFuture<Integer> probeStatus(Target target, String path) {
+    HttpRequest request = HttpRequest.newBuilder(URI.create(target.url + path))
+        .timeout(Duration.ofSeconds(2))
+        .GET()
+        .build();
+    return probeClient.sendAsync(request, HttpResponse.BodyHandlers.discarding()).thenApply(HttpResponse::statusCode);
+  }
+
+  public Target current() {
+    Target target = current.get();
+    if (target == null) {
+      current.compareAndSet(null, new Target(defaultUrl, false, slotRouter.getSlotCount()));
+      target = current.get();
+    }
+    return target;
+  }
+
+  /** Sends new requests to {@code url} and returns the target they used to go to. */
+  public Target switchTo(String url) {
+    Target previous = current();
+    if (previous.url.equals(url)) {
+      // Called once a server on that url is ready, which may follow failed probes
+      previous.healthy = true;
+      previous.failedProbes = 0;
+      capacityChanged();
+      return previous;
+    }
+    current.set(new Target(url, false, slotRouter.getSlotCount()));
+    System.out.println("Chat upstream switched from " + previous.url + " to " + url);
+    capacityChanged();
+    return previous;
+  }
+
+  /** Waits until no request holds a lease on {@code target}; false on timeout. */
+  public boolean awaitDrained(Target target, long timeoutMs) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + timeoutMs;
+    while (target.inFlight.get() > 0) {
+      if (System.currentTimeMillis() > deadline)
+        return false;
+      Thread.sleep(200);
+    }
+    return true;
+  }
+
+  /** The configured upstream url with its port replaced, for locally launched servers. */
+  public String urlForPort(String port) {
+    URI uri = URI.create(defaultUrl);
+    return uri.getScheme() + "://" + uri.getHost() + ":" + port;
+  }
+}
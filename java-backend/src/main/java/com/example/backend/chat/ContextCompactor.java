@@ -0,0 +1,275 @@
+package com.example.backend.chat;
+
+import com.example.backend.metrics.BackendMetrics;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the messages of a chat request within the upstream context window.
+ * Messages are counted with llama-server's /tokenize endpoint, with counts
+ * cached by text. When the prompt is over budget, older tool outputs are
+ * truncated first and then the oldest turns are dropped whole, so a tool call
+ * never loses its result. The system prompt and the latest turn are always
+ * kept; only as a last resort are the latest turn's own tool outputs
+ * truncated.
+ */
+@ApplicationScoped
+public class ContextCompactor {
+
+  /** Role markers and separators most chat templates add around a message. */
+  private static final int MESSAGE_OVERHEAD = 4;
+  /** Rough cost of an image part; the real figure depends on the projector. */
+  private static final int IMAGE_TOKENS = 768;
+  private static final String TRUNCATED = "\n[... truncated to fit the context window]";
+
+  public static class Result {
+    public final int tokensBefore;
+    public final int tokensAfter;
+    public final int budget;
+
+    Result(int tokensBefore, int tokensAfter, int budget) {
+      this.tokensBefore = tokensBefore;
+      this.tokensAfter = tokensAfter;
+      this.budget = budget;
+    }
+
+    public int saved() {
+      return tokensBefore - tokensAfter;
+    }
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @Inject
+  BackendMetrics metrics;
+
+  /** Prompt budget in tokens; 0 uses the per-slot context size the server reports. */
+  @ConfigProperty(name = "chat.context.budget-tokens", defaultValue = "0")
+  int budgetTokens;
+
+  /** Tokens kept free for the answer when the request sets no max_tokens. */
+  @ConfigProperty(name = "chat.context.reserve-tokens", defaultValue = "256")
+  int reserveTokens;
+
+  @ConfigProperty(name = "chat.context.tool-output-chars", defaultValue = "1200")
+  int toolOutputChars;
+
+  @ConfigProperty(name = "chat.context.token-cache-size", defaultValue = "4096")
+  int tokenCacheSize;
+
+  /** Context size of the upstream target it was read from; a model switch creates a new target. */
+  private static class KnownSize {
+    final ChatUpstream.Target target;
+    final int size;
+
+    KnownSize(ChatUpstream.Target target, int size) {
+      this.target = target;
+      this.size = size;
+    }
+  }
+
+  private volatile KnownSize contextSize;
+  private final Map<String, Integer> tokenCounts = new LinkedHashMap<>(256, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+      return size() > tokenCacheSize;
+    }
+  };
+
+  private final AtomicLong compactions = new AtomicLong();
+  private final AtomicLong tokensSaved = new AtomicLong();
+  private final AtomicLong turnsDropped = new AtomicLong();
+  private final AtomicLong cacheHits = new AtomicLong();
+  private final AtomicLong cacheMisses = new AtomicLong();
+  private final AtomicLong tokenizeFailures = new AtomicLong();
+
+  /**
+   * Compacts {@code payload.messages} in place. Returns null when the context
+   * size is unknown, otherwise the token counts before and after.
+   */
+  public Result compact(ChatUpstream.Lease upstream, Map<String, Object> payload) {
+    @SuppressWarnings("unchecked")
+    List<Map<String, Object>> messages = (List<Map<String, Object>>) payload.get("messages");
+    int window = budgetTokens > 0 ? budgetTokens : contextSize(upstream);
+    if (messages == null || messages.isEmpty() || window <= 0)
+      return null;
+
+    Object maxTokens = payload.getOrDefault("max_tokens", payload.get("n_predict"));
+    int reserve = maxTokens instanceof Number n && n.intValue() > 0 ? n.intValue() : reserveTokens;
+    int budget = Math.max(1, window - reserve);
+
+    List<Integer> counts = new ArrayList<>(messages.size());
+    int total = 0;
+    for (Map<String, Object> message : messages) {
+      int count = countMessage(upstream, message);
+      counts.add(count);
+      total += count;
+    }
+    int before = total;
+    if (total <= budget)
+      return new Result(before, total, budget);
+
+    int latest = latestTurnStart(messages);
+
+    // 1. Truncate tool outputs of earlier turns, oldest first
+    for (int i = 0; i < latest && total > budget; i++)
+      total += truncateToolOutput(upstream, messages, counts, i);
+
+    // 2. Drop the oldest turns whole, keeping leading system messages
+    while (total > budget) {
+      int start = 0;
+      while (start < messages.size() && "system".equals(messages.get(start).get("role")))
+        start++;
+      if (start >= latest)
+        break;
+      int end = start + 1;
+      while (end < latest && !"user".equals(messages.get(end).get("role")))
+        end++;
+      for (int i = end - 1; i >= start; i--) {
+        total -= counts.remove(i);
+        messages.remove(i);
+      }
+      latest -= end - start;
+      turnsDropped.incrementAndGet();
+    }
+
+    // 3. Last resort: the latest turn's own tool outputs
+    for (int i = latest; i < messages.size() && total > budget; i++)
+      total += truncateToolOutput(upstream, messages, counts, i);
+
+    if (total < before) {
+      compactions.incrementAndGet();
+      tokensSaved.addAndGet(before - total);
+      metrics.recordContextCompaction(before - total);
+    }
+    return new Result(before, total, budget);
+  }
+
+  /** Index of the last user message, or of the last message if there is none. */
+  private static int latestTurnStart(List<Map<String, Object>> messages) {
+    for (int i = messages.size() - 1; i >= 0; i--) {
+      if ("user".equals(messages.get(i).get("role")))
+        return i;
+    }
+    return messages.size() - 1;
+  }
+
+  /** Shortens a long tool message in place and returns the change in tokens. */
+  private int truncateToolOutput(ChatUpstream.Lease upstream, List<Map<String, Object>> messages,
+      List<Integer> counts, int index) {
+    Map<String, Object> message = messages.get(index);
+    if (!"tool".equals(message.get("role")) || !(message.get("content") instanceof String content)
+        || content.length() <= toolOutputChars)
+      return 0;
+
+    Map<String, Object> shortened = new HashMap<>(message);
+    shortened.put("content", content.substring(0, toolOutputChars) + TRUNCATED);
+    messages.set(index, shortened);
+    int count = countMessage(upstream, shortened);
+    int delta = count - counts.get(index);
+    counts.set(index, count);
+    return delta;
+  }
+
+  private int countMessage(ChatUpstream.Lease upstream, Map<String, Object> message) {
+    int count = MESSAGE_OVERHEAD;
+    Object content = message.get("content");
+    if (content instanceof String text) {
+      count += countText(upstream, text);
+    } else if (content instanceof List<?> parts) {
+      for (Object part : parts) {
+        if (!(part instanceof Map<?, ?> map))
+          continue;
+        if (map.get("text") instanceof String text)
+          count += countText(upstream, text);
+        else if (map.containsKey("image_url"))
+          count += IMAGE_TOKENS;
+      }
+    }
+    Object toolCalls = message.get("tool_calls");
+    if (toolCalls != null) {
+      try {
+        count += countText(upstream, objectMapper.writeValueAsString(toolCalls));
+      } catch (Exception e) {
+        // Unserializable tool calls would fail upstream anyway
+      }
+    }
+    return count;
+  }
+
+  int countText(ChatUpstream.Lease upstream, String text) {
+    if (text.isEmpty())
+      return 0;
+    synchronized (tokenCounts) {
+      Integer cached = tokenCounts.get(text);
+      if (cached != null) {
+        cacheHits.incrementAndGet();
+        return cached;
+      }
+    }
+    cacheMisses.incrementAndGet();
+    try {
+      byte[] response = upstream.postJson("/tokenize",
+          objectMapper.writeValueAsBytes(Collections.singletonMap("content", text)));
+      int count = objectMapper.readTree(response).path("tokens").size();
+      synchronized (tokenCounts) {
+        tokenCounts.put(text, count);
+      }
+      return count;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      tokenizeFailures.incrementAndGet();
+    }
+    // Roughly four characters per token for English text; not cached
+    return (text.length() + 3) / 4;
+  }
+
+  /** Per-slot context size from the server's /props, fetched once per upstream target. */
+  private int contextSize(ChatUpstream.Lease upstream) {
+    KnownSize known = contextSize;
+    if (known != null && known.target == upstream.target())
+      return known.size;
+    try {
+      JsonNode props = objectMapper.readTree(upstream.get("/props"));
+      int size = props.path("default_generation_settings").path("n_ctx").asInt(0);
+      if (size > 0)
+        contextSize = new KnownSize(upstream.target(), size);
+      return size;
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } catch (Exception e) {
+      System.err.println("Could not read context size from " + upstream.url() + "/props: " + e.getMessage());
+    }
+    return 0;
+  }
+
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("compactions", compactions.get());
+    stats.put("tokensSaved", tokensSaved.get());
+    stats.put("turnsDropped", turnsDropped.get());
+    stats.put("tokenCacheHits", cacheHits.get());
+    stats.put("tokenCacheMisses", cacheMisses.get());
+    stats.put("tokenizeFailures", tokenizeFailures.get());
+    KnownSize known = contextSize;
+    if (known != null)
+      stats.put("contextSize", Map.of("url", known.target.getUrl(), "tokens", known.size));
+    synchronized (tokenCounts) {
+      stats.put("tokenCacheEntries", tokenCounts.size());
+    }
+    return stats;
+  }
+}
@@ -0,0 +1,149 @@
+package com.example.backend.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A streamed response body whose reads fail once the server has sent nothing
+ * for the idle timeout. HttpClient's request timeout only covers the wait for
+ * the response headers, and a completion may stream for longer than any fixed
+ * deadline, so this is the stream's read timeout. Reads are interruptible,
+ * and an interrupted or timed out read cancels the response.
+ */
+class IdleTimeoutBody extends InputStream implements HttpResponse.BodySubscriber<InputStream> {
+
+  // A distinct instance, so it can't be mistaken for an empty batch of buffers
+  private static final List<ByteBuffer> END = Collections.unmodifiableList(new ArrayList<>());
+
+  private final long idleTimeoutMs;
+  private final BlockingQueue<List<ByteBuffer>> queue = new LinkedBlockingQueue<>();
+  private volatile Flow.Subscription subscription;
+  private volatile Throwable error;
+  private volatile boolean closed;
+  private Iterator<ByteBuffer> pending = Collections.emptyIterator();
+  private ByteBuffer buffer;
+  private boolean ended;
+
+  IdleTimeoutBody(long idleTimeoutMs) {
+    this.idleTimeoutMs = idleTimeoutMs;
+  }
+
+  static HttpResponse.BodyHandler<InputStream> handler(long idleTimeoutMs) {
+    return info -> new IdleTimeoutBody(idleTimeoutMs);
+  }
+
+  @Override
+  public CompletionStage<InputStream> getBody() {
+    return CompletableFuture.completedStage(this);
+  }
+
+  @Override
+  public void onSubscribe(Flow.Subscription subscription) {
+    this.subscription = subscription;
+    if (closed)
+      subscription.cancel();
+    else
+      subscription.request(1);
+  }
+
+  @Override
+  public void onNext(List<ByteBuffer> item) {
+    queue.add(item);
+  }
+
+  @Override
+  public void onError(Throwable throwable) {
+    error = throwable;
+    queue.add(END);
+  }
+
+  @Override
+  public void onComplete() {
+    queue.add(END);
+  }
+
+  @Override
+  public int read() throws IOException {
+    ByteBuffer next = nextBuffer();
+    return next == null ? -1 : next.get() & 0xff;
+  }
+
+  @Override
+  public int read(byte[] bytes, int offset, int length) throws IOException {
+    if (length == 0)
+      return 0;
+    ByteBuffer next = nextBuffer();
+    if (next == null)
+      return -1;
+    int count = Math.min(length, next.remaining());
+    next.get(bytes, offset, count);
+    return count;
+  }
+
+  @Override
+  public int available() {
+    return buffer != null ? buffer.remaining() : 0;
+  }
+
+  /** The buffer to read from, waiting for the server if it is used up; null at the end. */
+  private ByteBuffer nextBuffer() throws IOException {
+    while (buffer == null || !buffer.hasRemaining()) {
+      if (pending.hasNext()) {
+        buffer = pending.next();
+        continue;
+      }
+      if (closed)
+        throw new IOException("Stream closed");
+      if (ended)
+        return null;
+
+      List<ByteBuffer> batch;
+      try {
+        batch = queue.poll(idleTimeoutMs, TimeUnit.MILLISECONDS);
+      } catch (InterruptedException e) {
+        close();
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while reading the upstream response");
+      }
+      if (batch == null) {
+        close();
+        throw new HttpTimeoutException("Upstream sent nothing for " + idleTimeoutMs + " ms");
+      }
+      if (batch == END) {
+        ended = true;
+        if (error != null)
+          throw error instanceof IOException io ? io : new IOException(error.getMessage(), error);
+        continue;
+      }
+      pending = batch.iterator();
+      subscription.request(1);
+    }
+    return buffer;
+  }
+
+  @Override
+  public void close() {
+    if (closed)
+      return;
+    closed = true;
+    Flow.Subscription current = subscription;
+    if (current != null)
+      current.cancel();
+    // Wakes a read blocked on another thread
+    queue.add(END);
+  }
+}
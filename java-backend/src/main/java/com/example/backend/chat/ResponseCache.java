@@ -0,0 +1,446 @@
+package com.example.backend.chat;
+
+import com.example.backend.llama.LlamaRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Replays earlier answers to deterministic chat requests. A request is
+ * cacheable when the cache is enabled and it asks for {@code temperature: 0};
+ * its key is a hash of the loaded model and the effective payload, so two
+ * requests share an entry only if the model would see exactly the same input.
+ * An entry holds every SSE frame the request produced, tool events included,
+ * with the delay before each one so it can be replayed instantly or at the
+ * original pace.
+ *
+ * <p>
+ * Entries are kept in memory up to {@code max-bytes}, least recently used
+ * first out. With {@code disk-path} set they are also written to disk, which
+ * serves misses from memory and survives restarts. Loading a different model
+ * drops both tiers.
+ */
+@ApplicationScoped
+public class ResponseCache {
+
+  private static final int DISK_MAGIC = 0x52435331; // "RCS1"
+
+  /** Payload fields that do not change what the model generates. */
+  private static final Set<String> IGNORED_FIELDS = Set.of("stream", "conversation_id", "id_slot", "cache_prompt");
+
+  public static class Entry {
+    final String model;
+    final long expiresAt;
+    final String answer;
+    final byte[] frames;
+    final int[] ends;
+    final int[] delaysMs;
+
+    Entry(String model, long expiresAt, String answer, byte[] frames, int[] ends, int[] delaysMs) {
+      this.model = model;
+      this.expiresAt = expiresAt;
+      this.answer = answer;
+      this.frames = frames;
+      this.ends = ends;
+      this.delaysMs = delaysMs;
+    }
+
+    public String getAnswer() {
+      return answer;
+    }
+
+    long bytes() {
+      return frames.length + ends.length * 8L + answer.length() * 2L + 128;
+    }
+  }
+
+  /** Collects the frames written to one response; fed by {@link SseWriter}. */
+  public static class Recording {
+    private final String key;
+    private final String model;
+    private final int maxBytes;
+    private final ByteArrayOutputStream frames = new ByteArrayOutputStream(4096);
+    private final List<int[]> marks = new ArrayList<>();
+    private long last = System.nanoTime();
+    private boolean overflowed;
+
+    Recording(String key, String model, int maxBytes) {
+      this.key = key;
+      this.model = model;
+      this.maxBytes = maxBytes;
+    }
+
+    void add(byte[] bytes, int offset, int length) {
+      if (overflowed)
+        return;
+      if (frames.size() + length > maxBytes) {
+        overflowed = true;
+        return;
+      }
+      long now = System.nanoTime();
+      frames.write(bytes, offset, length);
+      marks.add(new int[] { frames.size(), (int) ((now - last) / 1_000_000) });
+      last = now;
+    }
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @Inject
+  LlamaRunner llamaRunner;
+
+  @Inject
+  ChatUpstream chatUpstream;
+
+  @ConfigProperty(name = "chat.response-cache.enabled", defaultValue = "false")
+  boolean enabled;
+
+  @ConfigProperty(name = "chat.response-cache.max-bytes", defaultValue = "33554432")
+  long maxBytes;
+
+  /** Larger responses are not cached. */
+  @ConfigProperty(name = "chat.response-cache.max-entry-bytes", defaultValue = "1048576")
+  int maxEntryBytes;
+
+  @ConfigProperty(name = "chat.response-cache.ttl-seconds", defaultValue = "86400")
+  long ttlSeconds;
+
+  /** {@code instant} writes a cached response at once, {@code paced} keeps its original timing. */
+  @ConfigProperty(name = "chat.response-cache.replay", defaultValue = "instant")
+  String replayMode;
+
+  @ConfigProperty(name = "chat.response-cache.disk-path")
+  Optional<String> diskPath;
+
+  @ConfigProperty(name = "chat.response-cache.disk-max-bytes", defaultValue = "268435456")
+  long diskMaxBytes;
+
+  private ObjectMapper canonicalMapper;
+  private Path diskDir;
+  private String model;
+  private long memoryBytes;
+
+  private final AtomicLong diskBytes = new AtomicLong();
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong diskHits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong stores = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong invalidations = new AtomicLong();
+
+  // Access-ordered so iteration starts at the least recently used entry
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+
+  @PostConstruct
+  void init() {
+    canonicalMapper = objectMapper.copy().configure(SerializationFeature.ORDER_MAP_ENTRIES_BY_KEYS, true);
+    if (!enabled || diskPath.filter(path -> !path.isBlank()).isEmpty())
+      return;
+    diskDir = Paths.get(diskPath.get());
+    try {
+      Files.createDirectories(diskDir);
+      try (Stream<Path> files = Files.list(diskDir)) {
+        diskBytes.set(files.mapToLong(ResponseCache::sizeOf).sum());
+      }
+    } catch (IOException e) {
+      System.err.println("Response cache disk tier disabled: " + e.getMessage());
+      diskDir = null;
+    }
+  }
+
+  public boolean isPaced() {
+    return "paced".equalsIgnoreCase(replayMode);
+  }
+
+  /**
+   * Returns the cache key of a prepared payload, or null if the request is
+   * not cacheable.
+   */
+  public String key(Map<String, Object> payload) {
+    if (!enabled || !(payload.get("temperature") instanceof Number temperature) || temperature.doubleValue() != 0)
+      return null;
+    String current = currentModel();
+    checkModel(current);
+
+    Map<String, Object> effective = new TreeMap<>(payload);
+    effective.keySet().removeAll(IGNORED_FIELDS);
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      digest.update(current.getBytes(StandardCharsets.UTF_8));
+      digest.update((byte) 0);
+      digest.update(canonicalMapper.writeValueAsBytes(effective));
+      StringBuilder hex = new StringBuilder(64);
+      for (byte b : digest.digest())
+        hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+      return hex.toString();
+    } catch (IOException | NoSuchAlgorithmException e) {
+      return null;
+    }
+  }
+
+  public Entry lookup(String key) {
+    long now = System.currentTimeMillis();
+    synchronized (this) {
+      Entry entry = entries.get(key);
+      if (entry != null) {
+        if (entry.expiresAt > now && entry.model.equals(model)) {
+          hits.incrementAndGet();
+          return entry;
+        }
+        remove(key);
+      }
+    }
+    Entry entry = readFromDisk(key);
+    if (entry != null) {
+      if (entry.expiresAt > now && entry.model.equals(model)) {
+        diskHits.incrementAndGet();
+        synchronized (this) {
+          put(key, entry);
+        }
+        return entry;
+      }
+      deleteFile(diskDir.resolve(key + ".sse"));
+    }
+    misses.incrementAndGet();
+    return null;
+  }
+
+  public Recording record(String key) {
+    return new Recording(key, model, maxEntryBytes);
+  }
+
+  /** Keeps a finished recording, unless it was cut short or the model has changed since. */
+  public void store(Recording recording, String answer) {
+    if (recording.overflowed || recording.marks.isEmpty())
+      return;
+    int[] ends = new int[recording.marks.size()];
+    int[] delays = new int[ends.length];
+    for (int i = 0; i < ends.length; i++) {
+      ends[i] = recording.marks.get(i)[0];
+      delays[i] = recording.marks.get(i)[1];
+    }
+    Entry entry = new Entry(recording.model, System.currentTimeMillis() + ttlSeconds * 1000, answer,
+        recording.frames.toByteArray(), ends, delays);
+    synchronized (this) {
+      if (!entry.model.equals(model))
+        return;
+      put(recording.key, entry);
+    }
+    stores.incrementAndGet();
+    writeToDisk(recording.key, entry);
+  }
+
+  /** Writes a cached response to the client; returns false if the client went away. */
+  public boolean replay(Entry entry, SseWriter writer, boolean paced) throws InterruptedException {
+    int start = 0;
+    for (int i = 0; i < entry.ends.length; i++) {
+      if (writer.isCancelled())
+        return false;
+      if (paced && entry.delaysMs[i] > 0) {
+        writer.flush();
+        Thread.sleep(entry.delaysMs[i]);
+      }
+      writer.write(entry.frames, start, entry.ends[i] - start);
+      start = entry.ends[i];
+    }
+    return true;
+  }
+
+  public synchronized void clear() {
+    entries.clear();
+    memoryBytes = 0;
+    clearDisk();
+    invalidations.incrementAndGet();
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("enabled", enabled);
+    stats.put("model", model == null ? "" : model);
+    stats.put("entries", entries.size());
+    stats.put("memoryBytes", memoryBytes);
+    stats.put("maxBytes", maxBytes);
+    stats.put("diskEnabled", diskDir != null);
+    stats.put("diskBytes", diskBytes.get());
+    stats.put("hits", hits.get());
+    stats.put("diskHits", diskHits.get());
+    stats.put("misses", misses.get());
+    stats.put("stores", stores.get());
+    stats.put("evictions", evictions.get());
+    stats.put("invalidations", invalidations.get());
+    return stats;
+  }
+
+  private String currentModel() {
+    String path = llamaRunner.getCurrentModelPath();
+    return path != null && !path.isEmpty() ? path : "upstream:" + chatUpstream.current().getUrl();
+  }
+
+  /** Answers produced by another model must never be replayed. */
+  private synchronized void checkModel(String current) {
+    if (current.equals(model))
+      return;
+    if (model != null) {
+      System.out.println("Model changed; dropping " + entries.size() + " cached responses");
+      clear();
+    }
+    model = current;
+  }
+
+  private void put(String key, Entry entry) {
+    Entry old = entries.put(key, entry);
+    if (old != null)
+      memoryBytes -= old.bytes();
+    memoryBytes += entry.bytes();
+    var eldest = entries.entrySet().iterator();
+    while (memoryBytes > maxBytes && eldest.hasNext()) {
+      memoryBytes -= eldest.next().getValue().bytes();
+      eldest.remove();
+      evictions.incrementAndGet();
+    }
+  }
+
+  private void remove(String key) {
+    Entry old = entries.remove(key);
+    if (old != null)
+      memoryBytes -= old.bytes();
+  }
+
+  private Entry readFromDisk(String key) {
+    if (diskDir == null)
+      return null;
+    Path file = diskDir.resolve(key + ".sse");
+    if (!Files.exists(file))
+      return null;
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+      if (in.readInt() != DISK_MAGIC)
+        throw new IOException("bad header");
+      String entryModel = in.readUTF();
+      long expiresAt = in.readLong();
+      String answer = new String(in.readNBytes(in.readInt()), StandardCharsets.UTF_8);
+      int count = in.readInt();
+      int[] ends = new int[count];
+      int[] delays = new int[count];
+      for (int i = 0; i < count; i++) {
+        ends[i] = in.readInt();
+        delays[i] = in.readInt();
+      }
+      byte[] frames = in.readNBytes(in.readInt());
+      return new Entry(entryModel, expiresAt, answer, frames, ends, delays);
+    } catch (IOException e) {
+      deleteFile(file);
+      return null;
+    }
+  }
+
+  private void writeToDisk(String key, Entry entry) {
+    if (diskDir == null)
+      return;
+    Path file = diskDir.resolve(key + ".sse");
+    Path temp = diskDir.resolve(key + ".tmp");
+    try {
+      long previous = sizeOf(file);
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+        byte[] answer = entry.answer.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(DISK_MAGIC);
+        out.writeUTF(entry.model);
+        out.writeLong(entry.expiresAt);
+        out.writeInt(answer.length);
+        out.write(answer);
+        out.writeInt(entry.ends.length);
+        for (int i = 0; i < entry.ends.length; i++) {
+          out.writeInt(entry.ends[i]);
+          out.writeInt(entry.delaysMs[i]);
+        }
+        out.writeInt(entry.frames.length);
+        out.write(entry.frames);
+      }
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+      if (diskBytes.addAndGet(sizeOf(file) - previous) > diskMaxBytes)
+        trimDisk();
+    } catch (IOException e) {
+      System.err.println("Failed to write cached response: " + e.getMessage());
+      deleteFile(temp);
+    }
+  }
+
+  /** Deletes the oldest files until the disk tier is back under 90% of its budget. */
+  private synchronized void trimDisk() {
+    try (Stream<Path> listing = Files.list(diskDir)) {
+      Path[] files = listing.toArray(Path[]::new);
+      Arrays.sort(files, Comparator.comparingLong(ResponseCache::modifiedAt));
+      for (Path file : files) {
+        if (diskBytes.get() <= diskMaxBytes * 0.9)
+          break;
+        diskBytes.addAndGet(-sizeOf(file));
+        deleteFile(file);
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to trim response cache: " + e.getMessage());
+    }
+  }
+
+  private void clearDisk() {
+    if (diskDir == null)
+      return;
+    try (Stream<Path> listing = Files.list(diskDir)) {
+      listing.forEach(ResponseCache::deleteFile);
+    } catch (IOException e) {
+      System.err.println("Failed to clear response cache: " + e.getMessage());
+    }
+    diskBytes.set(0);
+  }
+
+  private static long sizeOf(Path file) {
+    try {
+      return Files.exists(file) ? Files.size(file) : 0;
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static long modifiedAt(Path file) {
+    try {
+      return Files.getLastModifiedTime(file).toMillis();
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+
+  private static void deleteFile(Path file) {
+    try {
+      Files.deleteIfExists(file);
+    } catch (IOException ignored) {
+    }
+  }
+}
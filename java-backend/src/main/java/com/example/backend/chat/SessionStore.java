@@ -0,0 +1,319 @@
+package com.example.backend.chat;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Server-held chat histories, so a client only sends the messages that are new
+ * in a turn. Every change is appended to a log file as it happens, and the
+ * most recently used sessions are also kept in memory; a session evicted from
+ * memory is read back from its log records on its next turn.
+ *
+ * <p>
+ * Log lines are {@code <id>\t<op>\t<json messages>\n}, where op is A (append),
+ * R (replace the history) or D (delete). On startup only the line headers are
+ * scanned to rebuild the offset index, and the log is rewritten without dead
+ * records when they make up most of it. The bean starts eagerly, so sessions
+ * are restored at boot instead of on the first chat request.
+ */
+@Startup
+@ApplicationScoped
+public class SessionStore {
+
+  private static final Pattern VALID_ID = Pattern.compile("[A-Za-z0-9_.-]{1,128}");
+  private static final TypeReference<List<Map<String, Object>>> MESSAGES = new TypeReference<>() {
+  };
+
+  /** Position of one record's JSON in the log. */
+  private static class Record {
+    final long offset;
+    final int length;
+
+    Record(long offset, int length) {
+      this.offset = offset;
+      this.length = length;
+    }
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @ConfigProperty(name = "chat.sessions.path", defaultValue = "sessions/sessions.log")
+  String logPath;
+
+  @ConfigProperty(name = "chat.sessions.memory-entries", defaultValue = "128")
+  int memoryEntries;
+
+  /** Rewrite the log on startup once dead records exceed this share of it. */
+  @ConfigProperty(name = "chat.sessions.compact-ratio", defaultValue = "0.5")
+  double compactRatio;
+
+  private final Map<String, List<Record>> index = new HashMap<>();
+  private final Map<String, List<Map<String, Object>>> memory = new LinkedHashMap<>(64, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, List<Map<String, Object>>> eldest) {
+      return size() > memoryEntries;
+    }
+  };
+
+  private FileChannel log;
+  private long logSize;
+  private long liveBytes;
+  private long memoryHits;
+  private long diskLoads;
+
+  public static boolean isValidId(String id) {
+    return id != null && VALID_ID.matcher(id).matches();
+  }
+
+  @PostConstruct
+  void init() {
+    Path path = Paths.get(logPath);
+    try {
+      if (path.getParent() != null)
+        Files.createDirectories(path.getParent());
+      long start = System.nanoTime();
+      long validEnd = scan(path);
+      log = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+      if (log.size() > validEnd) {
+        // A torn last line from a crash mid-write
+        log.truncate(validEnd);
+      }
+      logSize = validEnd;
+      System.out.println("Restored " + index.size() + " chat sessions in "
+          + (System.nanoTime() - start) / 1_000_000 + " ms");
+      if (logSize > 0 && liveBytes < logSize * (1 - compactRatio))
+        rewrite(path);
+    } catch (IOException e) {
+      throw new IllegalStateException("Cannot open session log " + path, e);
+    }
+  }
+
+  synchronized void close(@Observes ShutdownEvent ev) {
+    try {
+      if (log != null) {
+        log.force(false);
+        log.close();
+      }
+    } catch (IOException e) {
+      System.err.println("Failed to close session log: " + e.getMessage());
+    }
+  }
+
+  /**
+   * Adds a turn's new messages to a session and returns the full history to
+   * send upstream, as a list the caller may modify. {@code knownLength} is the
+   * number of messages the client believes the session already holds; null is
+   * returned if that does not match, or if the session is unknown and the
+   * client expected one, so the client can resend the whole history with
+   * {@code reset}.
+   */
+  public synchronized List<Map<String, Object>> open(String id, List<Map<String, Object>> delta,
+      Integer knownLength, boolean reset) throws IOException {
+    List<Map<String, Object>> history;
+    if (reset) {
+      history = new ArrayList<>(delta);
+      write(id, 'R', delta);
+    } else {
+      history = load(id);
+      int length = history == null ? 0 : history.size();
+      if (knownLength != null && knownLength != length)
+        return null;
+      if (history == null)
+        history = new ArrayList<>();
+      if (!delta.isEmpty()) {
+        history.addAll(delta);
+        write(id, 'A', delta);
+      }
+    }
+    memory.put(id, history);
+    return new ArrayList<>(history);
+  }
+
+  /** Records the assistant's answer at the end of a turn. */
+  public synchronized void appendAnswer(String id, String content) {
+    Map<String, Object> answer = new HashMap<>();
+    answer.put("role", "assistant");
+    answer.put("content", content);
+    try {
+      List<Map<String, Object>> history = load(id);
+      if (history == null)
+        return;
+      history.add(answer);
+      memory.put(id, history);
+      write(id, 'A', List.of(answer));
+    } catch (IOException e) {
+      System.err.println("Failed to store answer for session " + id + ": " + e.getMessage());
+    }
+  }
+
+  public synchronized boolean delete(String id) throws IOException {
+    memory.remove(id);
+    if (!index.containsKey(id))
+      return false;
+    write(id, 'D', List.of());
+    return true;
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("sessions", index.size());
+    stats.put("inMemory", memory.size());
+    stats.put("memoryHits", memoryHits);
+    stats.put("diskLoads", diskLoads);
+    stats.put("logBytes", logSize);
+    stats.put("liveBytes", liveBytes);
+    return stats;
+  }
+
+  private List<Map<String, Object>> load(String id) throws IOException {
+    List<Map<String, Object>> history = memory.get(id);
+    if (history != null) {
+      memoryHits++;
+      return history;
+    }
+    List<Record> records = index.get(id);
+    if (records == null)
+      return null;
+
+    diskLoads++;
+    history = new ArrayList<>();
+    for (Record record : records) {
+      ByteBuffer buffer = ByteBuffer.allocate(record.length);
+      long position = record.offset;
+      while (buffer.hasRemaining()) {
+        int read = log.read(buffer, position);
+        if (read < 0)
+          throw new IOException("Session log ends inside a record of " + id);
+        position += read;
+      }
+      history.addAll(objectMapper.readValue(buffer.array(), MESSAGES));
+    }
+    memory.put(id, history);
+    return history;
+  }
+
+  private void write(String id, char op, List<Map<String, Object>> messages) throws IOException {
+    byte[] header = (id + "\t" + op + "\t").getBytes(StandardCharsets.UTF_8);
+    byte[] json = objectMapper.writeValueAsBytes(messages);
+    ByteBuffer line = ByteBuffer.allocate(header.length + json.length + 1);
+    line.put(header).put(json).put((byte) '\n').flip();
+
+    long offset = logSize;
+    while (line.hasRemaining())
+      offset += log.write(line, offset);
+    apply(id, op, new Record(logSize + header.length, json.length));
+    logSize = offset;
+  }
+
+  private void apply(String id, char op, Record record) {
+    List<Record> records = index.get(id);
+    if (op == 'D' || op == 'R') {
+      if (records != null) {
+        for (Record old : records)
+          liveBytes -= old.length;
+      }
+      index.remove(id);
+      records = null;
+      if (op == 'D')
+        return;
+    }
+    if (records == null) {
+      records = new ArrayList<>();
+      index.put(id, records);
+    }
+    records.add(record);
+    liveBytes += record.length;
+  }
+
+  /**
+   * Rebuilds the index from the log headers without parsing any JSON and
+   * returns the offset just past the last complete line.
+   */
+  private long scan(Path path) throws IOException {
+    if (!Files.exists(path))
+      return 0;
+    long position = 0;
+    long validEnd = 0;
+    try (InputStream in = new BufferedInputStream(Files.newInputStream(path), 1 << 16)) {
+      StringBuilder header = new StringBuilder();
+      while (true) {
+        header.setLength(0);
+        int b;
+        int tabs = 0;
+        while (tabs < 2 && (b = in.read()) >= 0) {
+          position++;
+          if (b == '\t')
+            tabs++;
+          else
+            header.append((char) b);
+        }
+        if (tabs < 2)
+          return validEnd;
+
+        long jsonStart = position;
+        while ((b = in.read()) >= 0 && b != '\n')
+          position++;
+        if (b < 0)
+          return validEnd;
+        position++;
+
+        char op = header.charAt(header.length() - 1);
+        String id = header.substring(0, header.length() - 1);
+        apply(id, op, new Record(jsonStart, (int) (position - 1 - jsonStart)));
+        validEnd = position;
+      }
+    }
+  }
+
+  /** Writes each live session as a single R record into a fresh log. */
+  private void rewrite(Path path) throws IOException {
+    long before = logSize;
+    Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+    List<String> ids = new ArrayList<>(index.keySet());
+    Map<String, List<Map<String, Object>>> histories = new HashMap<>();
+    for (String id : ids)
+      histories.put(id, load(id));
+    memory.clear();
+
+    log.close();
+    index.clear();
+    liveBytes = 0;
+    logSize = 0;
+    log = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+        StandardOpenOption.READ, StandardOpenOption.WRITE);
+    for (String id : ids)
+      write(id, 'R', histories.get(id));
+    log.force(false);
+    log.close();
+
+    Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    log = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    System.out.println("Compacted session log from " + before + " to " + logSize + " bytes");
+  }
+}
@@ -0,0 +1,170 @@
+package com.example.backend.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pins conversations to llama-server slots so the server can reuse the KV
+ * cache it already holds for a conversation's prompt prefix. A conversation is
+ * identified by an explicit {@code conversation_id} in the payload, or else by
+ * a hash of its messages up to and including the first user message. When all
+ * slots are taken, the least recently used idle slot is handed over.
+ */
+@ApplicationScoped
+public class SlotRouter {
+
+  private static class Slot {
+    String conversation;
+    long lastUsed;
+    int active;
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @ConfigProperty(name = "vite.app.llama.server.slots", defaultValue = "1")
+  int slotCount;
+
+  private Slot[] slots;
+  private final Map<String, Integer> assignments = new HashMap<>();
+
+  private final AtomicLong affinityHits = new AtomicLong();
+  private final AtomicLong affinityMisses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong promptTokens = new AtomicLong();
+  private final AtomicLong cachedPromptTokens = new AtomicLong();
+
+  public int getSlotCount() {
+    return Math.max(1, slotCount);
+  }
+
+  /**
+   * Picks a slot for the payload's conversation and sets {@code id_slot} and
+   * {@code cache_prompt} on it. Every call must be paired with
+   * {@link #release(int)} once the request is finished.
+   */
+  public synchronized int route(Map<String, Object> payload) {
+    if (slots == null) {
+      slots = new Slot[getSlotCount()];
+      for (int i = 0; i < slots.length; i++)
+        slots[i] = new Slot();
+    }
+
+    String conversation = conversationKey(payload);
+    Integer slotId = assignments.get(conversation);
+
+    if (slotId != null) {
+      affinityHits.incrementAndGet();
+    } else {
+      affinityMisses.incrementAndGet();
+      slotId = pickSlot();
+      Slot slot = slots[slotId];
+      if (slot.conversation != null) {
+        assignments.remove(slot.conversation);
+        evictions.incrementAndGet();
+      }
+      slot.conversation = conversation;
+      assignments.put(conversation, slotId);
+    }
+
+    Slot slot = slots[slotId];
+    slot.active++;
+    slot.lastUsed = System.currentTimeMillis();
+
+    payload.put("id_slot", slotId);
+    payload.put("cache_prompt", true);
+    return slotId;
+  }
+
+  public synchronized void release(int slotId) {
+    if (slots != null && slotId >= 0 && slotId < slots.length && slots[slotId].active > 0)
+      slots[slotId].active--;
+  }
+
+  /** Records the prompt cache usage llama-server reports in a completion's timings. */
+  public void recordTimings(ChatResponse.Timings timings) {
+    if (timings == null || timings.prompt_n == null)
+      return;
+    long cached = timings.cache_n != null ? timings.cache_n : 0;
+    promptTokens.addAndGet(timings.prompt_n + cached);
+    cachedPromptTokens.addAndGet(cached);
+  }
+
+  public synchronized Map<String, Object> getStats() {
+    long hits = affinityHits.get();
+    long total = hits + affinityMisses.get();
+    long prompt = promptTokens.get();
+
+    List<Map<String, Object>> slotStates = new ArrayList<>();
+    if (slots != null) {
+      for (int i = 0; i < slots.length; i++) {
+        slotStates.add(Map.of(
+            "id", i,
+            "assigned", slots[i].conversation != null,
+            "active", slots[i].active,
+            "lastUsed", slots[i].lastUsed));
+      }
+    }
+
+    Map<String, Object> stats = new HashMap<>();
+    stats.put("slots", slotStates);
+    stats.put("affinityHits", hits);
+    stats.put("affinityMisses", affinityMisses.get());
+    stats.put("affinityHitRate", total == 0 ? 0.0 : (double) hits / total);
+    stats.put("evictions", evictions.get());
+    stats.put("promptTokens", prompt);
+    stats.put("cachedPromptTokens", cachedPromptTokens.get());
+    stats.put("promptCacheHitRate", prompt == 0 ? 0.0 : (double) cachedPromptTokens.get() / prompt);
+    return stats;
+  }
+
+  // Prefers a slot nobody owns, then the least recently used idle one, then
+  // the least recently used one overall
+  private int pickSlot() {
+    int best = 0;
+    for (int i = 1; i < slots.length; i++) {
+      if (rank(slots[i]) < rank(slots[best]))
+        best = i;
+    }
+    return best;
+  }
+
+  private long rank(Slot slot) {
+    if (slot.conversation == null)
+      return Long.MIN_VALUE;
+    return slot.active == 0 ? slot.lastUsed - Long.MAX_VALUE / 2 : slot.lastUsed;
+  }
+
+  private String conversationKey(Map<String, Object> payload) {
+    Object explicitId = payload.remove("conversation_id");
+    if (explicitId != null)
+      return "id:" + explicitId;
+
+    List<?> messages = (List<?>) payload.getOrDefault("messages", List.of());
+    List<Object> prefix = new ArrayList<>();
+    for (Object message : messages) {
+      prefix.add(message);
+      if (message instanceof Map<?, ?> map && "user".equals(map.get("role")))
+        break;
+    }
+
+    try {
+      MessageDigest digest = MessageDigest.getInstance("SHA-256");
+      byte[] hash = digest.digest(objectMapper.writeValueAsString(prefix).getBytes(StandardCharsets.UTF_8));
+      return "prefix:" + HexFormat.of().formatHex(hash, 0, 16);
+    } catch (Exception e) {
+      return "prefix:" + prefix.hashCode();
+    }
+  }
+}
@@ -0,0 +1,136 @@
+package com.example.backend.chat;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+
+/**
+ * Splits an upstream SSE byte stream into frames without decoding it. Reads go
+ * into one reusable buffer, and each frame is exposed as offsets into that
+ * buffer, valid until the next call to {@link #next()}.
+ */
+public class SseFrameScanner {
+
+  private static final byte[] DATA_PREFIX = "data:".getBytes();
+
+  private final InputStream in;
+  private byte[] buffer;
+  private int limit;
+  private int frameStart;
+  private int frameEnd;
+  private int dataStart;
+  private int dataEnd;
+  private boolean eof;
+
+  public SseFrameScanner(InputStream in, int initialSize) {
+    this.in = in;
+    this.buffer = new byte[initialSize];
+  }
+
+  /** Advances to the next complete frame; false at the end of the stream. */
+  public boolean next() throws IOException {
+    // Drop the previous frame before reading more
+    if (frameEnd > 0) {
+      System.arraycopy(buffer, frameEnd, buffer, 0, limit - frameEnd);
+      limit -= frameEnd;
+      frameEnd = 0;
+    }
+
+    int scanFrom = 0;
+    while (true) {
+      int boundary = findBoundary(scanFrom);
+      if (boundary >= 0) {
+        frameStart = 0;
+        frameEnd = boundary + 2;
+        locateData();
+        return true;
+      }
+      if (eof) {
+        if (limit == 0)
+          return false;
+        // Trailing frame without a blank line after it
+        frameStart = 0;
+        frameEnd = limit;
+        locateData();
+        return true;
+      }
+
+      scanFrom = Math.max(0, limit - 1);
+      if (limit == buffer.length)
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      int read = in.read(buffer, limit, buffer.length - limit);
+      if (read < 0)
+        eof = true;
+      else
+        limit += read;
+    }
+  }
+
+  public byte[] buffer() {
+    return buffer;
+  }
+
+  public int frameStart() {
+    return frameStart;
+  }
+
+  /** Exclusive, includes the blank line that ends the frame. */
+  public int frameEnd() {
+    return frameEnd;
+  }
+
+  /** Start of the data payload, or -1 if the frame is not a data frame. */
+  public int dataStart() {
+    return dataStart;
+  }
+
+  public int dataEnd() {
+    return dataEnd;
+  }
+
+  public boolean dataEquals(byte[] expected) {
+    return dataStart >= 0 && dataEnd - dataStart == expected.length
+        && Arrays.equals(buffer, dataStart, dataEnd, expected, 0, expected.length);
+  }
+
+  public boolean dataContains(byte[] needle) {
+    if (dataStart < 0)
+      return false;
+    outer: for (int i = dataStart; i <= dataEnd - needle.length; i++) {
+      for (int j = 0; j < needle.length; j++) {
+        if (buffer[i + j] != needle[j])
+          continue outer;
+      }
+      return true;
+    }
+    return false;
+  }
+
+  private int findBoundary(int from) {
+    for (int i = from; i < limit - 1; i++) {
+      if (buffer[i] == '\n' && buffer[i + 1] == '\n')
+        return i;
+    }
+    return -1;
+  }
+
+  private void locateData() {
+    int start = frameStart;
+    while (start < frameEnd && (buffer[start] == '\n' || buffer[start] == '\r'))
+      start++;
+    if (frameEnd - start < DATA_PREFIX.length
+        || !Arrays.equals(buffer, start, start + DATA_PREFIX.length, DATA_PREFIX, 0, DATA_PREFIX.length)) {
+      dataStart = -1;
+      dataEnd = -1;
+      return;
+    }
+    start += DATA_PREFIX.length;
+    int end = frameEnd;
+    while (start < end && buffer[start] == ' ')
+      start++;
+    while (end > start && (buffer[end - 1] == '\n' || buffer[end - 1] == '\r' || buffer[end - 1] == ' '))
+      end--;
+    dataStart = start;
+    dataEnd = end;
+  }
+}
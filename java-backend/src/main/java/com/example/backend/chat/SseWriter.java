@@ -0,0 +1,141 @@
+package com.example.backend.chat;
+
+import io.vertx.core.Vertx;
+import io.vertx.core.buffer.Buffer;
+import io.vertx.core.http.HttpServerResponse;
+
+/**
+ * Writes pre-framed SSE bytes to the client. Small frames are coalesced for up
+ * to {@code flushWindowMs} so a burst of tokens becomes a single write, while a
+ * full batch of {@code flushBytes} is written immediately.
+ */
+public class SseWriter {
+
+  private final HttpServerResponse response;
+  private final Vertx vertx;
+  private final long flushWindowMs;
+  private final int flushBytes;
+
+  private Buffer pending;
+  private ResponseCache.Recording recording;
+  private long timerId = -1;
+  private boolean completed;
+  private volatile boolean cancelled;
+  private Runnable onCancel;
+
+  public SseWriter(HttpServerResponse response, Vertx vertx, long flushWindowMs, int flushBytes) {
+    this.response = response;
+    this.vertx = vertx;
+    this.flushWindowMs = flushWindowMs;
+    this.flushBytes = flushBytes;
+
+    response.setChunked(true);
+    response.putHeader("Content-Type", "text/event-stream");
+    response.putHeader("Cache-Control", "no-cache");
+    response.closeHandler(ignored -> {
+      Runnable callback;
+      synchronized (this) {
+        cancelled = true;
+        callback = onCancel;
+        onCancel = null;
+      }
+      if (callback != null)
+        callback.run();
+    });
+  }
+
+  public boolean isCancelled() {
+    return cancelled;
+  }
+
+  /**
+   * Runs {@code callback} once if the client goes away, right away if it
+   * already has. It runs on the event loop, so it must not block.
+   */
+  public void onCancel(Runnable callback) {
+    synchronized (this) {
+      if (!cancelled) {
+        onCancel = callback;
+        return;
+      }
+    }
+    callback.run();
+  }
+
+  /** Copies every frame written from now on into {@code recording}. */
+  public synchronized void record(ResponseCache.Recording recording) {
+    this.recording = recording;
+  }
+
+  public synchronized void write(byte[] bytes, int offset, int length) {
+    if (completed || cancelled)
+      return;
+    if (pending == null)
+      pending = Buffer.buffer(Math.max(flushBytes, length));
+    pending.appendBytes(bytes, offset, length);
+    if (recording != null)
+      recording.add(bytes, offset, length);
+    scheduleFlush();
+  }
+
+  public synchronized void write(Buffer frame) {
+    if (completed || cancelled)
+      return;
+    if (pending == null)
+      pending = Buffer.buffer(Math.max(flushBytes, frame.length()));
+    pending.appendBuffer(frame);
+    if (recording != null)
+      recording.add(frame.getBytes(), 0, frame.length());
+    scheduleFlush();
+  }
+
+  public synchronized void flush() {
+    if (timerId >= 0) {
+      vertx.cancelTimer(timerId);
+      timerId = -1;
+    }
+    if (pending != null && pending.length() > 0 && !cancelled)
+      response.write(pending);
+    pending = null;
+  }
+
+  /**
+   * Answers with a plain JSON error instead of a stream. Only possible before
+   * anything has been written; returns false otherwise.
+   */
+  public synchronized boolean fail(int status, String json) {
+    if (completed || pending != null || response.headWritten())
+      return false;
+    completed = true;
+    if (!cancelled) {
+      response.setStatusCode(status);
+      response.putHeader("Content-Type", "application/json");
+      response.end(json);
+    }
+    return true;
+  }
+
+  public synchronized void complete() {
+    if (completed)
+      return;
+    flush();
+    completed = true;
+    if (!cancelled)
+      response.end();
+  }
+
+  private void scheduleFlush() {
+    if (pending.length() >= flushBytes || flushWindowMs <= 0) {
+      flush();
+    } else if (timerId < 0) {
+      timerId = vertx.setTimer(flushWindowMs, id -> {
+        synchronized (this) {
+          if (timerId == id) {
+            timerId = -1;
+            flush();
+          }
+        }
+      });
+    }
+  }
+}
@@ -0,0 +1,158 @@
+package com.example.backend.chat;
+
+import com.fasterxml.jackson.databind.MappingIterator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+
+/**
+ * Accumulates the deltas of one streamed completion. Content is collected as
+ * it arrives and tool call fragments are merged by their index, so the full
+ * calls are only available once the stream has finished. A fragment without
+ * an index continues the last call unless it starts a new one with its own id.
+ */
+public class StreamedTurn {
+
+  private final StringBuilder content = new StringBuilder();
+  // Content-only frames are kept undecoded and only parsed if getContent() is called
+  private final ByteArrayOutputStream rawContentFrames = new ByteArrayOutputStream();
+  private final ObjectMapper objectMapper;
+  private final TreeMap<Integer, ChatResponse.ToolCall> toolCalls = new TreeMap<>();
+  private Integer lastIndex;
+  private String finishReason;
+  private ChatResponse.Timings timings;
+  private long contentChunks;
+  private long firstContentNanos;
+
+  public StreamedTurn(ObjectMapper objectMapper) {
+    this.objectMapper = objectMapper;
+  }
+
+  /**
+   * Records a frame that only carries a content delta, without decoding it.
+   * {@code bytes[start, end)} is the frame's JSON payload.
+   */
+  public void acceptContentFrame(byte[] bytes, int start, int end) {
+    if (contentChunks++ == 0)
+      firstContentNanos = System.nanoTime();
+    rawContentFrames.write(bytes, start, end - start);
+    rawContentFrames.write('\n');
+  }
+
+  public void acceptTimings(ChatResponse.Timings timings) {
+    if (timings != null)
+      this.timings = timings;
+  }
+
+  public void accept(ChatResponse.Choice choice) {
+    if (choice.finish_reason != null)
+      finishReason = choice.finish_reason;
+
+    ChatResponse.Message delta = choice.delta;
+    if (delta == null)
+      return;
+
+    if (delta.content != null && !delta.content.isEmpty()) {
+      if (contentChunks++ == 0)
+        firstContentNanos = System.nanoTime();
+      // The undecoded frames before this one come first
+      decodeContentFrames();
+      content.append(delta.content);
+    }
+
+    if (delta.tool_calls == null)
+      return;
+
+    for (ChatResponse.ToolCall fragment : delta.tool_calls) {
+      int index = indexOf(fragment);
+      lastIndex = index;
+      ChatResponse.ToolCall call = toolCalls.computeIfAbsent(index, i -> {
+        ChatResponse.ToolCall created = new ChatResponse.ToolCall();
+        created.type = "function";
+        created.function = new ChatResponse.Function();
+        created.function.arguments = "";
+        return created;
+      });
+
+      if (fragment.id != null)
+        call.id = fragment.id;
+      if (fragment.type != null)
+        call.type = fragment.type;
+      if (fragment.function != null) {
+        if (fragment.function.name != null)
+          call.function.name = fragment.function.name;
+        if (fragment.function.arguments != null)
+          call.function.arguments += fragment.function.arguments;
+      }
+    }
+  }
+
+  private int indexOf(ChatResponse.ToolCall fragment) {
+    if (fragment.index != null)
+      return fragment.index;
+    if (lastIndex == null)
+      return 0;
+    String openId = toolCalls.get(lastIndex).id;
+    if (fragment.id == null || openId == null || fragment.id.equals(openId))
+      return lastIndex;
+    return toolCalls.lastKey() + 1;
+  }
+
+  public boolean hasToolCalls() {
+    return !toolCalls.isEmpty();
+  }
+
+  public List<ChatResponse.ToolCall> getToolCalls() {
+    List<ChatResponse.ToolCall> calls = new ArrayList<>(toolCalls.values());
+    for (int i = 0; i < calls.size(); i++) {
+      ChatResponse.ToolCall call = calls.get(i);
+      call.index = null;
+      if (call.id == null)
+        call.id = "call_" + i;
+    }
+    return calls;
+  }
+
+  public String getContent() {
+    decodeContentFrames();
+    return content.toString();
+  }
+
+  /** Appends the content of the frames kept undecoded so far. */
+  private void decodeContentFrames() {
+    if (rawContentFrames.size() == 0)
+      return;
+    try (MappingIterator<ChatResponse> frames = objectMapper.readerFor(ChatResponse.class)
+        .readValues(rawContentFrames.toByteArray())) {
+      while (frames.hasNext()) {
+        ChatResponse frame = frames.next();
+        if (frame.choices != null && !frame.choices.isEmpty() && frame.choices.get(0).delta != null
+            && frame.choices.get(0).delta.content != null)
+          content.append(frame.choices.get(0).delta.content);
+      }
+    } catch (IOException e) {
+      // Keep whatever decoded before the bad frame
+    }
+    rawContentFrames.reset();
+  }
+
+  public String getFinishReason() {
+    return finishReason;
+  }
+
+  public ChatResponse.Timings getTimings() {
+    return timings;
+  }
+
+  public long getContentChunks() {
+    return contentChunks;
+  }
+
+  /** {@link System#nanoTime()} when the first content delta arrived, or 0 if none did. */
+  public long getFirstContentNanos() {
+    return firstContentNanos;
+  }
+}
@@ -0,0 +1,8 @@
+package com.example.backend.chat.tools;
+
+/** Arguments of the fetch_page tool. */
+public class FetchPageArgs {
+
+  @ToolParam(description = "Full http(s) URL of the page to read, usually one returned by web_search.", required = true)
+  public String url;
+}
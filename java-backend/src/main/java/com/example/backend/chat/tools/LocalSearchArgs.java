@@ -0,0 +1,11 @@
+package com.example.backend.chat.tools;
+
+/** Arguments of the local_search tool. */
+public class LocalSearchArgs {
+
+  @ToolParam(description = "What to look for, phrased as a question or a description of the passage you need.", required = true)
+  public String query;
+
+  @ToolParam(description = "How many passages to return (1-10).")
+  public int k = 4;
+}
@@ -0,0 +1,353 @@
+package com.example.backend.chat.tools;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Fetches web pages for the tools and reduces them to their main text. Pages
+ * are fetched concurrently, each capped in bytes and time, and parsed as a
+ * stream: text blocks are taken as their closing tags arrive, boilerplate is
+ * skipped, and reading stops as soon as the page's share of the text budget is
+ * filled, so the rest of the document is never downloaded.
+ */
+@ApplicationScoped
+public class PageFetcher {
+
+  private static final Set<String> TEXT_BLOCKS = Set.of("p", "h1", "h2", "h3", "h4", "li", "pre", "blockquote",
+      "td", "dd");
+  private static final Set<String> SKIPPED = Set.of("script", "style", "noscript", "svg", "nav", "header", "footer",
+      "aside", "form", "template", "iframe");
+  private static final Set<String> MAIN = Set.of("article", "main");
+  private static final Pattern BOILERPLATE = Pattern.compile(
+      "nav|menu|footer|sidebar|comment|cookie|banner|share|related|promo|breadcrumb|newsletter|advert",
+      Pattern.CASE_INSENSITIVE);
+  private static final Pattern CHARSET = Pattern.compile("charset=\"?([\\w.:-]+)", Pattern.CASE_INSENSITIVE);
+  private static final int MIN_BLOCK_CHARS = 25;
+  private static final int MAX_REDIRECTS = 3;
+
+  public static class Page {
+    public final String url;
+    public final String title;
+    public final String content;
+    public final String error;
+
+    Page(String url, String title, String content, String error) {
+      this.url = url;
+      this.title = title;
+      this.content = content;
+      this.error = error;
+    }
+
+    static Page failed(String url, String error) {
+      return new Page(url, null, null, error);
+    }
+  }
+
+  @ConfigProperty(name = "chat.tools.fetch.max-bytes", defaultValue = "1048576")
+  int maxBytes;
+
+  @ConfigProperty(name = "chat.tools.fetch.timeout-ms", defaultValue = "6000")
+  long timeoutMs;
+
+  /** Token budget for the text of all pages fetched by one tool call. */
+  @ConfigProperty(name = "chat.tools.fetch.max-tokens", defaultValue = "1500")
+  int maxTokens;
+
+  @ConfigProperty(name = "chat.tools.fetch.max-pages", defaultValue = "3")
+  int maxPages;
+
+  /** Lets the model fetch loopback and private network addresses. */
+  @ConfigProperty(name = "chat.tools.fetch.allow-private", defaultValue = "false")
+  boolean allowPrivate;
+
+  private final AtomicInteger workerCount = new AtomicInteger();
+  private final ExecutorService fetchPool = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "page-fetch-" + workerCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private HttpClient client;
+
+  @PostConstruct
+  void init() {
+    client = HttpClient.newBuilder()
+        .followRedirects(HttpClient.Redirect.NEVER)
+        .connectTimeout(Duration.ofMillis(timeoutMs))
+        .executor(fetchPool)
+        .build();
+  }
+
+  @PreDestroy
+  void shutdown() {
+    fetchPool.shutdownNow();
+  }
+
+  public int getMaxPages() {
+    return maxPages;
+  }
+
+  /**
+   * Fetches up to {@code maxPages} urls in parallel, splitting the token
+   * budget between them. Results keep the order of {@code urls}; pages that
+   * fail or run out of time are returned with an error.
+   */
+  public List<Page> fetchAll(List<String> urls) throws InterruptedException {
+    List<String> targets = urls.size() > maxPages ? urls.subList(0, maxPages) : urls;
+    if (targets.isEmpty())
+      return List.of();
+    // Roughly four characters per token
+    int charBudget = Math.max(200, maxTokens * 4 / targets.size());
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+
+    List<AtomicReference<InputStream>> bodies = new ArrayList<>();
+    List<CompletableFuture<Page>> futures = new ArrayList<>();
+    for (String url : targets) {
+      AtomicReference<InputStream> body = new AtomicReference<>();
+      bodies.add(body);
+      futures.add(CompletableFuture.supplyAsync(() -> fetch(url, charBudget, deadline, body), fetchPool));
+    }
+
+    List<Page> pages = new ArrayList<>();
+    for (int i = 0; i < futures.size(); i++) {
+      try {
+        pages.add(futures.get(i).get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+      } catch (TimeoutException e) {
+        futures.get(i).cancel(true);
+        closeQuietly(bodies.get(i).get());
+        pages.add(Page.failed(targets.get(i), "timed out"));
+      } catch (java.util.concurrent.ExecutionException e) {
+        pages.add(Page.failed(targets.get(i), String.valueOf(e.getCause())));
+      } catch (InterruptedException e) {
+        for (int j = i; j < futures.size(); j++) {
+          futures.get(j).cancel(true);
+          closeQuietly(bodies.get(j).get());
+        }
+        throw e;
+      }
+    }
+    return pages;
+  }
+
+  private Page fetch(String url, int charBudget, long deadline, AtomicReference<InputStream> openBody) {
+    try {
+      URI uri = URI.create(url);
+      HttpResponse<InputStream> response = null;
+      for (int hop = 0; hop <= MAX_REDIRECTS; hop++) {
+        String problem = checkTarget(uri);
+        if (problem != null)
+          return Page.failed(url, problem);
+
+        HttpRequest request = HttpRequest.newBuilder(uri)
+            .timeout(Duration.ofNanos(Math.max(1, deadline - System.nanoTime())))
+            .header("User-Agent", "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36")
+            .header("Accept", "text/html,application/xhtml+xml,text/plain;q=0.8")
+            .GET()
+            .build();
+        response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        int status = response.statusCode();
+        if (status < 300 || status >= 400)
+          break;
+        response.body().close();
+        String location = response.headers().firstValue("Location").orElse(null);
+        if (location == null)
+          return Page.failed(url, "redirect without location");
+        uri = uri.resolve(location);
+        response = null;
+      }
+      if (response == null)
+        return Page.failed(url, "too many redirects");
+
+      try (InputStream body = new CappedInputStream(response.body(), maxBytes, deadline)) {
+        openBody.set(body);
+        if (response.statusCode() != 200)
+          return Page.failed(url, "HTTP " + response.statusCode());
+
+        String contentType = response.headers().firstValue("Content-Type").orElse("text/html");
+        Charset charset = charsetOf(contentType);
+        if (contentType.startsWith("text/plain")) {
+          String text = new String(body.readNBytes(charBudget * 2), charset);
+          return new Page(url, null, clip(text.strip(), charBudget), null);
+        }
+        if (!contentType.contains("html"))
+          return Page.failed(url, "unsupported content type " + contentType);
+        return extract(url, new InputStreamReader(body, charset), charBudget);
+      }
+    } catch (IllegalArgumentException e) {
+      return Page.failed(url, "invalid url");
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Page.failed(url, "cancelled");
+    } catch (IOException e) {
+      return Page.failed(url, e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+  }
+
+  /**
+   * Streams {@code html} through the parser and keeps the text of content
+   * blocks. Blocks inside article/main are preferred when the page has them.
+   */
+  static Page extract(String url, java.io.Reader html, int charBudget) throws IOException {
+    StringBuilder main = new StringBuilder();
+    StringBuilder other = new StringBuilder();
+    String title = null;
+
+    try (StreamParser parser = new StreamParser(Parser.htmlParser()).parse(html, url)) {
+      Iterator<Element> elements = parser.stream().iterator();
+      while (elements.hasNext()) {
+        Element element = elements.next();
+        String tag = element.normalName();
+
+        if (title == null && "title".equals(tag)) {
+          title = element.text();
+        } else if (SKIPPED.contains(tag)) {
+          element.remove();
+        } else if (TEXT_BLOCKS.contains(tag)) {
+          boolean inMain = false;
+          boolean boilerplate = false;
+          for (Element ancestor : element.parents()) {
+            String name = ancestor.normalName();
+            if (SKIPPED.contains(name) || isBoilerplate(ancestor)) {
+              boilerplate = true;
+              break;
+            }
+            if (MAIN.contains(name) || "main".equals(ancestor.attr("role")))
+              inMain = true;
+          }
+          String text = element.text().strip();
+          if (!boilerplate && text.length() >= MIN_BLOCK_CHARS && !isMostlyLinks(element, text))
+            (inMain ? main : other).append(text).append("\n\n");
+          // Done with it; the parent's text should not repeat it
+          element.remove();
+        }
+
+        // Early cut-off: enough main text, or far more than enough of anything
+        if (main.length() >= charBudget || other.length() >= charBudget * 3)
+          break;
+      }
+    }
+
+    String content = main.length() >= Math.min(charBudget, 400) ? main.toString() : main.append(other).toString();
+    return new Page(url, title, clip(content.strip(), charBudget), null);
+  }
+
+  private static boolean isBoilerplate(Element element) {
+    String marker = element.id() + " " + element.className();
+    return marker.length() > 1 && BOILERPLATE.matcher(marker).find();
+  }
+
+  private static boolean isMostlyLinks(Element element, String text) {
+    int linkChars = 0;
+    for (Element link : element.select("a"))
+      linkChars += link.text().length();
+    return linkChars * 2 > text.length();
+  }
+
+  /** Cuts text to at most {@code limit} characters on a word boundary. */
+  static String clip(String text, int limit) {
+    if (text.length() <= limit)
+      return text;
+    int cut = text.lastIndexOf(' ', limit);
+    return text.substring(0, cut > limit / 2 ? cut : limit) + " ...";
+  }
+
+  private String checkTarget(URI uri) {
+    String scheme = uri.getScheme() == null ? "" : uri.getScheme().toLowerCase(Locale.ROOT);
+    if (!scheme.equals("http") && !scheme.equals("https"))
+      return "only http and https urls can be fetched";
+    if (uri.getHost() == null)
+      return "invalid url";
+    if (allowPrivate)
+      return null;
+    try {
+      for (InetAddress address : InetAddress.getAllByName(uri.getHost())) {
+        if (address.isLoopbackAddress() || address.isSiteLocalAddress() || address.isLinkLocalAddress()
+            || address.isAnyLocalAddress())
+          return "private network addresses cannot be fetched";
+      }
+    } catch (IOException e) {
+      return "unknown host " + uri.getHost();
+    }
+    return null;
+  }
+
+  static Charset charsetOf(String contentType) {
+    Matcher matcher = CHARSET.matcher(contentType);
+    if (matcher.find()) {
+      try {
+        return Charset.forName(matcher.group(1));
+      } catch (Exception ignored) {
+      }
+    }
+    return StandardCharsets.UTF_8;
+  }
+
+  private static void closeQuietly(InputStream in) {
+    if (in == null)
+      return;
+    try {
+      in.close();
+    } catch (IOException ignored) {
+    }
+  }
+
+  /** Ends the body early once the byte cap or the deadline is reached. */
+  static class CappedInputStream extends FilterInputStream {
+    private final long deadline;
+    private long remaining;
+
+    CappedInputStream(InputStream in, long maxBytes, long deadline) {
+      super(in);
+      this.remaining = maxBytes;
+      this.deadline = deadline;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] one = new byte[1];
+      return read(one, 0, 1) < 0 ? -1 : one[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      if (remaining <= 0 || System.nanoTime() > deadline)
+        return -1;
+      int read = super.read(buffer, offset, (int) Math.min(length, remaining));
+      if (read > 0)
+        remaining -= read;
+      return read;
+    }
+  }
+}
@@ -0,0 +1,182 @@
+package com.example.backend.chat.tools;
+
+import jakarta.annotation.PreDestroy;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-process cache of ranked search results, keyed on the normalized
+ * query and search target. Entries expire after a TTL and the least recently
+ * used entry is evicted once the cache is full. Concurrent lookups for the same
+ * key share a single in-flight fetch. An entry whose fetch stopped early only
+ * serves callers it has enough unseen results for; others fetch again and
+ * replace it.
+ */
+@ApplicationScoped
+public class SearchCache {
+
+  @FunctionalInterface
+  public interface Fetcher {
+    SearchFetcher.Results fetch() throws Exception;
+  }
+
+  private static class Entry {
+    final SearchFetcher.Results results;
+    final long expiresAt;
+
+    Entry(SearchFetcher.Results results, long expiresAt) {
+      this.results = results;
+      this.expiresAt = expiresAt;
+    }
+  }
+
+  @ConfigProperty(name = "chat.search-cache.ttl-seconds", defaultValue = "300")
+  long ttlSeconds;
+
+  @ConfigProperty(name = "chat.search-cache.max-entries", defaultValue = "256")
+  int maxEntries;
+
+  private final AtomicLong hits = new AtomicLong();
+  private final AtomicLong misses = new AtomicLong();
+  private final AtomicLong evictions = new AtomicLong();
+  private final AtomicLong coalesced = new AtomicLong();
+
+  private final Map<String, CompletableFuture<SearchFetcher.Results>> inFlight = new ConcurrentHashMap<>();
+
+  private final AtomicInteger workerCount = new AtomicInteger();
+  private final ExecutorService fetchPool = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "search-fetch-" + workerCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  // Access-ordered so iteration starts at the least recently used entry
+  private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (size() > maxEntries) {
+        evictions.incrementAndGet();
+        return true;
+      }
+      return false;
+    }
+  };
+
+  @PreDestroy
+  void shutdown() {
+    fetchPool.shutdownNow();
+  }
+
+  public static String key(String query, String target) {
+    String normalizedQuery = query.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    String normalizedTarget = target == null ? "web" : target.trim().toLowerCase(Locale.ROOT);
+    return normalizedTarget + "|" + normalizedQuery;
+  }
+
+  /**
+   * Returns the cached ranked results for {@code key}, or runs {@code fetcher}
+   * if there is no fresh entry with {@code wanted} results outside
+   * {@code seenUrls}. If another thread is already fetching the same key,
+   * this call waits for that fetch instead of starting a new one, and fetches
+   * again if that one was cancelled or doesn't cover this caller. Fetches run
+   * on their own threads, so an interrupted caller only stops waiting and the
+   * others still get the result. Failed fetches are not cached.
+   */
+  public SearchFetcher.Results get(String key, Set<String> seenUrls, int wanted, Fetcher fetcher) throws Exception {
+    while (true) {
+      synchronized (entries) {
+        Entry entry = entries.get(key);
+        if (entry != null) {
+          if (entry.expiresAt <= System.currentTimeMillis()) {
+            entries.remove(key);
+            evictions.incrementAndGet();
+          } else if (entry.results.covers(seenUrls, wanted)) {
+            hits.incrementAndGet();
+            return entry.results;
+          }
+        }
+      }
+
+      CompletableFuture<SearchFetcher.Results> created = new CompletableFuture<>();
+      CompletableFuture<SearchFetcher.Results> existing = inFlight.putIfAbsent(key, created);
+      if (existing == null) {
+        misses.incrementAndGet();
+        fetch(key, created, fetcher);
+        return await(created);
+      }
+
+      coalesced.incrementAndGet();
+      SearchFetcher.Results results;
+      try {
+        results = existing.get();
+      } catch (ExecutionException e) {
+        if (e.getCause() instanceof InterruptedException || e.getCause() instanceof CancellationException)
+          continue;
+        if (e.getCause() instanceof Exception cause)
+          throw cause;
+        throw e;
+      }
+      if (results.covers(seenUrls, wanted))
+        return results;
+    }
+  }
+
+  private void fetch(String key, CompletableFuture<SearchFetcher.Results> created, Fetcher fetcher) {
+    try {
+      fetchPool.execute(() -> {
+        try {
+          SearchFetcher.Results results = fetcher.fetch();
+          synchronized (entries) {
+            entries.put(key, new Entry(results, System.currentTimeMillis() + ttlSeconds * 1000));
+          }
+          inFlight.remove(key, created);
+          created.complete(results);
+        } catch (Throwable e) {
+          inFlight.remove(key, created);
+          created.completeExceptionally(e);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      inFlight.remove(key, created);
+      created.completeExceptionally(e);
+    }
+  }
+
+  public Map<String, Object> getStats() {
+    int size;
+    synchronized (entries) {
+      size = entries.size();
+    }
+    return Map.of(
+        "hits", hits.get(),
+        "misses", misses.get(),
+        "evictions", evictions.get(),
+        "coalesced", coalesced.get(),
+        "size", size,
+        "maxEntries", maxEntries);
+  }
+
+  private SearchFetcher.Results await(CompletableFuture<SearchFetcher.Results> future) throws Exception {
+    try {
+      return future.get();
+    } catch (ExecutionException e) {
+      if (e.getCause() instanceof Exception cause)
+        throw cause;
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,163 @@
+package com.example.backend.chat.tools;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jsoup.nodes.Element;
+import org.jsoup.parser.Parser;
+import org.jsoup.parser.StreamParser;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs web_search's DuckDuckGo queries. The results page is parsed as it
+ * streams in, one result at a time, and reading stops as soon as the caller
+ * has enough results it hasn't seen, so the rest of the page is neither
+ * downloaded nor parsed. Every search goes through one HTTP client, which
+ * keeps its connection to DuckDuckGo open between searches.
+ */
+@ApplicationScoped
+public class SearchFetcher {
+
+  static final String ENDPOINT = "https://html.duckduckgo.com/html/";
+  private static final String USER_AGENT = "Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36";
+
+  /** The ranked results read from one results page, best first. */
+  public static class Results {
+    public final List<Map<String, String>> ranked;
+    /** False if reading stopped before the end of the page. */
+    public final boolean complete;
+
+    Results(List<Map<String, String>> ranked, boolean complete) {
+      this.ranked = List.copyOf(ranked);
+      this.complete = complete;
+    }
+
+    /** The first {@code limit} results whose urls are not in {@code seenUrls}. */
+    public List<Map<String, String>> unseen(Set<String> seenUrls, int limit) {
+      List<Map<String, String>> fresh = new ArrayList<>();
+      for (Map<String, String> result : ranked) {
+        if (fresh.size() == limit)
+          break;
+        if (!seenUrls.contains(result.get("url")))
+          fresh.add(result);
+      }
+      return fresh;
+    }
+
+    /** Whether these results answer a search for {@code wanted} unseen ones as well as a new fetch would. */
+    public boolean covers(Set<String> seenUrls, int wanted) {
+      return complete || unseen(seenUrls, wanted).size() >= wanted;
+    }
+  }
+
+  @ConfigProperty(name = "chat.tools.search.timeout-ms", defaultValue = "10000")
+  long timeoutMs;
+
+  @ConfigProperty(name = "chat.tools.search.max-bytes", defaultValue = "1048576")
+  int maxBytes;
+
+  private HttpClient client;
+
+  @PostConstruct
+  void init() {
+    client = HttpClient.newBuilder()
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .connectTimeout(Duration.ofMillis(timeoutMs))
+        .build();
+  }
+
+  /**
+   * Searches for {@code query} and reads results until {@code wanted} of
+   * them are not in {@code seenUrls}, or the page ends.
+   */
+  public Results search(String query, String target, Set<String> seenUrls, int wanted)
+      throws IOException, InterruptedException {
+    String finalQuery = query;
+    if ("reddit".equalsIgnoreCase(target))
+      finalQuery = "site:reddit.com " + query;
+    else if ("wikipedia".equalsIgnoreCase(target))
+      finalQuery = "site:wikipedia.org " + query;
+
+    long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMs);
+    URI uri = URI.create(ENDPOINT + "?q=" + URLEncoder.encode(finalQuery, StandardCharsets.UTF_8));
+    HttpRequest request = HttpRequest.newBuilder(uri)
+        .timeout(Duration.ofMillis(timeoutMs))
+        .header("User-Agent", USER_AGENT)
+        .header("Accept", "text/html")
+        .GET()
+        .build();
+    HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+
+    // Closing the body early resets just this stream on HTTP/2; the connection stays open
+    try (InputStream body = new PageFetcher.CappedInputStream(response.body(), maxBytes, deadline)) {
+      if (response.statusCode() != 200)
+        throw new IOException("DuckDuckGo returned HTTP " + response.statusCode());
+      String contentType = response.headers().firstValue("Content-Type").orElse("text/html");
+      return extract(new InputStreamReader(body, PageFetcher.charsetOf(contentType)), seenUrls, wanted);
+    }
+  }
+
+  /**
+   * Reads organic results from a DuckDuckGo HTML results page. Each result is
+   * taken when its closing tag arrives and then dropped from the tree, and
+   * ads are skipped. Parsing stops once {@code wanted} results are not in
+   * {@code seenUrls}; the seen ones read on the way are kept too, in rank
+   * order, so a cached copy can serve callers that have seen other urls.
+   */
+  static Results extract(Reader html, Set<String> seenUrls, int wanted) throws IOException {
+    List<Map<String, String>> ranked = new ArrayList<>();
+    int unseen = 0;
+    try (StreamParser parser = new StreamParser(Parser.htmlParser()).parse(html, ENDPOINT)) {
+      Iterator<Element> elements = parser.stream().iterator();
+      while (elements.hasNext()) {
+        Element element = elements.next();
+        boolean result;
+        if ("li".equals(element.normalName()) && element.hasAttr("data-layout")) {
+          result = "organic".equals(element.attr("data-layout"));
+        } else if (element.hasClass("result__body") && element.closest("li[data-layout]") == null) {
+          // Older layouts have no data-layout list items; an ad is marked on the body or its wrapper
+          result = element.closest(".result--ad") == null;
+        } else {
+          continue;
+        }
+
+        Map<String, String> entry = result ? toResult(element) : null;
+        element.remove();
+        if (entry == null)
+          continue;
+        ranked.add(entry);
+        if (!seenUrls.contains(entry.get("url")) && ++unseen >= wanted)
+          return new Results(ranked, false);
+      }
+    }
+    return new Results(ranked, true);
+  }
+
+  private static Map<String, String> toResult(Element result) {
+    Element link = result.selectFirst(".result__a");
+    if (link == null)
+      return null;
+    Element snippet = result.selectFirst(".result__snippet");
+    return Map.of(
+        "title", link.text(),
+        "url", link.attr("href"),
+        "snippet", snippet != null ? snippet.text() : "");
+  }
+}
@@ -0,0 +1,21 @@
+package com.example.backend.chat.tools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a ToolRegistry method as a tool the model may call. The method takes
+ * a typed arguments object, optionally followed by the {@code Set<String>} of
+ * urls already seen in the conversation, and returns the result text.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.METHOD)
+public @interface Tool {
+
+  /** Tool name as advertised to the model; defaults to the method name. */
+  String name() default "";
+
+  String description();
+}
@@ -0,0 +1,224 @@
+package com.example.backend.chat.tools;
+
+import io.quarkus.runtime.Startup;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Immutable table of the {@link Tool} methods of ToolRegistry, built once at
+ * startup. Each entry holds a pre-adapted method handle and a Jackson reader
+ * for its arguments class, so a call binds the model's JSON straight into the
+ * typed arguments without per-call lookups. The JSON schema advertised to the
+ * model is generated from the same arguments class. Built eagerly, so a
+ * malformed tool fails startup rather than the first chat.
+ */
+@Startup
+@ApplicationScoped
+public class ToolCatalog {
+
+  private static final MethodType INVOKER_TYPE = MethodType.methodType(String.class, Object.class, Set.class);
+
+  /** One dispatchable tool. */
+  static final class Binding {
+    final String name;
+    final ObjectReader argsReader;
+    final MethodHandle invoker;
+    final Map<String, Object> schema;
+
+    Binding(String name, ObjectReader argsReader, MethodHandle invoker, Map<String, Object> schema) {
+      this.name = name;
+      this.argsReader = argsReader;
+      this.invoker = invoker;
+      this.schema = schema;
+    }
+  }
+
+  @Inject
+  ToolRegistry registry;
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  private Map<String, Binding> bindings = Map.of();
+  private List<Map<String, Object>> schemas = List.of();
+
+  @PostConstruct
+  void init() {
+    Map<String, Binding> table = new LinkedHashMap<>();
+    List<String> disabled = new ArrayList<>();
+    // Scan the declared class rather than registry.getClass(), which is the CDI client proxy
+    for (Method method : ToolRegistry.class.getDeclaredMethods()) {
+      Tool tool = method.getAnnotation(Tool.class);
+      if (tool == null)
+        continue;
+      Binding binding = bind(method, tool);
+      if (!registry.isEnabled(binding.name)) {
+        disabled.add(binding.name);
+        continue;
+      }
+      if (table.putIfAbsent(binding.name, binding) != null)
+        throw new IllegalStateException("Duplicate tool name: " + binding.name);
+    }
+    bindings = Map.copyOf(table);
+
+    List<Map<String, Object>> all = new ArrayList<>();
+    for (Binding binding : table.values())
+      all.add(Collections.unmodifiableMap(binding.schema));
+    schemas = Collections.unmodifiableList(all);
+    System.out.println("Registered tools: " + table.keySet());
+    if (!disabled.isEmpty())
+      System.out.println("Disabled tools: " + disabled);
+  }
+
+  private Binding bind(Method method, Tool tool) {
+    String name = tool.name().isEmpty() ? method.getName() : tool.name();
+    Class<?>[] params = method.getParameterTypes();
+    if (method.getReturnType() != String.class || params.length == 0 || params.length > 2
+        || (params.length == 2 && params[1] != Set.class))
+      throw new IllegalStateException("Tool '" + name + "' must be String " + method.getName()
+          + "(ArgsType args[, Set<String> seenUrls])");
+
+    MethodHandle handle;
+    try {
+      handle = MethodHandles.publicLookup().unreflect(method).bindTo(registry);
+    } catch (IllegalAccessException e) {
+      throw new IllegalStateException("Tool '" + name + "' must be public", e);
+    }
+    if (params.length == 1)
+      handle = MethodHandles.dropArguments(handle, 1, Set.class);
+
+    ObjectReader reader = objectMapper.readerFor(params[0])
+        .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+    return new Binding(name, reader, handle.asType(INVOKER_TYPE), schemaFor(name, tool.description(), params[0]));
+  }
+
+  /**
+   * Parses {@code arguments} into the tool's arguments class and invokes it.
+   * Failures are reported as result text, as the model expects.
+   */
+  public String invoke(String name, String arguments, Set<String> seenUrls) {
+    Binding binding = bindings.get(name);
+    if (binding == null)
+      return "Error: Tool '" + name + "' is not implemented in ToolRegistry.";
+
+    Object args;
+    try {
+      args = binding.argsReader.readValue(arguments == null || arguments.isBlank() ? "{}" : arguments);
+    } catch (JsonProcessingException e) {
+      return "Error: Invalid arguments for tool '" + name + "': " + e.getOriginalMessage();
+    }
+
+    try {
+      return (String) binding.invoker.invokeExact(args, seenUrls);
+    } catch (Error e) {
+      throw e;
+    } catch (Throwable e) {
+      e.printStackTrace();
+      return "Error executing tool '" + name + "': " + e.getMessage();
+    }
+  }
+
+  public boolean has(String name) {
+    return bindings.containsKey(name);
+  }
+
+  public Collection<String> names() {
+    return bindings.keySet();
+  }
+
+  /** OpenAI-style function definitions for every registered tool. */
+  public List<Map<String, Object>> schemas() {
+    return schemas;
+  }
+
+  static Map<String, Object> schemaFor(String name, String description, Class<?> argsType) {
+    Object defaults;
+    try {
+      defaults = argsType.getDeclaredConstructor().newInstance();
+    } catch (ReflectiveOperationException e) {
+      throw new IllegalStateException("Arguments class of tool '" + name + "' needs a public no-arg constructor", e);
+    }
+
+    Map<String, Object> properties = new LinkedHashMap<>();
+    List<String> required = new ArrayList<>();
+    for (Field field : argsType.getDeclaredFields()) {
+      int modifiers = field.getModifiers();
+      if (!Modifier.isPublic(modifiers) || Modifier.isStatic(modifiers))
+        continue;
+
+      Map<String, Object> property = new LinkedHashMap<>();
+      property.put("type", jsonType(field.getType()));
+      ToolParam param = field.getAnnotation(ToolParam.class);
+      if (field.getType().isEnum()) {
+        property.put("enum", Arrays.stream(field.getType().getEnumConstants()).map(String::valueOf).toList());
+      } else if (param != null && param.allowed().length > 0) {
+        property.put("enum", List.of(param.allowed()));
+      }
+      try {
+        Object defaultValue = field.get(defaults);
+        if (defaultValue != null && !(field.getType().isPrimitive() && isZero(defaultValue)))
+          property.put("default", field.getType().isEnum() ? String.valueOf(defaultValue) : defaultValue);
+      } catch (IllegalAccessException e) {
+        throw new IllegalStateException(e);
+      }
+      if (param != null) {
+        property.put("description", param.description());
+        if (param.required())
+          required.add(field.getName());
+      }
+      properties.put(field.getName(), property);
+    }
+
+    Map<String, Object> parameters = new LinkedHashMap<>();
+    parameters.put("type", "object");
+    parameters.put("properties", properties);
+    parameters.put("required", required);
+
+    Map<String, Object> function = new LinkedHashMap<>();
+    function.put("name", name);
+    function.put("description", description);
+    function.put("parameters", parameters);
+    Map<String, Object> definition = new LinkedHashMap<>();
+    definition.put("type", "function");
+    definition.put("function", function);
+    return definition;
+  }
+
+  private static String jsonType(Class<?> type) {
+    if (type == String.class || type.isEnum())
+      return "string";
+    if (type == boolean.class || type == Boolean.class)
+      return "boolean";
+    if (type == int.class || type == Integer.class || type == long.class || type == Long.class)
+      return "integer";
+    if (Number.class.isAssignableFrom(type) || type == double.class || type == float.class)
+      return "number";
+    if (type.isArray() || Collection.class.isAssignableFrom(type))
+      return "array";
+    return "object";
+  }
+
+  private static boolean isZero(Object value) {
+    return value instanceof Boolean bool ? !bool : value instanceof Number number && number.doubleValue() == 0;
+  }
+}
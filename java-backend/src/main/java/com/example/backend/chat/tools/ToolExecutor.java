@@ -1,59 +1,113 @@
 package com.example.backend.chat.tools;
 
+import jakarta.annotation.PreDestroy;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.example.backend.chat.ChatResponse;
-import java.util.Map;
+import com.example.backend.metrics.BackendMetrics;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Set;
-import java.lang.reflect.Method;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
 
 @ApplicationScoped
 public class ToolExecutor {
 
   @Inject
-  ToolRegistry registry;
+  ToolCatalog catalog;
 
   @Inject
-  ObjectMapper objectMapper;
+  BackendMetrics metrics;
 
-  public String execute(ChatResponse.Function function, Set<String> seenUrls) {
-    String name = function.name;
+  @ConfigProperty(name = "chat.tools.turn-timeout-ms", defaultValue = "15000")
+  long turnTimeoutMs;
+
+  private final AtomicInteger workerCount = new AtomicInteger();
+  private final ExecutorService toolPool = Executors.newCachedThreadPool(runnable -> {
+    Thread thread = new Thread(runnable, "tool-worker-" + workerCount.incrementAndGet());
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  @PreDestroy
+  void shutdown() {
+    toolPool.shutdownNow();
+  }
+
+  /**
+   * Runs every tool call of a turn in parallel and waits at most
+   * {@code turnTimeoutMs} for all of them. {@code onResult} is invoked on the
+   * calling thread as each call finishes, and the returned results keep the
+   * order of {@code calls}. Calls still running at the deadline are cancelled
+   * and reported as timed out. If the calling thread is interrupted, every
+   * call still running is cancelled and the interrupt is rethrown.
+   */
+  public List<String> executeAll(List<ChatResponse.ToolCall> calls, Set<String> seenUrls,
+      BiConsumer<Integer, String> onResult) throws InterruptedException {
+    List<String> results = new ArrayList<>(calls.size());
+    List<Future<String>> futures = new ArrayList<>(calls.size());
+    CompletionService<String> completions = new ExecutorCompletionService<>(toolPool);
+
+    for (ChatResponse.ToolCall call : calls) {
+      results.add(null);
+      futures.add(completions.submit(() -> {
+        long start = System.nanoTime();
+        String result = execute(call.function, seenUrls);
+        metrics.recordTool(call.function.name, isError(result) ? "error" : "success", System.nanoTime() - start);
+        return result;
+      }));
+    }
+
+    long turnStart = System.nanoTime();
+    long deadline = turnStart + TimeUnit.MILLISECONDS.toNanos(turnTimeoutMs);
     try {
-      Object rawArgs = function.arguments;
-      Map<String, Object> arguments;
-
-      if (rawArgs instanceof String stringArgs) {
-        arguments = objectMapper.readValue(stringArgs, new TypeReference<Map<String, Object>>() {
-        });
-      } else if (rawArgs instanceof Map) {
-        @SuppressWarnings("unchecked")
-        Map<String, Object> castedMap = (Map<String, Object>) rawArgs;
-        arguments = castedMap;
-      } else {
-        return "Error: Unsupported arguments format for tool: " + name;
+      for (int done = 0; done < calls.size(); done++) {
+        Future<String> finished = completions.poll(deadline - System.nanoTime(), TimeUnit.NANOSECONDS);
+        if (finished == null)
+          break;
+        int index = futures.indexOf(finished);
+        try {
+          results.set(index, finished.get());
+        } catch (ExecutionException e) {
+          // execute() reports its own failures as strings, so this is unexpected
+          results.set(index, "Error executing tool '" + calls.get(index).function.name + "': " + e.getCause());
+        }
+        onResult.accept(index, results.get(index));
       }
-
-      // --- DYNAMIC METHOD RESOLUTION ---
-      try {
-        // First, try to find a method that accepts both arguments AND the seenUrls set
-        // (e.g., web_search)
-        Method method = registry.getClass().getMethod(name, Map.class, Set.class);
-        return (String) method.invoke(registry, arguments, seenUrls);
-      } catch (NoSuchMethodException e) {
-        // Fallback: If the method doesn't care about seenUrls, just call it with
-        // arguments
-        Method method = registry.getClass().getMethod(name, Map.class);
-        return (String) method.invoke(registry, arguments);
+    } catch (InterruptedException e) {
+      for (int i = 0; i < calls.size(); i++) {
+        if (results.get(i) == null && futures.get(i).cancel(true))
+          metrics.recordTool(calls.get(i).function.name, "cancelled", System.nanoTime() - turnStart);
       }
+      throw e;
+    }
 
-    } catch (NoSuchMethodException | SecurityException e) {
-      return "Error: Tool '" + name + "' is not implemented in ToolRegistry.";
-    } catch (Exception e) {
-      e.printStackTrace();
-      return "Error executing tool '" + name + "': " + e.getMessage();
+    for (int i = 0; i < calls.size(); i++) {
+      if (results.get(i) == null) {
+        futures.get(i).cancel(true);
+        metrics.recordTool(calls.get(i).function.name, "timeout", System.nanoTime() - turnStart);
+        results.set(i, "Error: Tool '" + calls.get(i).function.name + "' timed out.");
+        onResult.accept(i, results.get(i));
+      }
     }
+    return results;
+  }
+
+  private static boolean isError(String result) {
+    return result == null || result.startsWith("Error") || result.startsWith("Search failed");
+  }
+
+  public String execute(ChatResponse.Function function, Set<String> seenUrls) {
+    return catalog.invoke(function.name, function.arguments, seenUrls);
   }
-}
\ No newline at end of file
+}
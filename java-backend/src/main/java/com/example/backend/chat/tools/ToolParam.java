@@ -0,0 +1,19 @@
+package com.example.backend.chat.tools;
+
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/** Describes a field of a tool arguments class in the generated JSON schema. */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+public @interface ToolParam {
+
+  String description();
+
+  boolean required() default false;
+
+  /** Allowed values, published as the schema {@code enum}. */
+  String[] allowed() default {};
+}
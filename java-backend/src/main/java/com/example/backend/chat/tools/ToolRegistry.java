@@ -1,14 +1,14 @@
 package com.example.backend.chat.tools;
 
+import com.example.backend.retrieval.DocumentIndexer;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import jakarta.enterprise.context.ApplicationScoped;
-import org.jsoup.Jsoup;
-import org.jsoup.nodes.Document;
-import org.jsoup.nodes.Element;
-import org.jsoup.select.Elements;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
 
+import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
@@ -18,63 +18,126 @@ public class ToolRegistry {
   @jakarta.inject.Inject
   ObjectMapper objectMapper;
 
-  public String web_search(Map<String, Object> args, Set<String> seenUrls) {
-    String query = (String) args.get("query");
-    String target = (String) args.getOrDefault("target", "web");
+  @jakarta.inject.Inject
+  SearchCache searchCache;
+
+  @jakarta.inject.Inject
+  PageFetcher pageFetcher;
+
+  @jakarta.inject.Inject
+  SearchFetcher searchFetcher;
+
+  @jakarta.inject.Inject
+  DocumentIndexer documentIndexer;
+
+  /** New results returned by a search that doesn't fetch pages. */
+  @ConfigProperty(name = "chat.tools.search.top-k", defaultValue = "3")
+  int topK;
+
+  /** Whether a tool can run with the current configuration; the others are not offered to the model. */
+  boolean isEnabled(String name) {
+    return !name.equals("local_search") || documentIndexer.isAvailable();
+  }
+
+  @Tool(description = "Search the internet for real-time info. IMPORTANT: Use ONE search at a time to reason through complex questions. Analyze the result before deciding if another search is needed.")
+  public String web_search(WebSearchArgs args, Set<String> seenUrls) {
+    String query = args.query;
+    String target = args.target == null ? "web" : args.target;
 
     if (query == null || query.isEmpty())
       return "No query provided.";
 
+    // Skip results the AI has already seen in this loop
+    int wanted = args.fetch > 0 ? Math.min(args.fetch, pageFetcher.getMaxPages()) : Math.max(1, topK);
     try {
-      String finalQuery = query;
-      if ("reddit".equalsIgnoreCase(target))
-        finalQuery = "site:reddit.com " + query;
-      else if ("wikipedia".equalsIgnoreCase(target))
-        finalQuery = "site:wikipedia.org " + query;
-
-      String url = "https://html.duckduckgo.com/html/?q=" + java.net.URLEncoder.encode(finalQuery, "UTF-8");
-
-      Document doc = Jsoup.connect(url)
-          .userAgent("Mozilla/5.0 (Windows NT 10.0; Win64; x64) AppleWebKit/537.36")
-          .timeout(10000)
-          .get();
-
-      // 1. FILTER: Look specifically for 'organic' results as seen in your screenshot
-      // This ignores 'ad' and 'images' layouts.
-      Elements organicResults = doc.select("li[data-layout='organic']");
-
-      if (organicResults.isEmpty()) {
-        // Fallback for different DDG versions
-        organicResults = doc.select(".result__body:not(.result--ad)");
-      }
+      List<Map<String, String>> fresh = searchCache.get(SearchCache.key(query, target), seenUrls, wanted,
+          () -> searchFetcher.search(query, target, seenUrls, wanted)).unseen(seenUrls, wanted);
+
+      if (fresh.isEmpty())
+        return "No new results found. All top results have already been analyzed.";
+
+      if (args.fetch <= 0)
+        return objectMapper.writeValueAsString(fresh);
+
+      List<String> urls = new ArrayList<>();
+      for (Map<String, String> res : fresh)
+        urls.add(res.get("url"));
+      List<PageFetcher.Page> pages = pageFetcher.fetchAll(urls);
 
-      // 2. FIND NEW CONTENT: Skip results the AI has already seen in this loop
-      Element bestResult = null;
-      for (Element res : organicResults) {
-        Element link = res.selectFirst(".result__a");
-        if (link == null)
-          continue;
-
-        String linkUrl = link.attr("href");
-        if (!seenUrls.contains(linkUrl)) {
-          bestResult = res;
-          break;
-        }
+      List<Map<String, String>> results = new ArrayList<>();
+      for (int i = 0; i < fresh.size(); i++) {
+        Map<String, String> result = new LinkedHashMap<>(fresh.get(i));
+        if (i < pages.size())
+          putPage(result, pages.get(i));
+        results.add(result);
       }
+      return objectMapper.writeValueAsString(results);
 
-      if (bestResult == null)
-        return "No new results found. All top results have already been analyzed.";
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "Error: Search was cancelled.";
+    } catch (Exception e) {
+      return "Search failed: " + (e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+  }
 
-      Element finalLink = bestResult.selectFirst(".result__a");
-      Map<String, String> sourceMap = new HashMap<>();
-      sourceMap.put("title", finalLink.text());
-      sourceMap.put("url", finalLink.attr("href"));
-      sourceMap.put("snippet", bestResult.select(".result__snippet").text());
+  @Tool(description = "Open a web page and read its main text. Use it on a promising search result when its snippet does not answer the question.")
+  public String fetch_page(FetchPageArgs args, Set<String> seenUrls) {
+    if (args.url == null || args.url.isBlank())
+      return "No url provided.";
 
-      return objectMapper.writeValueAsString(Collections.singletonList(sourceMap));
+    try {
+      PageFetcher.Page page = pageFetcher.fetchAll(List.of(args.url)).get(0);
+      if (page.error != null)
+        return "Error: Could not fetch " + args.url + ": " + page.error;
+
+      Map<String, String> result = new LinkedHashMap<>();
+      result.put("title", page.title != null ? page.title : args.url);
+      result.put("url", args.url);
+      putPage(result, page);
+      return objectMapper.writeValueAsString(Collections.singletonList(result));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "Error: Fetch of " + args.url + " was cancelled.";
+    } catch (Exception e) {
+      return "Error: Could not fetch " + args.url + ": " + e.getMessage();
+    }
+  }
 
+  @Tool(description = "Search the user's own documents (notes, manuals, papers on this machine) for passages relevant to the query. Prefer this over web_search for questions about the user's files.")
+  public String local_search(LocalSearchArgs args) {
+    if (args.query == null || args.query.isBlank())
+      return "No query provided.";
+
+    try {
+      List<DocumentIndexer.Hit> hits = documentIndexer.search(args.query, Math.max(1, Math.min(args.k, 10)));
+      if (hits.isEmpty())
+        return "No local documents are indexed.";
+
+      List<Map<String, Object>> results = new ArrayList<>();
+      for (DocumentIndexer.Hit hit : hits) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        String path = hit.chunk.path;
+        result.put("title", path.substring(path.lastIndexOf('/') + 1));
+        result.put("url", "local:" + path);
+        result.put("snippet", hit.chunk.text);
+        result.put("score", Math.round(hit.score * 1000) / 1000.0);
+        results.add(result);
+      }
+      return objectMapper.writeValueAsString(results);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return "Error: Local search was cancelled.";
     } catch (Exception e) {
-      return "Search failed: " + e.getMessage();
+      return "Error: Local search failed: " + e.getMessage();
+    }
+  }
+
+  private static void putPage(Map<String, String> result, PageFetcher.Page page) {
+    if (page.error != null) {
+      result.put("error", page.error);
+    } else {
+      result.put("content", page.content);
     }
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,18 @@
+package com.example.backend.chat.tools;
+
+/** Arguments of the web_search tool. */
+public class WebSearchArgs {
+
+  @ToolParam(description = "Specific, targeted search keywords. Avoid broad terms; be precise to get the best snippet.", required = true)
+  public String query;
+
+  @ToolParam(description = "Choose 'reddit' for community opinions, 'wikipedia' for encyclopedia facts, or 'web' for general news/sites.", allowed = {
+      "web", "reddit", "wikipedia" })
+  public String target = "web";
+
+  @ToolParam(description = "How many of the top new results to open and read in full (0-3). Use this instead of searching again when snippets are not enough.")
+  public int fetch;
+
+  @ToolParam(description = "Briefly state why this specific search is necessary for the current step of your investigation.", required = true)
+  public String reasoning;
+}
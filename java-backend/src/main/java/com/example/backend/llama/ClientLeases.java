@@ -0,0 +1,49 @@
+package com.example.backend.llama;
+
+import jakarta.enterprise.context.ApplicationScoped;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Tracks which clients are still open. Each client renews its own lease with
+ * a heartbeat, so one closed tab only drops its own lease instead of counting
+ * as every client going away.
+ */
+@ApplicationScoped
+public class ClientLeases {
+
+  private final Map<String, Long> leases = new ConcurrentHashMap<>();
+  private volatile long timeoutMs = 15000;
+
+  public void renew(String clientId) {
+    leases.put(clientId, System.currentTimeMillis());
+  }
+
+  public void release(String clientId) {
+    leases.remove(clientId);
+  }
+
+  public long getTimeoutMs() {
+    return timeoutMs;
+  }
+
+  public void setTimeoutMs(long timeoutMs) {
+    this.timeoutMs = timeoutMs;
+  }
+
+  /** Number of unexpired leases; expired ones are dropped on the way. */
+  public int activeCount() {
+    long cutoff = System.currentTimeMillis() - timeoutMs;
+    leases.values().removeIf(renewedAt -> renewedAt < cutoff);
+    return leases.size();
+  }
+
+  /** Time of the most recent renewal, or 0 if there has been none. */
+  public long lastRenewedAt() {
+    long latest = 0;
+    for (long renewedAt : leases.values())
+      latest = Math.max(latest, renewedAt);
+    return latest;
+  }
+}
@@ -1,12 +1,17 @@
 package com.example.backend.llama;
 
+import com.example.backend.chat.ChatUpstream;
+import io.smallrye.mutiny.Multi;
 import jakarta.inject.Inject;
 import jakarta.ws.rs.*;
 import jakarta.ws.rs.core.MediaType;
 import jakarta.ws.rs.core.Response;
 import java.io.IOException;
 import java.nio.file.Files;
+import com.sun.management.OperatingSystemMXBean;
+import java.lang.management.ManagementFactory;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
 
@@ -19,6 +24,27 @@ public class ConfigController {
   @Inject
   ModelDownloader modelDownloader;
 
+  @Inject
+  ModelCatalog modelCatalog;
+
+  @Inject
+  LlamaLogPump logPump;
+
+  @Inject
+  ClientLeases leases;
+
+  @Inject
+  LaunchProfiles launchProfiles;
+
+  @Inject
+  ProfileCalibrator calibrator;
+
+  @Inject
+  ChatUpstream chatUpstream;
+
+  @Inject
+  ModelManager modelManager;
+
   @POST
   @Path("/download")
   @Consumes(MediaType.APPLICATION_JSON)
@@ -29,7 +55,9 @@ public class ConfigController {
       String fileName = request.get("fileName");
       String targetDir = "downloads";
 
-      modelDownloader.downloadGguf(repo, fileName, targetDir);
+      String sha256 = request.get("sha256");
+
+      modelDownloader.downloadGguf(repo, fileName, targetDir, sha256);
 
       return Response.ok(Map.of("message", "Model download started for " + targetDir)).build();
     } catch (Exception e) {
@@ -55,11 +83,21 @@ public class ConfigController {
         Files.createDirectories(downloadPath);
 
       try (var stream = Files.list(downloadPath)) {
-        List<String> files = stream
-            .map(path -> path.getFileName().toString())
-            .filter(name -> name.endsWith(".gguf"))
+        List<java.nio.file.Path> paths = stream
+            .filter(path -> path.getFileName().toString().endsWith(".gguf"))
             .toList();
-        return Response.ok(Map.of("files", files)).build();
+
+        List<String> files = new ArrayList<>();
+        List<Object> models = new ArrayList<>();
+        for (java.nio.file.Path path : paths) {
+          files.add(path.getFileName().toString());
+          try {
+            models.add(modelCatalog.describe(path));
+          } catch (IOException e) {
+            models.add(Map.of("fileName", path.getFileName().toString(), "error", e.getMessage()));
+          }
+        }
+        return Response.ok(Map.of("files", files, "models", models)).build();
       }
     } catch (IOException e) {
       return Response.status(Response.Status.INTERNAL_SERVER_ERROR)
@@ -82,15 +120,28 @@ public class ConfigController {
             .entity(Map.of("message", "Model path is required.")).build();
       }
 
+      String rejection = checkModelFits(modelPath, contextSize);
+      if (rejection != null) {
+        return Response.status(Response.Status.BAD_REQUEST)
+            .entity(Map.of("message", rejection)).build();
+      }
+
+      // Evicts idle hosted models, including a copy of this one, so the new primary fits the budget
+      modelManager.prepareForPrimary(modelPath);
+
       if (llamaRunner.isRunning()) {
-        llamaRunner.stopLlama(null); // Passing null since we call it manually
+        // Keep serving the current model until the new one is ready
+        llamaRunner.swapModel(modelPath, mmprojPath, contextSize);
+        return Response.status(Response.Status.ACCEPTED).entity(Map.of(
+            "message", "Model swap started",
+            "status", llamaRunner.getSwapStatus())).build();
       }
 
       llamaRunner.startLlama(modelPath, mmprojPath, contextSize);
 
       return Response.ok(Map.of(
           "message", "Server started successfully",
-          "port", llamaRunner.SERVER_PORT != null ? llamaRunner.SERVER_PORT : "unknown")).build();
+          "port", llamaRunner.getActivePort())).build();
 
     } catch (IllegalStateException e) {
       return Response.status(Response.Status.CONFLICT)
@@ -101,11 +152,40 @@ public class ConfigController {
     }
   }
 
+  /**
+   * Checks the requested context against the model's trained limit and the
+   * estimated weights plus KV cache against physical memory. Returns a reason
+   * to refuse the launch, or null if it looks feasible or can't be judged.
+   */
+  private String checkModelFits(String modelPath, String contextSize) {
+    GgufMetadata metadata;
+    long context;
+    try {
+      metadata = modelCatalog.describe(Paths.get(modelPath));
+      context = Long.parseLong(contextSize.trim());
+    } catch (IOException | NumberFormatException e) {
+      return null;
+    }
+
+    if (metadata.contextLength != null && context > metadata.contextLength) {
+      return "Context size " + context + " exceeds the model's trained context of " + metadata.contextLength + ".";
+    }
+
+    long required = metadata.estimateMemoryBytes(context);
+    if (ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os
+        && required > os.getTotalMemorySize()) {
+      return String.format("Model needs about %.1f GB (weights + KV cache) but the machine has %.1f GB.",
+          required / 1e9, os.getTotalMemorySize() / 1e9);
+    }
+    return null;
+  }
+
   @POST
   @Path("/stop")
   @Produces(MediaType.APPLICATION_JSON)
   public Response stopServer() {
     llamaRunner.stopLlama(null);
+    modelManager.stopAll(null);
     return Response.ok(Map.of("message", "Llama server stopped.")).build();
   }
 
@@ -115,14 +195,182 @@ public class ConfigController {
   public Map<String, Object> getStatus() {
     return Map.of(
         "running", llamaRunner.isRunning(),
+        "suspended", llamaRunner.isSuspended(),
         "modelPath", llamaRunner.getCurrentModelPath() != null ? llamaRunner.getCurrentModelPath() : "",
+        "models", modelManager.getResident(),
+        "memory", modelManager.getBudget(),
         "os", System.getProperty("os.name"));
   }
 
+  @GET
+  @Path("/swap-status")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getSwapStatus() {
+    return llamaRunner.getSwapStatus();
+  }
+
+  @GET
+  @Path("/logs")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getLogs(@QueryParam("lines") Integer lines) {
+    return Map.of(
+        "lines", logPump.tail(lines != null ? lines : 200),
+        "metrics", logPump.getMetrics());
+  }
+
+  @GET
+  @Path("/logs/stream")
+  @Produces(MediaType.SERVER_SENT_EVENTS)
+  public Multi<String> streamLogs() {
+    return Multi.createFrom().emitter(emitter -> {
+      Runnable unsubscribe = logPump.subscribe(line -> {
+        if (emitter.isCancelled())
+          throw new IllegalStateException("Subscriber gone");
+        emitter.emit(line);
+      });
+      emitter.onTermination(unsubscribe);
+    });
+  }
+
   @POST
   @Path("/heartbeat")
-  public Response heartbeat() {
-    llamaRunner.resetHeartbeat();
+  public Response heartbeat(@HeaderParam("X-Client-Id") String clientId) {
+    leases.renew(clientId != null && !clientId.isBlank() ? clientId : "anonymous");
+    return Response.ok().build();
+  }
+
+  /**
+   * Drops a closing client's lease. The id may come as a query parameter
+   * because navigator.sendBeacon cannot set headers.
+   */
+  @POST
+  @Path("/heartbeat/release")
+  public Response releaseLease(@HeaderParam("X-Client-Id") String clientId,
+      @QueryParam("clientId") String queryClientId) {
+    String id = clientId != null && !clientId.isBlank() ? clientId : queryClientId;
+    if (id != null)
+      leases.release(id);
     return Response.ok().build();
   }
-}
\ No newline at end of file
+
+  @GET
+  @Path("/lifecycle")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getLifecycle() {
+    return llamaRunner.getLifecycle();
+  }
+
+  @POST
+  @Path("/lifecycle")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> setLifecycle(Map<String, Long> timeouts) {
+    llamaRunner.setTimeouts(timeouts.get("idleUnloadSeconds"), timeouts.get("leaseTimeoutSeconds"));
+    return llamaRunner.getLifecycle();
+  }
+
+  /** Detected hardware and the recommended, calibrated, overridden and effective profiles for a model. */
+  @GET
+  @Path("/profiles")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response getProfile(@QueryParam("modelPath") String modelPath,
+      @QueryParam("contextSize") @DefaultValue("1024") String contextSize) {
+    if (modelPath == null || modelPath.isBlank()) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", "Model path is required.")).build();
+    }
+    return Response.ok(launchProfiles.describe(modelPath, contextSize)).build();
+  }
+
+  /** Sets the flags that always win for a model; null fields keep the tuned value. */
+  @PUT
+  @Path("/profiles/override")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response setProfileOverride(@QueryParam("modelPath") String modelPath, LaunchProfile override) {
+    if (modelPath == null || modelPath.isBlank() || override == null) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", "Model path and profile are required.")).build();
+    }
+    launchProfiles.setOverride(modelPath, override);
+    return Response.ok(launchProfiles.describe(modelPath, "1024")).build();
+  }
+
+  @DELETE
+  @Path("/profiles/override")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response clearProfileOverride(@QueryParam("modelPath") String modelPath) {
+    if (modelPath == null || modelPath.isBlank()) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", "Model path is required.")).build();
+    }
+    launchProfiles.clearOverride(modelPath);
+    return Response.ok(Map.of("message", "Override removed.")).build();
+  }
+
+  @POST
+  @Path("/profiles/calibrate")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response calibrate(Map<String, String> request) {
+    String modelPath = request.get("modelPath");
+    if (modelPath == null || modelPath.isBlank()) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", "Model path is required.")).build();
+    }
+    try {
+      calibrator.calibrate(modelPath, request.getOrDefault("contextSize", "1024"));
+    } catch (IllegalStateException e) {
+      return Response.status(Response.Status.CONFLICT)
+          .entity(Map.of("message", e.getMessage())).build();
+    }
+    return Response.status(Response.Status.ACCEPTED).entity(calibrator.getStatus()).build();
+  }
+
+  @GET
+  @Path("/profiles/calibration")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getCalibration() {
+    return calibrator.getStatus();
+  }
+
+  /** The primary server and every replica, with health and load. */
+  @GET
+  @Path("/replicas")
+  @Produces(MediaType.APPLICATION_JSON)
+  public List<Map<String, Object>> getReplicas() {
+    return chatUpstream.getReplicas();
+  }
+
+  /** Registers a server with the same model; {@code capacity} is how many requests it runs at once. */
+  @POST
+  @Path("/replicas")
+  @Consumes(MediaType.APPLICATION_JSON)
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response addReplica(Map<String, Object> request) {
+    Object url = request.get("url");
+    if (!(url instanceof String) || ((String) url).isBlank()) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", "Replica url is required.")).build();
+    }
+    int capacity = request.get("capacity") instanceof Number number ? number.intValue() : 1;
+    try {
+      chatUpstream.addReplica((String) url, capacity);
+    } catch (IllegalArgumentException e) {
+      return Response.status(Response.Status.BAD_REQUEST)
+          .entity(Map.of("message", e.getMessage())).build();
+    }
+    return Response.ok(chatUpstream.getReplicas()).build();
+  }
+
+  @DELETE
+  @Path("/replicas")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response removeReplica(@QueryParam("url") String url) {
+    if (url == null || !chatUpstream.removeReplica(url)) {
+      return Response.status(Response.Status.NOT_FOUND)
+          .entity(Map.of("message", "No such replica.")).build();
+    }
+    return Response.ok(chatUpstream.getReplicas()).build();
+  }
+}
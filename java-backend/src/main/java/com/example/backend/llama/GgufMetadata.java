@@ -0,0 +1,45 @@
+package com.example.backend.llama;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+/**
+ * Summary of a GGUF file's header, as stored in the model catalog index.
+ * Fields the file does not declare are left null.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+public class GgufMetadata {
+  public String fileName;
+  public long fileSize;
+  public long lastModified;
+
+  public int version;
+  public String name;
+  public String architecture;
+  public String quantization;
+  public Long parameterCount;
+  public Long contextLength;
+  public Long blockCount;
+  public Long embeddingLength;
+  public Long headCount;
+  public Long headCountKv;
+  public Long keyLength;
+  public Long valueLength;
+  public long tensorCount;
+
+  /** Bytes of f16 KV cache needed for {@code contextSize} tokens, or -1 if unknown. */
+  public long estimateKvCacheBytes(long contextSize) {
+    if (blockCount == null || headCount == null || embeddingLength == null)
+      return -1;
+    long kvHeads = headCountKv != null ? headCountKv : headCount;
+    long headDim = embeddingLength / Math.max(1, headCount);
+    long keyDim = keyLength != null ? keyLength : headDim;
+    long valueDim = valueLength != null ? valueLength : headDim;
+    return blockCount * contextSize * kvHeads * (keyDim + valueDim) * 2;
+  }
+
+  /** Weights plus KV cache; llama-server's compute buffers come on top. */
+  public long estimateMemoryBytes(long contextSize) {
+    long kvCache = estimateKvCacheBytes(contextSize);
+    return fileSize + Math.max(0, kvCache);
+  }
+}
@@ -0,0 +1,221 @@
+package com.example.backend.llama;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Reads the key/value metadata and tensor info sections of a GGUF file through
+ * a memory mapping, so only the header pages are ever touched and the tensor
+ * data is never loaded.
+ */
+public final class GgufReader {
+
+  private static final int MAGIC = 0x46554747; // "GGUF" read little-endian
+
+  private static final int TYPE_UINT8 = 0;
+  private static final int TYPE_INT8 = 1;
+  private static final int TYPE_UINT16 = 2;
+  private static final int TYPE_INT16 = 3;
+  private static final int TYPE_UINT32 = 4;
+  private static final int TYPE_INT32 = 5;
+  private static final int TYPE_FLOAT32 = 6;
+  private static final int TYPE_BOOL = 7;
+  private static final int TYPE_STRING = 8;
+  private static final int TYPE_ARRAY = 9;
+  private static final int TYPE_UINT64 = 10;
+  private static final int TYPE_INT64 = 11;
+  private static final int TYPE_FLOAT64 = 12;
+
+  // llama_ftype values as written to general.file_type
+  private static final Map<Integer, String> FILE_TYPES = new HashMap<>();
+  static {
+    String[] names = { "F32", "F16", "Q4_0", "Q4_1", null, null, null, "Q8_0", "Q5_0", "Q5_1", "Q2_K",
+        "Q3_K_S", "Q3_K_M", "Q3_K_L", "Q4_K_S", "Q4_K_M", "Q5_K_S", "Q5_K_M", "Q6_K", "IQ2_XXS", "IQ2_XS",
+        "Q2_K_S", "IQ3_XS", "IQ3_XXS", "IQ1_S", "IQ4_NL", "IQ3_S", "IQ3_M", "IQ2_S", "IQ2_M", "IQ4_XS",
+        "IQ1_M", "BF16", null, null, null, "TQ1_0", "TQ2_0" };
+    for (int i = 0; i < names.length; i++) {
+      if (names[i] != null)
+        FILE_TYPES.put(i, names[i]);
+    }
+  }
+
+  private final MappedByteBuffer buffer;
+  private final int version;
+
+  private GgufReader(MappedByteBuffer buffer) throws IOException {
+    this.buffer = buffer;
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    if (buffer.getInt() != MAGIC)
+      throw new IOException("Not a GGUF file");
+    this.version = buffer.getInt();
+    if (version < 1 || version > 3)
+      throw new IOException("Unsupported GGUF version " + version);
+  }
+
+  public static GgufMetadata read(Path path) throws IOException {
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      long size = channel.size();
+      // A single mapping is capped at 2 GB; the header always fits well inside
+      MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, Math.min(size, Integer.MAX_VALUE));
+      GgufMetadata metadata = new GgufReader(mapped).parse();
+      metadata.fileName = path.getFileName().toString();
+      metadata.fileSize = size;
+      metadata.lastModified = Files.getLastModifiedTime(path).toMillis();
+      return metadata;
+    } catch (BufferUnderflowException | IllegalArgumentException e) {
+      throw new IOException("Truncated or corrupt GGUF header in " + path.getFileName());
+    }
+  }
+
+  private GgufMetadata parse() throws IOException {
+    GgufMetadata metadata = new GgufMetadata();
+    metadata.version = version;
+    metadata.tensorCount = readCount();
+    long kvCount = readCount();
+
+    Map<String, Object> values = new HashMap<>();
+    for (long i = 0; i < kvCount; i++) {
+      String key = readString();
+      int type = buffer.getInt();
+      if (type == TYPE_ARRAY) {
+        // Tokenizer vocabularies live here and can be megabytes; skip them
+        skipArray();
+      } else {
+        values.put(key, readScalar(type));
+      }
+    }
+
+    String arch = (String) values.get("general.architecture");
+    metadata.architecture = arch;
+    metadata.name = (String) values.get("general.name");
+    Object fileType = values.get("general.file_type");
+    if (fileType instanceof Number number)
+      metadata.quantization = FILE_TYPES.getOrDefault(number.intValue(), "type " + number.intValue());
+
+    if (arch != null) {
+      metadata.contextLength = asLong(values.get(arch + ".context_length"));
+      metadata.blockCount = asLong(values.get(arch + ".block_count"));
+      metadata.embeddingLength = asLong(values.get(arch + ".embedding_length"));
+      metadata.headCount = asLong(values.get(arch + ".attention.head_count"));
+      metadata.headCountKv = asLong(values.get(arch + ".attention.head_count_kv"));
+      metadata.keyLength = asLong(values.get(arch + ".attention.key_length"));
+      metadata.valueLength = asLong(values.get(arch + ".attention.value_length"));
+    }
+
+    long parameters = 0;
+    for (long i = 0; i < metadata.tensorCount; i++) {
+      skipString();
+      int dims = buffer.getInt();
+      long elements = 1;
+      for (int d = 0; d < dims; d++)
+        elements *= buffer.getLong();
+      buffer.getInt(); // tensor type
+      buffer.getLong(); // data offset
+      parameters += elements;
+    }
+    metadata.parameterCount = parameters;
+    return metadata;
+  }
+
+  // Counts and string lengths were 32-bit in version 1
+  private long readCount() {
+    return version == 1 ? Integer.toUnsignedLong(buffer.getInt()) : buffer.getLong();
+  }
+
+  private String readString() throws IOException {
+    long length = readCount();
+    if (length > buffer.remaining())
+      throw new IOException("String length " + length + " exceeds header");
+    byte[] bytes = new byte[(int) length];
+    buffer.get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  private void skipString() {
+    long length = readCount();
+    buffer.position(Math.toIntExact(buffer.position() + length));
+  }
+
+  private Object readScalar(int type) throws IOException {
+    switch (type) {
+      case TYPE_UINT8:
+        return buffer.get() & 0xFF;
+      case TYPE_INT8:
+        return (int) buffer.get();
+      case TYPE_UINT16:
+        return buffer.getShort() & 0xFFFF;
+      case TYPE_INT16:
+        return (int) buffer.getShort();
+      case TYPE_UINT32:
+        return Integer.toUnsignedLong(buffer.getInt());
+      case TYPE_INT32:
+        return buffer.getInt();
+      case TYPE_FLOAT32:
+        return buffer.getFloat();
+      case TYPE_BOOL:
+        return buffer.get() != 0;
+      case TYPE_STRING:
+        return readString();
+      case TYPE_UINT64:
+      case TYPE_INT64:
+        return buffer.getLong();
+      case TYPE_FLOAT64:
+        return buffer.getDouble();
+      default:
+        throw new IOException("Unknown GGUF value type " + type);
+    }
+  }
+
+  private void skipArray() throws IOException {
+    int itemType = buffer.getInt();
+    long count = readCount();
+    int width = fixedWidth(itemType);
+    if (width > 0) {
+      buffer.position(Math.toIntExact(buffer.position() + count * width));
+      return;
+    }
+    for (long i = 0; i < count; i++) {
+      if (itemType == TYPE_STRING)
+        skipString();
+      else if (itemType == TYPE_ARRAY)
+        skipArray();
+      else
+        throw new IOException("Unknown GGUF array type " + itemType);
+    }
+  }
+
+  private static int fixedWidth(int type) {
+    switch (type) {
+      case TYPE_UINT8:
+      case TYPE_INT8:
+      case TYPE_BOOL:
+        return 1;
+      case TYPE_UINT16:
+      case TYPE_INT16:
+        return 2;
+      case TYPE_UINT32:
+      case TYPE_INT32:
+      case TYPE_FLOAT32:
+        return 4;
+      case TYPE_UINT64:
+      case TYPE_INT64:
+      case TYPE_FLOAT64:
+        return 8;
+      default:
+        return 0;
+    }
+  }
+
+  private static Long asLong(Object value) {
+    return value instanceof Number number ? number.longValue() : null;
+  }
+}
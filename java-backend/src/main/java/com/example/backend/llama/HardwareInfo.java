@@ -0,0 +1,96 @@
+package com.example.backend.llama;
+
+import com.sun.management.OperatingSystemMXBean;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+/**
+ * What the machine offers llama-server: cores, NUMA nodes and memory. Read
+ * from /proc and /sys where available, so hyperthreads can be told apart from
+ * physical cores; elsewhere the JVM's view is used.
+ */
+public class HardwareInfo {
+  public int logicalCores;
+  public int physicalCores;
+  public int numaNodes;
+  public long totalMemoryBytes;
+  public long availableMemoryBytes;
+
+  public static HardwareInfo detect() {
+    HardwareInfo info = new HardwareInfo();
+    // Honours container CPU limits, unlike /proc/cpuinfo
+    info.logicalCores = Runtime.getRuntime().availableProcessors();
+    info.physicalCores = physicalCores(info.logicalCores);
+    info.numaNodes = numaNodes();
+    if (ManagementFactory.getOperatingSystemMXBean() instanceof OperatingSystemMXBean os) {
+      info.totalMemoryBytes = os.getTotalMemorySize();
+      info.availableMemoryBytes = os.getFreeMemorySize();
+    }
+    // MemFree leaves out the page cache, which the kernel gives back on demand
+    long available = memInfo("MemAvailable");
+    if (available > 0)
+      info.availableMemoryBytes = info.totalMemoryBytes > 0 ? Math.min(available, info.totalMemoryBytes) : available;
+    return info;
+  }
+
+  private static int physicalCores(int logicalCores) {
+    List<String> lines;
+    try {
+      lines = Files.readAllLines(Paths.get("/proc/cpuinfo"));
+    } catch (IOException e) {
+      return logicalCores;
+    }
+    Set<String> cores = new HashSet<>();
+    int processors = 0;
+    String physicalId = "0";
+    for (String line : lines) {
+      int colon = line.indexOf(':');
+      if (colon < 0)
+        continue;
+      String key = line.substring(0, colon).trim();
+      String value = line.substring(colon + 1).trim();
+      if (key.equals("processor"))
+        processors++;
+      else if (key.equals("physical id"))
+        physicalId = value;
+      else if (key.equals("core id"))
+        cores.add(physicalId + ":" + value);
+    }
+    if (cores.isEmpty() || processors == 0)
+      return logicalCores;
+    // Scale by the SMT ratio when a CPU quota hides some of the processors
+    int threadsPerCore = Math.max(1, processors / cores.size());
+    return Math.max(1, Math.min(cores.size(), logicalCores / threadsPerCore));
+  }
+
+  private static int numaNodes() {
+    Path nodes = Paths.get("/sys/devices/system/node");
+    if (!Files.isDirectory(nodes))
+      return 1;
+    try (Stream<Path> entries = Files.list(nodes)) {
+      long count = entries.filter(path -> path.getFileName().toString().matches("node\\d+")).count();
+      return (int) Math.max(1, count);
+    } catch (IOException e) {
+      return 1;
+    }
+  }
+
+  private static long memInfo(String field) {
+    try {
+      for (String line : Files.readAllLines(Paths.get("/proc/meminfo"))) {
+        if (line.startsWith(field + ":"))
+          return Long.parseLong(line.substring(field.length() + 1).replace("kB", "").trim()) * 1024;
+      }
+    } catch (IOException | NumberFormatException e) {
+      // Not Linux
+    }
+    return -1;
+  }
+}
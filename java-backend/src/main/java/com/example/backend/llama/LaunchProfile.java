@@ -0,0 +1,109 @@
+package com.example.backend.llama;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tuning flags for one llama-server launch. Fields left null are not passed,
+ * so llama-server keeps its own default; this also lets an override set just
+ * the fields it cares about.
+ */
+@JsonIgnoreProperties(ignoreUnknown = true)
+@JsonInclude(JsonInclude.Include.NON_NULL)
+public class LaunchProfile {
+  /** Threads for token generation, which is bound by memory bandwidth. */
+  public Integer threads;
+  /** Threads for prompt processing, which is bound by compute. */
+  public Integer threadsBatch;
+  public Integer batchSize;
+  public Integer ubatchSize;
+  public Boolean contBatching;
+  public Boolean mlock;
+  public Boolean mmap;
+  public String cacheTypeK;
+  public String cacheTypeV;
+  public String numa;
+
+  /** Measured by calibration; not a launch flag. */
+  public Double tokensPerSecond;
+  public Double promptTokensPerSecond;
+  public Long calibratedAt;
+
+  public LaunchProfile copy() {
+    return new LaunchProfile().overlay(this);
+  }
+
+  /** Takes every non-null field of {@code other}; returns this profile. */
+  public LaunchProfile overlay(LaunchProfile other) {
+    if (other == null)
+      return this;
+    if (other.threads != null)
+      threads = other.threads;
+    if (other.threadsBatch != null)
+      threadsBatch = other.threadsBatch;
+    if (other.batchSize != null)
+      batchSize = other.batchSize;
+    if (other.ubatchSize != null)
+      ubatchSize = other.ubatchSize;
+    if (other.contBatching != null)
+      contBatching = other.contBatching;
+    if (other.mlock != null)
+      mlock = other.mlock;
+    if (other.mmap != null)
+      mmap = other.mmap;
+    if (other.cacheTypeK != null)
+      cacheTypeK = other.cacheTypeK;
+    if (other.cacheTypeV != null)
+      cacheTypeV = other.cacheTypeV;
+    if (other.numa != null)
+      numa = other.numa;
+    if (other.tokensPerSecond != null)
+      tokensPerSecond = other.tokensPerSecond;
+    if (other.promptTokensPerSecond != null)
+      promptTokensPerSecond = other.promptTokensPerSecond;
+    if (other.calibratedAt != null)
+      calibratedAt = other.calibratedAt;
+    return this;
+  }
+
+  public List<String> toArgs() {
+    List<String> args = new ArrayList<>();
+    if (threads != null) {
+      args.add("--threads");
+      args.add(threads.toString());
+    }
+    if (threadsBatch != null) {
+      args.add("--threads-batch");
+      args.add(threadsBatch.toString());
+    }
+    if (batchSize != null) {
+      args.add("--batch-size");
+      args.add(batchSize.toString());
+    }
+    if (ubatchSize != null) {
+      args.add("--ubatch-size");
+      args.add(ubatchSize.toString());
+    }
+    if (contBatching != null)
+      args.add(contBatching ? "--cont-batching" : "--no-cont-batching");
+    if (Boolean.TRUE.equals(mlock))
+      args.add("--mlock");
+    if (Boolean.FALSE.equals(mmap))
+      args.add("--no-mmap");
+    if (cacheTypeK != null) {
+      args.add("--cache-type-k");
+      args.add(cacheTypeK);
+    }
+    if (cacheTypeV != null) {
+      args.add("--cache-type-v");
+      args.add(cacheTypeV);
+    }
+    if (numa != null) {
+      args.add("--numa");
+      args.add(numa);
+    }
+    return args;
+  }
+}
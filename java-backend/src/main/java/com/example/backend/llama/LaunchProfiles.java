@@ -0,0 +1,168 @@
+package com.example.backend.llama;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Picks llama-server's tuning flags for a model. A recommendation is derived
+ * from the hardware and the model's memory needs; the fastest profile found by
+ * calibration replaces it, and per-model overrides win over both. Overrides
+ * and calibration results are kept on disk, keyed by model path.
+ */
+@ApplicationScoped
+public class LaunchProfiles {
+
+  public static class Store {
+    public Map<String, LaunchProfile> overrides = new ConcurrentHashMap<>();
+    public Map<String, LaunchProfile> calibrated = new ConcurrentHashMap<>();
+  }
+
+  /** Without auto-tuning only the per-model overrides are passed. */
+  @ConfigProperty(name = "llama.auto-tune", defaultValue = "true")
+  boolean autoTune;
+
+  @ConfigProperty(name = "llama.profiles-path", defaultValue = "launch-profiles.json")
+  String profilesPath;
+
+  @ConfigProperty(name = "vite.app.llama.server.slots", defaultValue = "1")
+  int slots;
+
+  @Inject
+  ModelCatalog modelCatalog;
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  private Store store = new Store();
+
+  @PostConstruct
+  void load() {
+    Path path = Paths.get(profilesPath);
+    if (Files.exists(path)) {
+      try {
+        store = objectMapper.readValue(path.toFile(), Store.class);
+      } catch (IOException e) {
+        System.err.println("Ignoring unreadable " + path + ": " + e.getMessage());
+      }
+    }
+  }
+
+  /**
+   * Flags for a CPU-only launch: generation on the physical cores, since
+   * hyperthreads only compete for memory bandwidth there, and prompt
+   * processing on all of them. A model that fits comfortably is locked in
+   * RAM; one that barely fits gets a q8_0 key cache to halve its size.
+   */
+  public LaunchProfile recommend(String modelPath, String contextSize) {
+    HardwareInfo hardware = HardwareInfo.detect();
+    long context = parseContext(contextSize);
+
+    LaunchProfile profile = new LaunchProfile();
+    profile.threads = hardware.physicalCores;
+    profile.threadsBatch = hardware.logicalCores;
+    profile.batchSize = (int) Math.min(2048, Math.max(64, context));
+    profile.ubatchSize = Math.min(512, profile.batchSize);
+    if (slots > 1)
+      profile.contBatching = true;
+    if (hardware.numaNodes > 1)
+      profile.numa = "distribute";
+
+    long required = estimateMemoryBytes(modelPath, context);
+    if (required > 0 && hardware.availableMemoryBytes > 0) {
+      if (required + required / 4 <= hardware.availableMemoryBytes)
+        profile.mlock = true;
+      else if (required > hardware.availableMemoryBytes)
+        profile.cacheTypeK = "q8_0";
+    }
+    return profile;
+  }
+
+  /** The profile a launch of {@code modelPath} will use. */
+  public LaunchProfile resolve(String modelPath, String contextSize) {
+    String key = key(modelPath);
+    LaunchProfile profile = autoTune
+        ? recommend(modelPath, contextSize).overlay(store.calibrated.get(key))
+        : new LaunchProfile();
+    return profile.overlay(store.overrides.get(key));
+  }
+
+  public Map<String, Object> describe(String modelPath, String contextSize) {
+    String key = key(modelPath);
+    LaunchProfile effective = resolve(modelPath, contextSize);
+    Map<String, Object> description = new HashMap<>();
+    description.put("hardware", HardwareInfo.detect());
+    description.put("autoTune", autoTune);
+    description.put("recommended", recommend(modelPath, contextSize));
+    description.put("calibrated", store.calibrated.get(key));
+    description.put("override", store.overrides.get(key));
+    description.put("effective", effective);
+    description.put("args", effective.toArgs());
+    return description;
+  }
+
+  public synchronized void setOverride(String modelPath, LaunchProfile override) {
+    // Measurements only make sense for calibrated profiles
+    LaunchProfile flags = override.copy();
+    flags.tokensPerSecond = null;
+    flags.promptTokensPerSecond = null;
+    flags.calibratedAt = null;
+    store.overrides.put(key(modelPath), flags);
+    save();
+  }
+
+  public synchronized void clearOverride(String modelPath) {
+    store.overrides.remove(key(modelPath));
+    save();
+  }
+
+  synchronized void saveCalibrated(String modelPath, LaunchProfile profile) {
+    store.calibrated.put(key(modelPath), profile);
+    save();
+  }
+
+  private long estimateMemoryBytes(String modelPath, long context) {
+    try {
+      return modelCatalog.describe(Paths.get(modelPath)).estimateMemoryBytes(context);
+    } catch (IOException e) {
+      try {
+        return Files.size(Paths.get(modelPath));
+      } catch (IOException notReadable) {
+        return -1;
+      }
+    }
+  }
+
+  private static long parseContext(String contextSize) {
+    try {
+      return Long.parseLong(contextSize.trim());
+    } catch (NullPointerException | NumberFormatException e) {
+      return 1024;
+    }
+  }
+
+  private static String key(String modelPath) {
+    return Paths.get(modelPath).toAbsolutePath().normalize().toString();
+  }
+
+  private void save() {
+    Path path = Paths.get(profilesPath);
+    try {
+      Path tmp = path.resolveSibling(path.getFileName() + ".tmp");
+      objectMapper.writeValue(tmp.toFile(), store);
+      Files.move(tmp, path, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.err.println("Failed to save " + profilesPath + ": " + e.getMessage());
+    }
+  }
+}
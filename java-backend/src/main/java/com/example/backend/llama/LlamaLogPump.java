@@ -0,0 +1,143 @@
+package com.example.backend.llama;
+
+import jakarta.enterprise.context.ApplicationScoped;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Drains the output of every llama-server process on a dedicated thread, so a
+ * busy server can never block on a full stdout pipe. Lines are kept in a
+ * bounded ring buffer for tailing and pushed to live subscribers, and the ones
+ * carrying timings or slot events are folded into metrics.
+ */
+@ApplicationScoped
+public class LlamaLogPump {
+
+  private static final Pattern PROMPT_EVAL = Pattern
+      .compile("prompt eval time\\s*=\\s*([\\d.]+) ms\\s*/\\s*(\\d+) tokens.*?([\\d.]+) tokens per second");
+  private static final Pattern EVAL = Pattern
+      .compile("^\\s*eval time\\s*=\\s*([\\d.]+) ms\\s*/\\s*(\\d+) tokens.*?([\\d.]+) tokens per second");
+  private static final Pattern LOAD_TIME = Pattern.compile("load time\\s*=\\s*([\\d.]+) ms");
+
+  @ConfigProperty(name = "llama.log.buffer-lines", defaultValue = "2000")
+  int bufferLines;
+
+  private final ArrayDeque<String> buffer = new ArrayDeque<>();
+  private final Set<Consumer<String>> subscribers = ConcurrentHashMap.newKeySet();
+  private final Map<Process, Boolean> failedToLoad = new ConcurrentHashMap<>();
+
+  private final AtomicLong linesRead = new AtomicLong();
+  private final AtomicLong promptTokens = new AtomicLong();
+  private final AtomicLong generatedTokens = new AtomicLong();
+  private final AtomicLong slotsLaunched = new AtomicLong();
+  private final AtomicLong slotsReleased = new AtomicLong();
+  private final AtomicLong errorLines = new AtomicLong();
+  private volatile double lastPromptTokensPerSecond;
+  private volatile double lastGenerationTokensPerSecond;
+  private volatile double lastLoadTimeMs;
+
+  /** Starts draining {@code process}'s output; the thread ends when the process does. */
+  public void attach(Process process, String port) {
+    Thread pump = new Thread(() -> {
+      try (BufferedReader reader = new BufferedReader(
+          new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+        String line;
+        while ((line = reader.readLine()) != null) {
+          System.out.println("[Llama]: " + line);
+          record(process, "[" + port + "] " + line, line);
+        }
+      } catch (IOException e) {
+        // The stream closes when the process is destroyed
+      } finally {
+        failedToLoad.remove(process);
+      }
+    }, "llama-log-" + port);
+    pump.setDaemon(true);
+    pump.start();
+  }
+
+  public boolean hasFailedToLoad(Process process) {
+    return failedToLoad.getOrDefault(process, false);
+  }
+
+  public List<String> tail(int lines) {
+    synchronized (buffer) {
+      List<String> all = new ArrayList<>(buffer);
+      return all.subList(Math.max(0, all.size() - lines), all.size());
+    }
+  }
+
+  public Runnable subscribe(Consumer<String> subscriber) {
+    subscribers.add(subscriber);
+    return () -> subscribers.remove(subscriber);
+  }
+
+  public Map<String, Object> getMetrics() {
+    Map<String, Object> metrics = new HashMap<>();
+    metrics.put("linesRead", linesRead.get());
+    metrics.put("promptTokens", promptTokens.get());
+    metrics.put("generatedTokens", generatedTokens.get());
+    metrics.put("slotsLaunched", slotsLaunched.get());
+    metrics.put("slotsReleased", slotsReleased.get());
+    metrics.put("errorLines", errorLines.get());
+    metrics.put("lastPromptTokensPerSecond", lastPromptTokensPerSecond);
+    metrics.put("lastGenerationTokensPerSecond", lastGenerationTokensPerSecond);
+    metrics.put("lastLoadTimeMs", lastLoadTimeMs);
+    return metrics;
+  }
+
+  private void record(Process process, String tagged, String line) {
+    linesRead.incrementAndGet();
+    synchronized (buffer) {
+      buffer.addLast(tagged);
+      while (buffer.size() > Math.max(1, bufferLines))
+        buffer.removeFirst();
+    }
+    for (Consumer<String> subscriber : subscribers) {
+      try {
+        subscriber.accept(tagged);
+      } catch (Exception e) {
+        subscribers.remove(subscriber);
+      }
+    }
+    parse(process, line);
+  }
+
+  private void parse(Process process, String line) {
+    Matcher matcher;
+    if ((matcher = PROMPT_EVAL.matcher(line)).find()) {
+      promptTokens.addAndGet(Long.parseLong(matcher.group(2)));
+      lastPromptTokensPerSecond = Double.parseDouble(matcher.group(3));
+    } else if ((matcher = EVAL.matcher(line)).find()) {
+      generatedTokens.addAndGet(Long.parseLong(matcher.group(2)));
+      lastGenerationTokensPerSecond = Double.parseDouble(matcher.group(3));
+    } else if ((matcher = LOAD_TIME.matcher(line)).find()) {
+      lastLoadTimeMs = Double.parseDouble(matcher.group(1));
+    } else if (line.contains("launch_slot_")) {
+      slotsLaunched.incrementAndGet();
+    } else if (line.contains("slot") && line.contains("release")) {
+      slotsReleased.incrementAndGet();
+    }
+
+    if (line.contains("error: failed to load model")) {
+      failedToLoad.put(process, true);
+    }
+    if (line.contains("error")) {
+      errorLines.incrementAndGet();
+    }
+  }
+}
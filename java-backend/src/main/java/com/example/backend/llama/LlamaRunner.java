@@ -1,79 +1,595 @@
 package com.example.backend.llama;
 
+import com.example.backend.chat.ChatUpstream;
+import com.example.backend.metrics.BackendMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
 import io.quarkus.runtime.ShutdownEvent;
 import io.quarkus.scheduler.Scheduled;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
 import org.eclipse.microprofile.config.inject.ConfigProperty;
+import jakarta.annotation.PostConstruct;
 import jakarta.enterprise.context.ApplicationScoped;
 import jakarta.enterprise.event.Observes;
-import java.io.BufferedReader;
+import jakarta.inject.Inject;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
 
 @ApplicationScoped
 public class LlamaRunner {
 
+  /**
+   * The last model launched and the unload timeouts, kept on disk so an
+   * unloaded model can be started again on demand, also after a restart.
+   */
+  public static class LaunchSettings {
+    public String modelPath;
+    public String mmprojPath;
+    public String contextSize;
+    /** False once the user stops the server; only then is there no lazy start. */
+    public boolean autoStart;
+    public Long idleUnloadSeconds;
+    public Long leaseTimeoutSeconds;
+  }
+
   private Process llamaProcess;
   private String currentModelPath = "";
+  private String activePort;
   @ConfigProperty(name = "vite.app.llama.server.port", defaultValue = "8082")
   String SERVER_PORT;
+  // Used by the standby server during a hot swap; the two ports alternate
+  @ConfigProperty(name = "vite.app.llama.server.spare-port", defaultValue = "8083")
+  String SPARE_PORT;
+  @ConfigProperty(name = "vite.app.llama.server.slots", defaultValue = "1")
+  String SERVER_SLOTS;
+  @ConfigProperty(name = "llama.swap.drain-timeout-ms", defaultValue = "120000")
+  long drainTimeoutMs;
+
+  @ConfigProperty(name = "llama.readiness-timeout-ms", defaultValue = "300000")
+  long readinessTimeoutMs;
+
+  /** Unload the model after this long without chat traffic; 0 keeps it loaded while clients are open. */
+  @ConfigProperty(name = "llama.idle-unload-seconds", defaultValue = "600")
+  long defaultIdleUnloadSeconds;
+
+  @ConfigProperty(name = "llama.lease-timeout-seconds", defaultValue = "15")
+  long defaultLeaseTimeoutSeconds;
+
+  @ConfigProperty(name = "llama.state-path", defaultValue = "llama-state.json")
+  String statePath;
+
+  @Inject
+  ChatUpstream chatUpstream;
+
+  @Inject
+  LlamaLogPump logPump;
+
+  @Inject
+  BackendMetrics metrics;
 
-  private final AtomicLong lastHeartbeat = new AtomicLong(System.currentTimeMillis());
-  private final long TIMEOUT_MS = 15000;
+  @Inject
+  ClientLeases leases;
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @Inject
+  LaunchProfiles launchProfiles;
+
+  private final HttpClient healthClient = HttpClient.newBuilder()
+      .connectTimeout(Duration.ofSeconds(2))
+      .build();
+
+  private final AtomicLong lastActivity = new AtomicLong(System.currentTimeMillis());
+  private LaunchSettings settings = new LaunchSettings();
+
+  // Guards the process fields and settings. Not a monitor: a chat request waiting
+  // for a model to load must not pin a virtual thread's carrier
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile Process standbyProcess;
+  // The old server of a swap while its requests drain
+  private volatile Process retiringProcess;
+  // A server started on SERVER_PORT that is still loading, and the start waiting on it
+  private Process startingProcess;
+  private CompletableFuture<Void> startup;
+  private boolean calibrating;
+  private final Map<String, Object> swapStatus = new ConcurrentHashMap<>(Map.of("state", "idle"));
+
+  @PostConstruct
+  void loadSettings() {
+    Path path = Paths.get(statePath);
+    if (Files.exists(path)) {
+      try {
+        settings = objectMapper.readValue(path.toFile(), LaunchSettings.class);
+      } catch (IOException e) {
+        System.err.println("Ignoring unreadable " + path + ": " + e.getMessage());
+      }
+    }
+    leases.setTimeoutMs(getLeaseTimeoutSeconds() * 1000);
+  }
 
-  public void resetHeartbeat() {
-    lastHeartbeat.set(System.currentTimeMillis());
+  /** Records chat traffic; the idle unload timer counts from the last call. */
+  public void markActivity() {
+    lastActivity.set(System.currentTimeMillis());
+  }
+
+  public long getIdleUnloadSeconds() {
+    return settings.idleUnloadSeconds != null ? settings.idleUnloadSeconds : defaultIdleUnloadSeconds;
+  }
+
+  public long getLeaseTimeoutSeconds() {
+    return settings.leaseTimeoutSeconds != null ? settings.leaseTimeoutSeconds : defaultLeaseTimeoutSeconds;
+  }
+
+  public void setTimeouts(Long idleUnloadSeconds, Long leaseTimeoutSeconds) {
+    lock.lock();
+    try {
+      if (idleUnloadSeconds != null)
+        settings.idleUnloadSeconds = Math.max(0, idleUnloadSeconds);
+      if (leaseTimeoutSeconds != null)
+        settings.leaseTimeoutSeconds = Math.max(5, leaseTimeoutSeconds);
+      leases.setTimeoutMs(getLeaseTimeoutSeconds() * 1000);
+      saveSettings();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /** True if the model was unloaded for being idle and will start again on the next chat. */
+  public boolean isSuspended() {
+    return !isRunning() && !isSwapping() && settings.autoStart && settings.modelPath != null;
+  }
+
+  public Map<String, Object> getLifecycle() {
+    Map<String, Object> lifecycle = new HashMap<>();
+    lifecycle.put("running", isRunning());
+    lifecycle.put("suspended", isSuspended());
+    lifecycle.put("modelPath", settings.modelPath != null ? settings.modelPath : "");
+    lifecycle.put("idleUnloadSeconds", getIdleUnloadSeconds());
+    lifecycle.put("leaseTimeoutSeconds", getLeaseTimeoutSeconds());
+    lifecycle.put("activeClients", leases.activeCount());
+    lifecycle.put("inFlight", chatUpstream.current().getInFlight());
+    lifecycle.put("idleSeconds", (System.currentTimeMillis() - lastActivity.get()) / 1000);
+    return lifecycle;
   }
 
   public String getCurrentModelPath() {
     return currentModelPath;
   }
 
+  /** The running model, or the one that will be started again on demand; null if there is none. */
+  public String getDefaultModelPath() {
+    if (!currentModelPath.isEmpty())
+      return currentModelPath;
+    return settings.modelPath != null ? Paths.get(settings.modelPath).toAbsolutePath().toString() : null;
+  }
+
+  public String getActivePort() {
+    return activePort != null ? activePort : SERVER_PORT;
+  }
+
   public boolean isRunning() {
     return llamaProcess != null && llamaProcess.isAlive();
   }
 
+  public boolean isSwapping() {
+    String state = (String) swapStatus.get("state");
+    return "starting".equals(state) || "switching".equals(state) || "draining".equals(state);
+  }
+
+  public Map<String, Object> getSwapStatus() {
+    return new HashMap<>(swapStatus);
+  }
+
+  /**
+   * Stops the server, along with one that is still loading and both servers
+   * of a swap. A stop requested by the user also turns off the lazy start;
+   * one at shutdown leaves it on, so the model comes back on demand.
+   */
   public void stopLlama(@Observes ShutdownEvent ev) {
-    if (isRunning()) {
-      System.out.println("Stopping Llama Server...");
-      llamaProcess.destroyForcibly();
-      this.llamaProcess = null;
+    lock.lock();
+    try {
+      if (isRunning()) {
+        System.out.println("Stopping Llama Server...");
+        llamaProcess.destroyForcibly();
+        this.llamaProcess = null;
+      }
+      for (Process process : new Process[] { startingProcess, standbyProcess, retiringProcess }) {
+        if (process != null)
+          process.destroyForcibly();
+      }
+      startingProcess = null;
+      standbyProcess = null;
+      retiringProcess = null;
+      if (ev == null && settings.autoStart) {
+        settings.autoStart = false;
+        saveSettings();
+      }
+    } finally {
+      lock.unlock();
     }
   }
 
+  /**
+   * Unloads the model once nothing needs it: never while a response is
+   * streaming, otherwise when every client lease has expired or when there
+   * has been no chat traffic for the idle period.
+   */
   @Scheduled(every = "5s")
   public void checkWatchdog() {
-    if (isRunning()) {
-      long elapsed = System.currentTimeMillis() - lastHeartbeat.get();
-      if (elapsed > TIMEOUT_MS) {
-        System.out.println("WATCHDOG TRIGGERED: No heartbeat detected for " + (elapsed / 1000) + "s.");
-        stopLlama(null);
+    if (!isRunning() || isSwapping())
+      return;
+    long now = System.currentTimeMillis();
+    if (chatUpstream.current().getInFlight() > 0) {
+      lastActivity.set(now);
+      return;
+    }
+
+    long idleMs = now - Math.max(lastActivity.get(), leases.lastRenewedAt());
+    long idleUnloadMs = getIdleUnloadSeconds() * 1000;
+    if (leases.activeCount() == 0 && idleMs > leases.getTimeoutMs()) {
+      unload("no client has been connected for " + idleMs / 1000 + "s");
+    } else if (idleUnloadMs > 0 && now - lastActivity.get() > idleUnloadMs) {
+      unload("no chat requests for " + (now - lastActivity.get()) / 1000 + "s");
+    }
+  }
+
+  private void unload(String reason) {
+    lock.lock();
+    try {
+      if (!isRunning() || chatUpstream.current().getInFlight() > 0)
+        return;
+      System.out.println("Unloading model, " + reason + ". It will be reloaded on the next chat request.");
+      llamaProcess.destroy();
+      try {
+        if (!llamaProcess.waitFor(10, TimeUnit.SECONDS))
+          llamaProcess.destroyForcibly();
+      } catch (InterruptedException e) {
+        llamaProcess.destroyForcibly();
+        Thread.currentThread().interrupt();
       }
+      llamaProcess = null;
+    } finally {
+      lock.unlock();
     }
   }
 
+  /**
+   * Starts the remembered model again if it was unloaded, or waits for a
+   * start already under way. {@code onLoading} is told before a caller has
+   * to wait for the load. Returns false if there is no model to start, e.g.
+   * when chat goes to an external server.
+   */
+  public boolean ensureRunning(Consumer<String> onLoading) throws IOException {
+    if (isRunning() || isSwapping())
+      return true;
+    if (!isSuspended())
+      return false;
+    onLoading.accept("Loading " + Paths.get(settings.modelPath).getFileName() + "...");
+    long start = System.currentTimeMillis();
+    if (start(settings.modelPath, settings.mmprojPath,
+        settings.contextSize != null ? settings.contextSize : "1024", true))
+      System.out.println("Reloaded model on demand in " + (System.currentTimeMillis() - start) + " ms");
+    return true;
+  }
+
   public void startLlama(String modelPath, String mmprojPath, String contextSize)
       throws IOException, IllegalStateException {
+    start(modelPath, mmprojPath, contextSize, false);
+  }
+
+  /**
+   * Launches llama-server on the main port and returns once it is ready. The
+   * lock is held to launch and to switch traffic over, not while the model
+   * loads, so status calls and a stop go through meanwhile. With
+   * {@code join}, a start that is already running or under way is waited
+   * for rather than refused. Returns whether this call launched the server.
+   */
+  private boolean start(String modelPath, String mmprojPath, String contextSize, boolean join)
+      throws IOException {
+    Process process;
+    CompletableFuture<Void> started;
+    lock.lock();
+    try {
+      if (join && (isRunning() || isSwapping()))
+        return false;
+      if (join && startup != null) {
+        process = null;
+        started = startup;
+      } else {
+        if (isRunning() || startup != null) {
+          throw new IllegalStateException("Llama Server is already running.");
+        }
+        if (isSwapping()) {
+          throw new IllegalStateException("A model swap is in progress.");
+        }
+        if (calibrating) {
+          throw new IllegalStateException("Launch profile calibration is running.");
+        }
+        process = spawn(modelPath, mmprojPath, contextSize, SERVER_PORT,
+            launchProfiles.resolve(modelPath, contextSize));
+        started = new CompletableFuture<>();
+        startingProcess = process;
+        startup = started;
+      }
+    } finally {
+      lock.unlock();
+    }
+
+    if (process == null) {
+      awaitStartup(started);
+      return false;
+    }
+
+    IOException failure = null;
+    try {
+      awaitReady(process, SERVER_PORT);
+    } catch (IOException e) {
+      failure = e;
+    }
+    lock.lock();
+    try {
+      startup = null;
+      boolean stopped = startingProcess != process;
+      startingProcess = null;
+      if (failure == null && stopped)
+        failure = new IOException("Llama Server was stopped while loading.");
+      if (failure == null) {
+        this.llamaProcess = process;
+        this.currentModelPath = Paths.get(modelPath).toAbsolutePath().toString();
+        this.activePort = SERVER_PORT;
+        chatUpstream.dropConnections();
+        chatUpstream.switchTo(chatUpstream.urlForPort(SERVER_PORT));
+        rememberLaunch(modelPath, mmprojPath, contextSize);
+      }
+    } finally {
+      lock.unlock();
+    }
+    if (failure != null) {
+      started.completeExceptionally(failure);
+      throw failure;
+    }
+    started.complete(null);
+    return true;
+  }
+
+  private static void awaitStartup(CompletableFuture<Void> started) throws IOException {
+    try {
+      started.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the server.");
+    }
+  }
+
+  /**
+   * Replaces the running model without downtime: a second llama-server is
+   * started on the spare port in the background, chat traffic is switched to it
+   * once it is ready, and the old process is stopped after its in-flight
+   * requests have drained. Progress is reported through {@link #getSwapStatus()}.
+   */
+  public void swapModel(String modelPath, String mmprojPath, String contextSize) {
+    String port;
+    lock.lock();
+    try {
+      if (isSwapping()) {
+        throw new IllegalStateException("A model swap is already in progress.");
+      }
+      if (startup != null) {
+        throw new IllegalStateException("Llama Server is still starting.");
+      }
+      if (calibrating) {
+        throw new IllegalStateException("Launch profile calibration is running.");
+      }
+
+      port = SERVER_PORT.equals(getActivePort()) ? SPARE_PORT : SERVER_PORT;
+      updateSwapStatus("starting", "Starting standby server on port " + port, modelPath);
+    } finally {
+      lock.unlock();
+    }
+
+    Uni.createFrom().item(() -> {
+      performSwap(modelPath, mmprojPath, contextSize, port);
+      return null;
+    })
+        .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+        .subscribe().with(
+            item -> System.out.println("Model swap finished: " + modelPath),
+            failure -> updateSwapStatus("failed", failure.getMessage(), modelPath));
+  }
+
+  private void performSwap(String modelPath, String mmprojPath, String contextSize, String port) {
+    Process next;
+    try {
+      next = launch(modelPath, mmprojPath, contextSize, port, true);
+    } catch (IOException e) {
+      standbyProcess = null;
+      updateSwapStatus("failed", e.getMessage(), modelPath);
+      return;
+    }
+
+    Process previous;
+    ChatUpstream.Target previousTarget;
+    lock.lock();
+    try {
+      if (standbyProcess != next) {
+        // Stopped while the standby server was loading
+        next.destroyForcibly();
+        updateSwapStatus("failed", "Llama Server was stopped during the swap.", modelPath);
+        return;
+      }
+      standbyProcess = null;
+      updateSwapStatus("switching", "Switching chat traffic to port " + port, modelPath);
+      previous = llamaProcess;
+      retiringProcess = previous;
+      llamaProcess = next;
+      currentModelPath = Paths.get(modelPath).toAbsolutePath().toString();
+      activePort = port;
+      chatUpstream.dropConnections();
+      previousTarget = chatUpstream.switchTo(chatUpstream.urlForPort(port));
+      rememberLaunch(modelPath, mmprojPath, contextSize);
+      updateSwapStatus("draining", previousTarget.getInFlight() + " request(s) still streaming from the old server",
+          modelPath);
+    } finally {
+      lock.unlock();
+    }
+
+    try {
+      if (!chatUpstream.awaitDrained(previousTarget, drainTimeoutMs)) {
+        System.out.println("Drain timeout reached, stopping old server with "
+            + previousTarget.getInFlight() + " request(s) in flight.");
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    if (previous != null && previous.isAlive()) {
+      previous.destroy();
+      try {
+        if (!previous.waitFor(10, TimeUnit.SECONDS))
+          previous.destroyForcibly();
+      } catch (InterruptedException e) {
+        previous.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+    }
+    retiringProcess = null;
+    updateSwapStatus("done", "Now serving " + modelPath + " on port " + port, modelPath);
+  }
+
+  /**
+   * Keeps llama-server stopped while calibration measures launch profiles,
+   * since a loaded model would compete for the same cores and memory.
+   */
+  void beginCalibration() {
+    lock.lock();
+    try {
+      if (isRunning() || isSwapping() || startup != null)
+        throw new IllegalStateException("Stop the running model before calibrating.");
+      if (calibrating)
+        throw new IllegalStateException("Launch profile calibration is already running.");
+      calibrating = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  void endCalibration() {
+    lock.lock();
+    try {
+      calibrating = false;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public boolean isCalibrating() {
+    lock.lock();
+    try {
+      return calibrating;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Starts a server for a model hosted next to this one without waiting for
+   * it to load; the caller owns the process and waits with {@link #awaitReady}.
+   */
+  Process spawnOnPort(String modelPath, String contextSize, String port) throws IOException {
+    return spawn(modelPath, null, contextSize, port, launchProfiles.resolve(modelPath, contextSize));
+  }
+
+  /** Starts a throwaway server with {@code profile} for calibration. */
+  Process launchWithProfile(String modelPath, String contextSize, String port, LaunchProfile profile)
+      throws IOException {
+    return launch(modelPath, null, contextSize, port, false, profile);
+  }
 
-    if (isRunning()) {
-      throw new IllegalStateException("Llama Server is already running.");
+  private void rememberLaunch(String modelPath, String mmprojPath, String contextSize) {
+    lock.lock();
+    try {
+      settings.modelPath = modelPath;
+      settings.mmprojPath = mmprojPath;
+      settings.contextSize = contextSize;
+      settings.autoStart = true;
+      markActivity();
+      saveSettings();
+    } finally {
+      lock.unlock();
     }
+  }
+
+  private void saveSettings() {
+    try {
+      objectMapper.writeValue(Paths.get(statePath).toFile(), settings);
+    } catch (IOException e) {
+      System.err.println("Failed to save " + statePath + ": " + e.getMessage());
+    }
+  }
+
+  private void updateSwapStatus(String state, String message, String modelPath) {
+    swapStatus.put("state", state);
+    swapStatus.put("message", message);
+    swapStatus.put("modelPath", modelPath);
+    swapStatus.put("updatedAt", System.currentTimeMillis());
+  }
 
+  private Process launch(String modelPath, String mmprojPath, String contextSize, String port, boolean standby)
+      throws IOException {
+    return launch(modelPath, mmprojPath, contextSize, port, standby,
+        launchProfiles.resolve(modelPath, contextSize));
+  }
+
+  private Process launch(String modelPath, String mmprojPath, String contextSize, String port, boolean standby,
+      LaunchProfile profile) throws IOException {
+    Process process = spawn(modelPath, mmprojPath, contextSize, port, profile);
+    if (standby)
+      standbyProcess = process;
+    awaitReady(process, port);
+    return process;
+  }
+
+  /** Starts llama-server without waiting for it to load. */
+  private Process spawn(String modelPath, String mmprojPath, String contextSize, String port, LaunchProfile profile)
+      throws IOException {
     Path normalizedModel = Paths.get(modelPath).toAbsolutePath();
-    this.currentModelPath = normalizedModel.toString();
 
     List<String> command = new ArrayList<>();
     command.add("llama-server");
     command.add("-m");
-    command.add(currentModelPath);
+    command.add(normalizedModel.toString());
     command.add("--ctx-size");
     command.add(contextSize);
     command.add("--port");
-    command.add(SERVER_PORT);
+    command.add(port);
+    // Must match the slot count SlotRouter pins conversations to
+    command.add("--parallel");
+    command.add(SERVER_SLOTS);
+    List<String> tuning = profile.toArgs();
+    command.addAll(tuning);
+    if (!tuning.isEmpty())
+      System.out.println("Launch profile: " + String.join(" ", tuning));
 
     if (mmprojPath != null && !mmprojPath.isBlank()) {
       Path normalizedMmproj = Paths.get(mmprojPath).toAbsolutePath();
@@ -87,31 +603,64 @@ public class LlamaRunner {
     builder.redirectErrorStream(true);
 
     try {
-      this.llamaProcess = builder.start();
-      resetHeartbeat();
-      waitForLlamaReadiness(this.llamaProcess);
+      Process process = builder.start();
+      logPump.attach(process, port);
+      return process;
     } catch (IOException e) {
       throw new IOException("Failed to launch Llama server: " + e.getMessage());
     }
   }
 
-  private void waitForLlamaReadiness(Process process) throws IOException {
-    try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
-      String line;
-      while ((line = reader.readLine()) != null) {
-        System.out.println("[Llama]: " + line);
-        if (line.contains("server is listening on")) {
-          System.out.println("Llama Server ready on port " + SERVER_PORT);
-          return;
+  void awaitReady(Process process, String port) throws IOException {
+    long launchedAt = System.nanoTime();
+    try {
+      waitForLlamaReadiness(process, port);
+    } catch (IOException e) {
+      metrics.recordLlamaStartup(System.nanoTime() - launchedAt, false);
+      throw new IOException("Failed to launch Llama server: " + e.getMessage());
+    }
+    metrics.recordLlamaStartup(System.nanoTime() - launchedAt, true);
+  }
+
+  /**
+   * Polls llama-server's /health endpoint until it reports ready. The output is
+   * drained by {@link LlamaLogPump} for the whole life of the process, so this
+   * only watches the pump's verdict on a failed load.
+   */
+  private void waitForLlamaReadiness(Process process, String port) throws IOException {
+    URI health = URI.create(chatUpstream.urlForPort(port) + "/health");
+    long deadline = System.currentTimeMillis() + readinessTimeoutMs;
+
+    try {
+      while (System.currentTimeMillis() < deadline) {
+        if (!process.isAlive()) {
+          throw new IOException("Process died with exit code: " + process.exitValue());
         }
-        if (line.contains("error: failed to load model")) {
-          stopLlama(null);
+        if (logPump.hasFailedToLoad(process)) {
+          process.destroyForcibly();
           throw new IOException("Model failed to load.");
         }
-        if (!process.isAlive()) {
-          throw new IOException("Process died with exit code: " + process.exitValue());
+        try {
+          HttpResponse<Void> response = healthClient.send(
+              HttpRequest.newBuilder(health).timeout(Duration.ofSeconds(2)).GET().build(),
+              HttpResponse.BodyHandlers.discarding());
+          // 503 means the server is up but still loading the model
+          if (response.statusCode() == 200) {
+            System.out.println("Llama Server ready on port " + port);
+            return;
+          }
+        } catch (IOException e) {
+          // Not accepting connections yet
         }
+        Thread.sleep(250);
       }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      process.destroyForcibly();
+      throw new IOException("Interrupted while waiting for the server.");
     }
+
+    process.destroyForcibly();
+    throw new IOException("Server did not become healthy within " + (readinessTimeoutMs / 1000) + "s.");
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,73 @@
+package com.example.backend.llama;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of GGUF header metadata. Entries are keyed by absolute path
+ * and reused as long as the file's size and modification time are unchanged,
+ * so repeated listings never reopen the model files.
+ */
+@ApplicationScoped
+public class ModelCatalog {
+
+  private static final Path INDEX_PATH = Paths.get("downloads", ".gguf-index.json");
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  private Map<String, GgufMetadata> index;
+
+  public GgufMetadata describe(Path file) throws IOException {
+    Map<String, GgufMetadata> entries = entries();
+    String key = file.toAbsolutePath().normalize().toString();
+    long size = Files.size(file);
+    long modified = Files.getLastModifiedTime(file).toMillis();
+
+    GgufMetadata cached = entries.get(key);
+    if (cached != null && cached.fileSize == size && cached.lastModified == modified)
+      return cached;
+
+    GgufMetadata metadata = GgufReader.read(file);
+    entries.put(key, metadata);
+    save();
+    return metadata;
+  }
+
+  private synchronized Map<String, GgufMetadata> entries() {
+    if (index == null) {
+      index = new ConcurrentHashMap<>();
+      if (Files.exists(INDEX_PATH)) {
+        try {
+          index.putAll(objectMapper.readValue(INDEX_PATH.toFile(), new TypeReference<Map<String, GgufMetadata>>() {
+          }));
+        } catch (IOException e) {
+          System.err.println("Ignoring unreadable model index: " + e.getMessage());
+        }
+      }
+    }
+    return index;
+  }
+
+  private synchronized void save() {
+    try {
+      Files.createDirectories(INDEX_PATH.getParent());
+      // Drop entries whose files are gone so the index doesn't grow forever
+      index.keySet().removeIf(path -> !Files.exists(Paths.get(path)));
+      Path tmp = INDEX_PATH.resolveSibling(INDEX_PATH.getFileName() + ".tmp");
+      objectMapper.writeValue(tmp.toFile(), index);
+      Files.move(tmp, INDEX_PATH, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    } catch (IOException e) {
+      System.err.println("Could not persist model index: " + e.getMessage());
+    }
+  }
+}
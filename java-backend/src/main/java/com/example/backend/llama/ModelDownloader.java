@@ -1,84 +1,425 @@
 package com.example.backend.llama;
 
+import com.example.backend.metrics.BackendMetrics;
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.StartupEvent;
 import io.smallrye.mutiny.Uni;
 import io.smallrye.mutiny.infrastructure.Infrastructure;
 import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.io.RandomAccessFile;
 import java.net.URI;
 import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
 @ApplicationScoped
 public class ModelDownloader {
 
+  private static final String USER_AGENT = "Mozilla/5.0 (LlamaLocalDownloader/1.0)";
+  private static final int BUFFER_SIZE = 1 << 20;
+  private static final long MIN_SEGMENT_SIZE = 16L << 20;
+  private static final long CHECKPOINT_BYTES = 64L << 20;
+  private static final int MAX_ATTEMPTS = 3;
+
+  /** Persisted next to the .part file so an interrupted download can resume. */
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class DownloadState {
+    public String repo;
+    public String fileName;
+    public String url;
+    public long size;
+    public String sha256;
+    public List<Segment> segments = new ArrayList<>();
+  }
+
+  @JsonIgnoreProperties(ignoreUnknown = true)
+  public static class Segment {
+    public long start;
+    // Inclusive, as in an HTTP Range header
+    public long end;
+    // Where the segment resumes: everything before it is known to be on disk
+    public long position;
+    // Advanced by the segment's worker as it writes; may be ahead of what is on disk
+    @JsonIgnore
+    volatile long written;
+
+    @JsonIgnore
+    public boolean isDone() {
+      return written > end;
+    }
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @Inject
+  BackendMetrics metrics;
+
+  @ConfigProperty(name = "downloads.base-url", defaultValue = "https://huggingface.co")
+  String baseUrl;
+
+  @ConfigProperty(name = "downloads.segments", defaultValue = "4")
+  int segmentCount;
+
   private final Map<String, Integer> downloadProgress = new ConcurrentHashMap<>();
+  private final Set<String> activeDownloads = ConcurrentHashMap.newKeySet();
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .followRedirects(HttpClient.Redirect.ALWAYS)
+      .build();
 
   public int getProgress(String fileName) {
     return downloadProgress.getOrDefault(fileName, 0);
   }
 
+  void resumePendingDownloads(@Observes StartupEvent ev) {
+    Path downloads = Paths.get("downloads");
+    if (!Files.isDirectory(downloads))
+      return;
+    try (var stream = Files.list(downloads)) {
+      stream.filter(path -> path.getFileName().toString().endsWith(".part.json"))
+          .forEach(path -> {
+            try {
+              DownloadState state = objectMapper.readValue(path.toFile(), DownloadState.class);
+              System.out.println("Resuming interrupted download: " + state.fileName);
+              downloadGguf(state.repo, state.fileName, "downloads", state.sha256);
+            } catch (IOException e) {
+              System.err.println("Unreadable download state " + path + ": " + e.getMessage());
+            }
+          });
+    } catch (IOException e) {
+      System.err.println("Could not scan for interrupted downloads: " + e.getMessage());
+    }
+  }
+
   public void downloadGguf(String repo, String fileName, String targetFolder) {
+    downloadGguf(repo, fileName, targetFolder, null);
+  }
+
+  public void downloadGguf(String repo, String fileName, String targetFolder, String expectedSha256) {
+    if (!activeDownloads.add(fileName)) {
+      System.out.println("Download already in progress: " + fileName);
+      return;
+    }
+
     Uni.createFrom().item(() -> {
-      performDownload(repo, fileName, targetFolder);
+      try {
+        performDownload(repo, fileName, targetFolder, expectedSha256);
+      } finally {
+        activeDownloads.remove(fileName);
+      }
       return null;
     })
         .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
         .subscribe().with(
-            item -> System.out.println("Download started for: " + fileName),
+            item -> System.out.println("Download finished for: " + fileName),
             failure -> System.err.println("Critical failure: " + failure.getMessage()));
   }
 
-  private void performDownload(String repo, String fileName, String targetFolder) {
-    String url = String.format("https://huggingface.co/%s/resolve/main/%s", repo, fileName);
+  void performDownload(String repo, String fileName, String targetFolder, String expectedSha256) {
+    String url = String.format("%s/%s/resolve/main/%s", baseUrl, repo, fileName);
 
     try {
       Path targetPath = Paths.get(targetFolder, fileName);
+      Path partPath = Paths.get(targetFolder, fileName + ".part");
+      Path statePath = Paths.get(targetFolder, fileName + ".part.json");
       Files.createDirectories(targetPath.getParent());
 
-      HttpClient client = HttpClient.newBuilder()
-          .followRedirects(HttpClient.Redirect.ALWAYS)
-          .build();
+      HttpResponse<Void> head = client.send(baseRequest(url).method("HEAD", HttpRequest.BodyPublishers.noBody()).build(),
+          HttpResponse.BodyHandlers.discarding());
 
-      HttpRequest request = HttpRequest.newBuilder()
-          .uri(URI.create(url))
-          .header("User-Agent", "Mozilla/5.0 (LlamaLocalDownloader/1.0)")
-          .build();
+      if (head.statusCode() != 200) {
+        downloadProgress.put(fileName, -head.statusCode());
+        return;
+      }
 
-      HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+      long fileSize = head.headers().firstValueAsLong("content-length").orElse(-1L);
+      boolean rangesSupported = head.headers().firstValue("accept-ranges")
+          .map(value -> value.toLowerCase(Locale.ROOT).contains("bytes")).orElse(false);
+      String sha256 = expectedSha256 != null ? expectedSha256 : linkedSha256(head).orElse(null);
 
-      if (response.statusCode() != 200) {
-        downloadProgress.put(fileName, -response.statusCode());
-        return;
+      DownloadState state = Files.exists(partPath) ? loadState(statePath, url, fileSize) : null;
+      if (state == null) {
+        state = new DownloadState();
+        state.repo = repo;
+        state.fileName = fileName;
+        state.url = url;
+        state.size = fileSize;
+        state.sha256 = sha256;
+        state.segments = planSegments(fileSize, rangesSupported);
+        Files.deleteIfExists(partPath);
       }
 
-      long fileSize = response.headers().firstValueAsLong("content-length").orElse(-1L);
+      long startedAt = System.nanoTime();
+      long alreadyDone = 0;
+      for (Segment segment : state.segments) {
+        segment.written = segment.position;
+        alreadyDone += segment.position - segment.start;
+      }
 
-      try (InputStream is = response.body();
-          OutputStream os = Files.newOutputStream(targetPath)) {
+      long received;
+      if (fileSize > 0 && rangesSupported) {
+        try (RandomAccessFile raf = new RandomAccessFile(partPath.toFile(), "rw")) {
+          // Preallocate so every segment can write at its own offset
+          raf.setLength(fileSize);
+        }
+        saveState(statePath, state);
+        downloadSegments(state, partPath, statePath);
+        // The preallocated file always has the right length; the segments tell whether it was filled
+        received = 0;
+        for (Segment segment : state.segments) {
+          if (segment.position != segment.end + 1)
+            throw new IOException("Segment " + segment.start + "-" + segment.end + " stopped at " + segment.position);
+          received += segment.end + 1 - segment.start;
+        }
+      } else {
+        received = downloadSingleStream(url, fileName, fileSize, partPath);
+      }
 
-        byte[] buffer = new byte[8192];
-        long totalRead = 0;
-        int read;
+      metrics.recordDownload(received - alreadyDone, System.nanoTime() - startedAt);
 
-        while ((read = is.read(buffer)) != -1) {
-          os.write(buffer, 0, read);
-          totalRead += read;
-          if (fileSize > 0) {
-            int progress = (int) ((totalRead * 100) / fileSize);
-            downloadProgress.put(fileName, progress);
-          }
+      if (fileSize > 0 && received != fileSize) {
+        throw new IOException("Size mismatch: expected " + fileSize + " bytes, got " + received);
+      }
+      if (state.sha256 != null) {
+        String actual = sha256Of(partPath);
+        if (!actual.equalsIgnoreCase(state.sha256)) {
+          Files.deleteIfExists(partPath);
+          Files.deleteIfExists(statePath);
+          throw new IOException("Checksum mismatch: expected " + state.sha256 + ", got " + actual);
         }
       }
+
+      Files.move(partPath, targetPath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+      Files.deleteIfExists(statePath);
       downloadProgress.put(fileName, 100);
     } catch (Exception e) {
+      System.err.println("Download of " + fileName + " failed: " + e.getMessage());
       downloadProgress.put(fileName, -500);
     }
   }
-}
\ No newline at end of file
+
+  private List<Segment> planSegments(long fileSize, boolean rangesSupported) {
+    List<Segment> segments = new ArrayList<>();
+    if (fileSize <= 0 || !rangesSupported)
+      return segments;
+
+    int count = (int) Math.max(1, Math.min(Math.max(1, segmentCount), fileSize / MIN_SEGMENT_SIZE));
+    long segmentSize = fileSize / count;
+    for (int i = 0; i < count; i++) {
+      Segment segment = new Segment();
+      segment.start = i * segmentSize;
+      segment.end = (i == count - 1) ? fileSize - 1 : (i + 1) * segmentSize - 1;
+      segment.position = segment.start;
+      segment.written = segment.start;
+      segments.add(segment);
+    }
+    return segments;
+  }
+
+  private void downloadSegments(DownloadState state, Path partPath, Path statePath) throws Exception {
+    AtomicLong completed = new AtomicLong();
+    for (Segment segment : state.segments)
+      completed.addAndGet(segment.position - segment.start);
+
+    ExecutorService pool = Executors.newFixedThreadPool(state.segments.size());
+    // Workers are asked to stop rather than interrupted, which would close the shared channel
+    AtomicBoolean stopped = new AtomicBoolean();
+    try (FileChannel channel = FileChannel.open(partPath, StandardOpenOption.WRITE)) {
+      try {
+        List<Future<?>> futures = new ArrayList<>();
+        for (Segment segment : state.segments) {
+          if (segment.isDone())
+            continue;
+          futures.add(pool.submit(() -> {
+            downloadSegment(state, segment, channel, statePath, completed, stopped);
+            return null;
+          }));
+        }
+        for (Future<?> future : futures)
+          future.get();
+      } finally {
+        stopped.set(true);
+        pool.shutdown();
+        pool.awaitTermination(30, TimeUnit.SECONDS);
+        checkpoint(state, channel, statePath);
+      }
+    }
+  }
+
+  /**
+   * Forces the file to disk and saves every segment's position as of just
+   * before the force, so the state never claims bytes the disk may not have.
+   */
+  private synchronized void checkpoint(DownloadState state, FileChannel channel, Path statePath) throws IOException {
+    long[] written = new long[state.segments.size()];
+    for (int i = 0; i < written.length; i++)
+      written[i] = state.segments.get(i).written;
+    channel.force(false);
+    for (int i = 0; i < written.length; i++)
+      state.segments.get(i).position = written[i];
+    saveState(statePath, state);
+  }
+
+  private void downloadSegment(DownloadState state, Segment segment, FileChannel channel, Path statePath,
+      AtomicLong completed, AtomicBoolean stopped) throws Exception {
+    // Attempts are counted from the last one that made progress, so only a stalled segment gives up
+    for (int attempt = 1; !segment.isDone() && !stopped.get(); attempt++) {
+      long attemptStart = segment.written;
+      try {
+        HttpRequest request = baseRequest(state.url)
+            .header("Range", "bytes=" + segment.written + "-" + segment.end)
+            .build();
+        HttpResponse<InputStream> response = client.send(request, HttpResponse.BodyHandlers.ofInputStream());
+        if (response.statusCode() != 206) {
+          response.body().close();
+          throw new IOException("Range request returned HTTP " + response.statusCode());
+        }
+
+        try (InputStream is = response.body()) {
+          byte[] buffer = new byte[BUFFER_SIZE];
+          long sinceCheckpoint = 0;
+          int read;
+          while (!segment.isDone() && !stopped.get()
+              && (read = is.read(buffer, 0, (int) Math.min(buffer.length, segment.end - segment.written + 1))) != -1) {
+            ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+            long position = segment.written;
+            while (chunk.hasRemaining())
+              position += channel.write(chunk, position);
+            segment.written = position;
+            sinceCheckpoint += read;
+            metrics.recordDownloadedBytes(read);
+
+            long total = completed.addAndGet(read);
+            downloadProgress.put(state.fileName, (int) Math.min(99, (total * 100) / state.size));
+
+            if (sinceCheckpoint >= CHECKPOINT_BYTES) {
+              checkpoint(state, channel, statePath);
+              sinceCheckpoint = 0;
+            }
+          }
+        }
+        if (!segment.isDone() && !stopped.get())
+          throw new IOException("Response ended at byte " + segment.written + " of " + segment.end);
+      } catch (IOException e) {
+        boolean progressed = segment.written > attemptStart;
+        if (!progressed && attempt >= MAX_ATTEMPTS)
+          throw e;
+        System.err.println("Segment " + segment.start + "-" + segment.end + " failed (attempt " + attempt + "): "
+            + e.getMessage());
+        if (progressed)
+          attempt = 0;
+      }
+    }
+  }
+
+  /** Returns the number of bytes received. */
+  private long downloadSingleStream(String url, String fileName, long fileSize, Path partPath) throws Exception {
+    HttpResponse<InputStream> response = client.send(baseRequest(url).build(),
+        HttpResponse.BodyHandlers.ofInputStream());
+    if (response.statusCode() != 200) {
+      response.body().close();
+      throw new IOException("Download returned HTTP " + response.statusCode());
+    }
+
+    try (InputStream is = response.body();
+        FileChannel channel = FileChannel.open(partPath, StandardOpenOption.CREATE,
+            StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      byte[] buffer = new byte[BUFFER_SIZE];
+      long totalRead = 0;
+      int read;
+      while ((read = is.read(buffer)) != -1) {
+        ByteBuffer chunk = ByteBuffer.wrap(buffer, 0, read);
+        while (chunk.hasRemaining())
+          channel.write(chunk);
+        totalRead += read;
+        metrics.recordDownloadedBytes(read);
+        if (fileSize > 0) {
+          downloadProgress.put(fileName, (int) Math.min(99, (totalRead * 100) / fileSize));
+        }
+      }
+      return totalRead;
+    }
+  }
+
+  private HttpRequest.Builder baseRequest(String url) {
+    return HttpRequest.newBuilder()
+        .uri(URI.create(url))
+        .header("User-Agent", USER_AGENT);
+  }
+
+  // Hugging Face reports the SHA-256 of LFS files as X-Linked-Etag on the
+  // redirect response, before the CDN hop
+  private Optional<String> linkedSha256(HttpResponse<?> response) {
+    for (HttpResponse<?> hop = response; hop != null; hop = hop.previousResponse().orElse(null)) {
+      Optional<String> etag = hop.headers().firstValue("x-linked-etag")
+          .map(value -> value.replace("\"", "").trim())
+          .filter(value -> value.matches("[0-9a-fA-F]{64}"));
+      if (etag.isPresent())
+        return etag;
+    }
+    return Optional.empty();
+  }
+
+  private DownloadState loadState(Path statePath, String url, long fileSize) {
+    if (!Files.exists(statePath))
+      return null;
+    try {
+      DownloadState state = objectMapper.readValue(statePath.toFile(), DownloadState.class);
+      if (url.equals(state.url) && state.size == fileSize && !state.segments.isEmpty())
+        return state;
+      System.out.println("Discarding stale download state for " + state.fileName);
+    } catch (IOException e) {
+      System.err.println("Unreadable download state " + statePath + ": " + e.getMessage());
+    }
+    return null;
+  }
+
+  private synchronized void saveState(Path statePath, DownloadState state) throws IOException {
+    Path tmp = statePath.resolveSibling(statePath.getFileName() + ".tmp");
+    objectMapper.writeValue(tmp.toFile(), state);
+    Files.move(tmp, statePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+  }
+
+  private String sha256Of(Path path) throws Exception {
+    MessageDigest digest = MessageDigest.getInstance("SHA-256");
+    try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+      ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+      while (channel.read(buffer) != -1) {
+        buffer.flip();
+        digest.update(buffer);
+        buffer.clear();
+      }
+    }
+    return HexFormat.of().formatHex(digest.digest());
+  }
+}
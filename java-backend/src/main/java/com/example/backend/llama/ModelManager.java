@@ -0,0 +1,437 @@
+package com.example.backend.llama;
+
+import com.example.backend.chat.ChatUpstream;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Hosts models besides the one {@link LlamaRunner} serves, each in its own
+ * llama-server on a port of its own, so a chat request can name any
+ * downloaded model in its {@code model} field. Models are started on demand
+ * and kept while they fit a memory budget, estimated from the GGUF file
+ * sizes; the least recently used idle one makes room for the next. The
+ * primary model counts against the budget but is never evicted here; it has
+ * its own idle unload.
+ */
+@ApplicationScoped
+public class ModelManager {
+
+  private static class Hosted {
+    final Path path;
+    final String port;
+    final long sizeBytes;
+    final Process process;
+    final ChatUpstream.Target target;
+    final long loadedAt = System.currentTimeMillis();
+    final long loadMillis;
+
+    Hosted(Path path, String port, long sizeBytes, Process process, ChatUpstream.Target target, long loadMillis) {
+      this.path = path;
+      this.port = port;
+      this.sizeBytes = sizeBytes;
+      this.process = process;
+      this.target = target;
+      this.loadMillis = loadMillis;
+    }
+  }
+
+  /** Bytes all resident models may take together; 0 means 80% of physical memory. */
+  @ConfigProperty(name = "llama.models.memory-budget-mb", defaultValue = "0")
+  long memoryBudgetMb;
+
+  @ConfigProperty(name = "llama.models.base-port", defaultValue = "8100")
+  int basePort;
+
+  /** Models hosted next to the primary, each taking the next port from the base port. */
+  @ConfigProperty(name = "llama.models.max-resident", defaultValue = "3")
+  int maxResident;
+
+  @ConfigProperty(name = "llama.models.context-size", defaultValue = "4096")
+  String contextSize;
+
+  @ConfigProperty(name = "vite.app.llama.server.slots", defaultValue = "1")
+  int slots;
+
+  @Inject
+  LlamaRunner llamaRunner;
+
+  @Inject
+  ChatUpstream chatUpstream;
+
+  /** A model whose server is starting; its slot, port and memory are taken until it is ready. */
+  private static class Loading {
+    final Path path;
+    final String port;
+    final long sizeBytes;
+    final CompletableFuture<Hosted> ready = new CompletableFuture<>();
+    Process process;
+
+    Loading(Path path, String port, long sizeBytes) {
+      this.path = path;
+      this.port = port;
+      this.sizeBytes = sizeBytes;
+    }
+  }
+
+  private final Map<Path, Hosted> hosted = new LinkedHashMap<>();
+  private final Map<Path, Loading> loading = new HashMap<>();
+  /** Unloaded servers that may not have exited yet, by port. */
+  private final Map<String, Hosted> stopping = new HashMap<>();
+
+  /**
+   * Resolves a request's {@code model} to a downloaded GGUF file other than
+   * the primary's, starting it if needed, and returns a lease on its server.
+   * Returns null for the primary model, which is started again here if it
+   * was unloaded; names that match no downloaded file go there too, so
+   * clients that send any model name keep working. The lock is held to pick
+   * a slot and port, not while a server loads or exits, so requests for
+   * other models and status calls go through meanwhile; requests for a
+   * model that is loading wait for the same load.
+   */
+  public ChatUpstream.Lease route(Object model, Consumer<String> onLoading) throws IOException {
+    Path path = resolve(model);
+    if (path == null || path.equals(primaryPath())) {
+      if (!llamaRunner.isRunning() && llamaRunner.isSuspended())
+        prepareForPrimary(llamaRunner.getDefaultModelPath());
+      llamaRunner.ensureRunning(onLoading);
+      return null;
+    }
+    if (llamaRunner.isCalibrating())
+      throw new IllegalStateException("Launch profile calibration is running.");
+
+    boolean told = false;
+    while (true) {
+      Loading pending;
+      boolean launch = false;
+      List<Hosted> unloaded = new ArrayList<>();
+      try {
+        synchronized (this) {
+          Hosted resident = hosted.get(path);
+          if (resident != null && resident.process.isAlive())
+            return chatUpstream.acquire(resident.target);
+          if (resident != null)
+            unloaded.add(detach(resident, "its process exited"));
+
+          pending = loading.get(path);
+          if (pending == null) {
+            long size = sizeOf(path);
+            makeRoom(size, false, path, unloaded);
+            pending = new Loading(path, freePort(), size);
+            loading.put(path, pending);
+            launch = true;
+            // The port may still be held by a server that is shutting down
+            Hosted previous = stopping.get(pending.port);
+            if (previous != null)
+              unloaded.add(previous);
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        stop(unloaded);
+        throw e;
+      }
+
+      if (!told) {
+        onLoading.accept("Loading " + path.getFileName() + "...");
+        told = true;
+      }
+      stop(unloaded);
+      if (launch)
+        return load(pending);
+      // Check again under the lock, in case the model was unloaded right after it loaded
+      awaitLoad(pending);
+    }
+  }
+
+  /**
+   * Starts the server {@code pending} reserved and waits for it to load
+   * outside the lock, then makes it resident and returns a lease on it.
+   */
+  private ChatUpstream.Lease load(Loading pending) throws IOException {
+    IOException failure = null;
+    Hosted model = null;
+    try {
+      Process process = llamaRunner.spawnOnPort(pending.path.toString(), contextSize, pending.port);
+      synchronized (this) {
+        pending.process = process;
+      }
+      long launchedAt = System.currentTimeMillis();
+      llamaRunner.awaitReady(process, pending.port);
+      long loadMillis = System.currentTimeMillis() - launchedAt;
+      // The port may have served an evicted model whose connections are still pooled
+      chatUpstream.dropConnections();
+      ChatUpstream.Target target = chatUpstream.addHosted(chatUpstream.urlForPort(pending.port), Math.max(1, slots));
+      model = new Hosted(pending.path, pending.port, pending.sizeBytes, process, target, loadMillis);
+    } catch (IOException e) {
+      failure = e;
+    }
+
+    ChatUpstream.Lease lease = null;
+    synchronized (this) {
+      boolean stopped = loading.get(pending.path) != pending;
+      if (!stopped)
+        loading.remove(pending.path);
+      if (stopped)
+        failure = new IOException(pending.path.getFileName() + " was unloaded while loading.");
+      if (failure == null) {
+        hosted.put(pending.path, model);
+        lease = chatUpstream.acquire(model.target);
+      }
+    }
+    if (failure != null) {
+      if (model != null) {
+        chatUpstream.removeHosted(model.target);
+        stop(List.of(model));
+      } else if (pending.process != null) {
+        pending.process.destroyForcibly();
+      }
+      pending.ready.completeExceptionally(failure);
+      throw failure;
+    }
+    System.out.println("Hosting " + model.path.getFileName() + " on port " + model.port
+        + ", loaded in " + model.loadMillis + " ms");
+    pending.ready.complete(model);
+    return lease;
+  }
+
+  private static void awaitLoad(Loading pending) throws IOException {
+    try {
+      pending.ready.get();
+    } catch (ExecutionException e) {
+      throw e.getCause() instanceof IOException cause ? cause : new IOException(e.getCause().getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for the model to load.");
+    }
+  }
+
+  /**
+   * Makes room in the budget for {@code modelPath} to become the primary
+   * model, evicting idle hosted models. A hosted copy of the same file is
+   * stopped rather than kept as a second copy of the weights; if it is
+   * serving a request or still loading, the start is refused.
+   */
+  public void prepareForPrimary(String modelPath) throws IOException {
+    Path path = Paths.get(modelPath).toAbsolutePath().normalize();
+    List<Hosted> unloaded = new ArrayList<>();
+    try {
+      synchronized (this) {
+        Hosted copy = hosted.get(path);
+        if (copy != null && copy.target.getInFlight() > 0 || loading.containsKey(path))
+          throw new IllegalStateException(path.getFileName()
+              + " is in use on a server of its own; try again when it is idle.");
+        if (copy != null)
+          unloaded.add(detach(copy, "it becomes the primary model"));
+        makeRoom(sizeOf(path), true, path, unloaded);
+      }
+    } finally {
+      stop(unloaded);
+    }
+  }
+
+  public synchronized List<Map<String, Object>> getResident() {
+    long now = System.currentTimeMillis();
+    List<Map<String, Object>> models = new ArrayList<>();
+    Path primary = primaryPath();
+    if (primary != null && llamaRunner.isRunning()) {
+      ChatUpstream.Target target = chatUpstream.current();
+      Map<String, Object> entry = new HashMap<>();
+      entry.put("model", primary.getFileName().toString());
+      entry.put("primary", true);
+      entry.put("port", llamaRunner.getActivePort());
+      entry.put("sizeBytes", sizeOf(primary));
+      entry.put("inFlight", target.getInFlight());
+      entry.put("idleSeconds", target.getInFlight() > 0 ? 0 : (now - target.getLastUsed()) / 1000);
+      models.add(entry);
+    }
+    for (Hosted model : hosted.values()) {
+      Map<String, Object> entry = new HashMap<>();
+      entry.put("model", model.path.getFileName().toString());
+      entry.put("primary", false);
+      entry.put("port", model.port);
+      entry.put("sizeBytes", model.sizeBytes);
+      entry.put("inFlight", model.target.getInFlight());
+      entry.put("requests", model.target.getRequests());
+      entry.put("loadedAt", model.loadedAt);
+      entry.put("loadMillis", model.loadMillis);
+      entry.put("idleSeconds", idleMillis(model, now) / 1000);
+      models.add(entry);
+    }
+    for (Loading model : loading.values()) {
+      Map<String, Object> entry = new HashMap<>();
+      entry.put("model", model.path.getFileName().toString());
+      entry.put("primary", false);
+      entry.put("port", model.port);
+      entry.put("sizeBytes", model.sizeBytes);
+      entry.put("loading", true);
+      models.add(entry);
+    }
+    return models;
+  }
+
+  public Map<String, Object> getBudget() {
+    return Map.of("budgetBytes", budgetBytes(), "usedBytes", usedBytes(), "maxResident", maxResident);
+  }
+
+  /** Hosted models go the same way as the primary once idle for the lifecycle's idle period. */
+  @Scheduled(every = "30s")
+  void unloadIdle() {
+    long idleUnloadMs = llamaRunner.getIdleUnloadSeconds() * 1000;
+    if (idleUnloadMs <= 0)
+      return;
+    List<Hosted> unloaded = new ArrayList<>();
+    synchronized (this) {
+      long now = System.currentTimeMillis();
+      for (Hosted model : List.copyOf(hosted.values())) {
+        if (idleMillis(model, now) > idleUnloadMs)
+          unloaded.add(detach(model, "idle for " + idleMillis(model, now) / 1000 + "s"));
+      }
+    }
+    stop(unloaded);
+  }
+
+  public void stopAll(@Observes ShutdownEvent ev) {
+    String reason = ev != null ? "the backend is shutting down" : "the server was stopped";
+    List<Hosted> unloaded = new ArrayList<>();
+    List<Process> starting = new ArrayList<>();
+    synchronized (this) {
+      for (Hosted model : List.copyOf(hosted.values()))
+        unloaded.add(detach(model, reason));
+      // Their loads fail once they find their reservation gone
+      for (Loading model : loading.values()) {
+        if (model.process != null)
+          starting.add(model.process);
+      }
+      loading.clear();
+    }
+    starting.forEach(Process::destroyForcibly);
+    stop(unloaded);
+  }
+
+  /**
+   * Evicts least recently used idle hosted models into {@code unloaded} until
+   * {@code size} more bytes fit the budget. A new primary replaces the
+   * current one rather than adding to it, and takes no hosted slot.
+   */
+  private void makeRoom(long size, boolean primary, Path forModel, List<Hosted> unloaded) throws IOException {
+    long budget = budgetBytes();
+    long base = primary ? 0 : primarySize();
+    if (size + base > budget)
+      throw new IOException(String.format("%s needs about %.1f GB, more than the %.1f GB model budget allows.",
+          forModel.getFileName(), size / 1e9, (budget - base) / 1e9));
+
+    while (usedBytes() - primarySize() + base + size > budget
+        || !primary && hosted.size() + loading.size() >= maxResident) {
+      Hosted victim = hosted.values().stream()
+          .filter(model -> model.target.getInFlight() == 0)
+          .min(Comparator.comparingLong(model -> model.target.getLastUsed()))
+          .orElseThrow(() -> new IOException("Every resident model is busy; try again when one is idle."));
+      unloaded.add(detach(victim, "making room for " + forModel.getFileName()));
+    }
+  }
+
+  /**
+   * Takes {@code model} out of routing and the budget. Its server is stopped
+   * by {@link #stop}, outside the lock; until it has exited, its port is
+   * listed in {@link #stopping} so the next model on that port waits for it.
+   */
+  private Hosted detach(Hosted model, String reason) {
+    hosted.remove(model.path);
+    chatUpstream.removeHosted(model.target);
+    stopping.put(model.port, model);
+    System.out.println("Unloading " + model.path.getFileName() + ", " + reason + ".");
+    return model;
+  }
+
+  private void stop(List<Hosted> models) {
+    for (Hosted model : models) {
+      model.process.destroy();
+      try {
+        if (!model.process.waitFor(10, TimeUnit.SECONDS))
+          model.process.destroyForcibly().waitFor(5, TimeUnit.SECONDS);
+      } catch (InterruptedException e) {
+        model.process.destroyForcibly();
+        Thread.currentThread().interrupt();
+      }
+      synchronized (this) {
+        stopping.remove(model.port, model);
+      }
+    }
+  }
+
+  private String freePort() {
+    for (int i = 0; i < maxResident; i++) {
+      String port = String.valueOf(basePort + i);
+      if (hosted.values().stream().noneMatch(model -> model.port.equals(port))
+          && loading.values().stream().noneMatch(model -> model.port.equals(port)))
+        return port;
+    }
+    throw new IllegalStateException("No free port for another model.");
+  }
+
+  private static long idleMillis(Hosted model, long now) {
+    return model.target.getInFlight() > 0 ? 0 : now - model.target.getLastUsed();
+  }
+
+  private long budgetBytes() {
+    if (memoryBudgetMb > 0)
+      return memoryBudgetMb * 1024 * 1024;
+    return HardwareInfo.detect().totalMemoryBytes / 5 * 4;
+  }
+
+  private synchronized long usedBytes() {
+    long used = primarySize();
+    for (Hosted model : hosted.values())
+      used += model.sizeBytes;
+    for (Loading model : loading.values())
+      used += model.sizeBytes;
+    return used;
+  }
+
+  private long primarySize() {
+    Path primary = primaryPath();
+    return primary != null && llamaRunner.isRunning() ? sizeOf(primary) : 0;
+  }
+
+  private Path primaryPath() {
+    String path = llamaRunner.getDefaultModelPath();
+    return path != null ? Paths.get(path).toAbsolutePath().normalize() : null;
+  }
+
+  /** Only plain .gguf files in the downloads folder can be named. */
+  private static Path resolve(Object model) {
+    if (!(model instanceof String name) || name.isBlank())
+      return null;
+    Path downloads = Paths.get("downloads").toAbsolutePath().normalize();
+    String fileName = name.endsWith(".gguf") ? name : name + ".gguf";
+    Path path = downloads.resolve(fileName).normalize();
+    if (!path.getParent().equals(downloads) || !Files.isRegularFile(path))
+      return null;
+    return path;
+  }
+
+  private static long sizeOf(Path path) {
+    try {
+      return Files.size(path);
+    } catch (IOException e) {
+      return 0;
+    }
+  }
+}
@@ -0,0 +1,227 @@
+package com.example.backend.llama;
+
+import com.example.backend.chat.ChatResponse;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.smallrye.mutiny.Uni;
+import io.smallrye.mutiny.infrastructure.Infrastructure;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Finds the fastest launch profile for a model by measurement. Starting from
+ * the recommendation, it sweeps the generation thread count and then the
+ * micro-batch size, starting a throwaway llama-server for each candidate and
+ * timing a short synthetic prompt. The winner is saved with
+ * {@link LaunchProfiles} and used for every later launch of that model.
+ */
+@ApplicationScoped
+public class ProfileCalibrator {
+
+  private static final String PROMPT = "Summarise the following notes in one paragraph. "
+      + "The quick brown fox jumps over the lazy dog while the river keeps flowing past the old mill. ".repeat(12);
+
+  @ConfigProperty(name = "llama.calibration.port", defaultValue = "8084")
+  String port;
+
+  @ConfigProperty(name = "llama.calibration.tokens", defaultValue = "64")
+  int tokens;
+
+  @Inject
+  LlamaRunner llamaRunner;
+
+  @Inject
+  LaunchProfiles launchProfiles;
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  private final HttpClient client = HttpClient.newBuilder()
+      .version(HttpClient.Version.HTTP_1_1)
+      .connectTimeout(Duration.ofSeconds(2))
+      .build();
+
+  private final Map<String, Object> status = new ConcurrentHashMap<>(Map.of("state", "idle"));
+
+  public Map<String, Object> getStatus() {
+    return new HashMap<>(status);
+  }
+
+  /** Runs in the background; progress and results are in {@link #getStatus()}. */
+  public void calibrate(String modelPath, String contextSize) {
+    llamaRunner.beginCalibration();
+    status.clear();
+    status.put("state", "running");
+    status.put("modelPath", modelPath);
+    status.put("results", new CopyOnWriteArrayList<Map<String, Object>>());
+    status.put("startedAt", System.currentTimeMillis());
+
+    Uni.createFrom().item(() -> sweep(modelPath, contextSize))
+        .runSubscriptionOn(Infrastructure.getDefaultWorkerPool())
+        .subscribe().with(
+            best -> {
+              llamaRunner.endCalibration();
+              launchProfiles.saveCalibrated(modelPath, best);
+              status.put("state", "done");
+              status.put("best", best);
+              status.put("message", String.format("Fastest profile generates %.1f tokens/s", best.tokensPerSecond));
+              System.out.println("Calibrated " + modelPath + ": " + String.join(" ", best.toArgs()));
+            },
+            failure -> {
+              llamaRunner.endCalibration();
+              status.put("state", "failed");
+              status.put("message", failure.getMessage());
+            });
+  }
+
+  private LaunchProfile sweep(String modelPath, String contextSize) {
+    HardwareInfo hardware = HardwareInfo.detect();
+    LaunchProfile best = launchProfiles.recommend(modelPath, contextSize);
+    best.tokensPerSecond = -1.0;
+
+    Set<Integer> threadCounts = new LinkedHashSet<>(List.of(
+        hardware.physicalCores, Math.max(1, hardware.physicalCores / 2), hardware.logicalCores));
+    for (int threads : threadCounts) {
+      LaunchProfile candidate = best.copy();
+      candidate.threads = threads;
+      best = faster(best, measure(modelPath, contextSize, candidate));
+    }
+
+    int batch = best.batchSize != null ? best.batchSize : 2048;
+    for (int ubatch : Stream.of(128, 256, 512).filter(size -> size <= batch).toList()) {
+      if (Integer.valueOf(ubatch).equals(best.ubatchSize))
+        continue;
+      LaunchProfile candidate = best.copy();
+      candidate.ubatchSize = ubatch;
+      best = faster(best, measure(modelPath, contextSize, candidate));
+    }
+
+    if (best.tokensPerSecond == null || best.tokensPerSecond <= 0)
+      throw new IllegalStateException("No candidate profile produced tokens.");
+    // Keep only what was swept; the rest depends on the context size and free memory at launch
+    LaunchProfile calibrated = new LaunchProfile();
+    calibrated.threads = best.threads;
+    calibrated.ubatchSize = best.ubatchSize;
+    calibrated.tokensPerSecond = best.tokensPerSecond;
+    calibrated.promptTokensPerSecond = best.promptTokensPerSecond;
+    calibrated.calibratedAt = System.currentTimeMillis();
+    return calibrated;
+  }
+
+  private static LaunchProfile faster(LaunchProfile best, LaunchProfile candidate) {
+    return candidate.tokensPerSecond > best.tokensPerSecond ? candidate : best;
+  }
+
+  @SuppressWarnings("unchecked")
+  private LaunchProfile measure(String modelPath, String contextSize, LaunchProfile candidate) {
+    status.put("message", "Trying " + String.join(" ", candidate.toArgs()));
+    Map<String, Object> result = new HashMap<>();
+    result.put("args", candidate.toArgs());
+    candidate.tokensPerSecond = -1.0;
+
+    Process process = null;
+    try {
+      process = llamaRunner.launchWithProfile(modelPath, contextSize, port, candidate);
+      // The first request warms up caches and pages the weights in
+      complete(Math.min(8, tokens));
+      ChatResponse.Timings timings = complete(tokens);
+      Double generation = perSecond(timings.predicted_n, timings.predicted_ms);
+      candidate.tokensPerSecond = generation != null ? generation : -1.0;
+      candidate.promptTokensPerSecond = perSecond(timings.prompt_n, timings.prompt_ms);
+      result.put("tokensPerSecond", candidate.tokensPerSecond);
+      result.put("promptTokensPerSecond", candidate.promptTokensPerSecond);
+    } catch (IOException e) {
+      result.put("error", e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      result.put("error", "Interrupted");
+    } finally {
+      if (process != null)
+        stop(process);
+    }
+    ((List<Map<String, Object>>) status.get("results")).add(result);
+    return candidate;
+  }
+
+  /**
+   * Sends the synthetic prompt and returns llama-server's timings for it.
+   * Servers that don't report timings are measured by the wall clock.
+   */
+  private ChatResponse.Timings complete(int maxTokens) throws IOException, InterruptedException {
+    Map<String, Object> body = Map.of(
+        "messages", List.of(Map.of("role", "user", "content", PROMPT)),
+        "max_tokens", maxTokens,
+        "temperature", 0,
+        "cache_prompt", false,
+        "stream", true);
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/v1/chat/completions"))
+        .timeout(Duration.ofMinutes(5))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+        .build();
+
+    long start = System.nanoTime();
+    long firstToken = 0;
+    int chunks = 0;
+    ChatResponse.Timings timings = null;
+    HttpResponse<Stream<String>> response = client.send(request, HttpResponse.BodyHandlers.ofLines());
+    if (response.statusCode() != 200)
+      throw new IOException("Calibration request failed with HTTP " + response.statusCode());
+    try (Stream<String> lines = response.body()) {
+      for (String line : (Iterable<String>) lines::iterator) {
+        if (!line.startsWith("data: ") || line.equals("data: [DONE]"))
+          continue;
+        ChatResponse chunk = objectMapper.readValue(line.substring(6), ChatResponse.class);
+        if (chunk.timings != null)
+          timings = chunk.timings;
+        if (chunk.choices != null && !chunk.choices.isEmpty() && chunk.choices.get(0).delta != null
+            && chunk.choices.get(0).delta.content != null) {
+          if (firstToken == 0)
+            firstToken = System.nanoTime();
+          chunks++;
+        }
+      }
+    }
+    if (timings != null && timings.predicted_n != null && timings.predicted_ms != null)
+      return timings;
+
+    ChatResponse.Timings measured = new ChatResponse.Timings();
+    long end = System.nanoTime();
+    measured.predicted_n = Math.max(0, chunks - 1);
+    measured.predicted_ms = firstToken > 0 ? (end - firstToken) / 1e6 : null;
+    measured.prompt_ms = firstToken > 0 ? (firstToken - start) / 1e6 : null;
+    return measured;
+  }
+
+  private static Double perSecond(Integer count, Double ms) {
+    if (count == null || ms == null || ms <= 0)
+      return null;
+    return count * 1000.0 / ms;
+  }
+
+  private static void stop(Process process) {
+    process.destroy();
+    try {
+      if (!process.waitFor(10, TimeUnit.SECONDS))
+        process.destroyForcibly();
+    } catch (InterruptedException e) {
+      process.destroyForcibly();
+      Thread.currentThread().interrupt();
+    }
+  }
+}
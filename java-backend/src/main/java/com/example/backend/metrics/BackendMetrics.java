@@ -0,0 +1,184 @@
+package com.example.backend.metrics;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Latency and throughput meters for the chat pipeline, the tools and model
+ * management. Everything is published in Prometheus format on /q/metrics;
+ * latencies and rates are histograms so percentiles can be computed.
+ */
+@ApplicationScoped
+public class BackendMetrics {
+
+  @Inject
+  MeterRegistry registry;
+
+  private final AtomicInteger activeStreams = new AtomicInteger();
+  private final AtomicInteger queuedRequests = new AtomicInteger();
+
+  private Timer timeToFirstToken;
+  private Timer upstreamCompletion;
+  private Timer admissionWait;
+  private Timer inference;
+  private DistributionSummary generationRate;
+  private DistributionSummary toolIterations;
+  private DistributionSummary contextTokensSaved;
+  private DistributionSummary downloadRate;
+  private Counter downloadedBytes;
+
+  @PostConstruct
+  void init() {
+    timeToFirstToken = Timer.builder("chat.time.to.first.token")
+        .description("Time from receiving a chat request to forwarding its first content token")
+        .publishPercentileHistogram()
+        .register(registry);
+    upstreamCompletion = Timer.builder("chat.upstream.completion")
+        .description("Duration of one streamed completion from llama-server")
+        .publishPercentileHistogram()
+        .register(registry);
+    admissionWait = Timer.builder("chat.admission.wait")
+        .description("Time a chat request waited in the admission queue")
+        .publishPercentileHistogram()
+        .register(registry);
+    inference = Timer.builder("chat.inference.duration")
+        .description("Time a chat request spent running after admission, tools included")
+        .publishPercentileHistogram()
+        .register(registry);
+    generationRate = DistributionSummary.builder("chat.generation.rate")
+        .description("Tokens per second of the final answer stream")
+        .baseUnit("tokens_per_second")
+        .publishPercentileHistogram()
+        .register(registry);
+    toolIterations = DistributionSummary.builder("chat.tool.iterations")
+        .description("Tool loop iterations per chat request")
+        .serviceLevelObjectives(1, 2, 3, 4, 5)
+        .register(registry);
+    contextTokensSaved = DistributionSummary.builder("chat.context.tokens.saved")
+        .description("Prompt tokens removed by context compaction, per compacted upstream call")
+        .baseUnit("tokens")
+        .publishPercentileHistogram()
+        .register(registry);
+    downloadRate = DistributionSummary.builder("model.download.rate")
+        .description("Average throughput of completed model downloads")
+        .baseUnit("bytes_per_second")
+        .publishPercentileHistogram()
+        .register(registry);
+    downloadedBytes = Counter.builder("model.download.bytes")
+        .description("Bytes written by model downloads")
+        .baseUnit("bytes")
+        .register(registry);
+
+    Gauge.builder("chat.streams.active", activeStreams, AtomicInteger::get)
+        .description("Chat SSE streams currently open")
+        .register(registry);
+    Gauge.builder("chat.requests.queued", queuedRequests, AtomicInteger::get)
+        .description("Chat requests handed to the worker pool but not yet running")
+        .register(registry);
+  }
+
+  public void requestQueued() {
+    queuedRequests.incrementAndGet();
+  }
+
+  public void requestDequeued() {
+    queuedRequests.decrementAndGet();
+  }
+
+  public void streamOpened() {
+    activeStreams.incrementAndGet();
+  }
+
+  public void streamClosed() {
+    activeStreams.decrementAndGet();
+  }
+
+  public void recordTimeToFirstToken(long nanos) {
+    timeToFirstToken.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordUpstreamCompletion(long nanos) {
+    upstreamCompletion.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordAdmissionWait(long nanos) {
+    admissionWait.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordInference(long nanos) {
+    inference.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordGeneration(long tokens, long nanos) {
+    if (tokens > 0 && nanos > 0)
+      generationRate.record(tokens / (nanos / 1e9));
+  }
+
+  public void recordToolIterations(int iterations) {
+    toolIterations.record(iterations);
+  }
+
+  public void recordContextCompaction(int tokensSaved) {
+    contextTokensSaved.record(tokensSaved);
+  }
+
+  /** {@code outcome} is hit or miss. */
+  public void recordResponseCache(String outcome) {
+    Counter.builder("chat.response.cache")
+        .description("Lookups of cacheable chat requests in the response cache")
+        .tags("outcome", outcome)
+        .register(registry)
+        .increment();
+  }
+
+  public void recordUpstreamFailover() {
+    Counter.builder("chat.upstream.failovers")
+        .description("Completions retried on another server after the first refused them")
+        .register(registry)
+        .increment();
+  }
+
+  /** {@code outcome} is success, error, timeout, or cancelled when the client left mid-call. */
+  public void recordTool(String tool, String outcome, long nanos) {
+    Timer.builder("chat.tool.duration")
+        .description("Duration of a single tool call")
+        .tags("tool", tool != null ? tool : "unknown", "outcome", outcome)
+        .publishPercentileHistogram()
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  /** {@code stage} is queued, generation or tools: where the request was when its client left. */
+  public void recordAbandoned(String stage) {
+    Counter.builder("chat.abandoned")
+        .description("Chat requests given up because the client disconnected before the answer was done")
+        .tags("stage", stage)
+        .register(registry)
+        .increment();
+  }
+
+  public void recordLlamaStartup(long nanos, boolean success) {
+    Timer.builder("llama.server.startup")
+        .description("Time from launching llama-server until it reports healthy")
+        .tags("outcome", success ? "success" : "error")
+        .register(registry)
+        .record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  public void recordDownloadedBytes(long bytes) {
+    downloadedBytes.increment(bytes);
+  }
+
+  public void recordDownload(long bytes, long nanos) {
+    if (bytes > 0 && nanos > 0)
+      downloadRate.record(bytes / (nanos / 1e9));
+  }
+}
@@ -0,0 +1,616 @@
+package com.example.backend.retrieval;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.quarkus.runtime.ShutdownEvent;
+import io.quarkus.scheduler.Scheduled;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.enterprise.event.Observes;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+import org.jsoup.Jsoup;
+import org.jsoup.nodes.Document;
+import org.jsoup.nodes.Element;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.stream.Stream;
+
+/**
+ * Keeps a vector index of the documents under {@code retrieval.docs-path}.
+ * Files are split into overlapping chunks, embedded and added to a
+ * {@link VectorIndex}; the chunk texts live in an append-only file that the
+ * index payloads point into. A manifest records which nodes belong to which
+ * file, so a rescan only embeds new or modified files and tombstones the nodes
+ * of changed and removed ones.
+ */
+@ApplicationScoped
+public class DocumentIndexer {
+
+  private static final Set<String> EXTENSIONS = Set.of("txt", "md", "markdown", "rst", "html", "htm");
+  private static final int EMBED_BATCH = 16;
+
+  public static class FileEntry {
+    public long size;
+    public long modified;
+    public List<Integer> nodes = new ArrayList<>();
+  }
+
+  public static class Manifest {
+    public String model = "";
+    public int dim;
+    public Map<String, FileEntry> files = new TreeMap<>();
+  }
+
+  /** A stored chunk of a document. */
+  public static class Chunk {
+    public String path;
+    public int chunk;
+    public String text;
+  }
+
+  public static class Hit {
+    public final Chunk chunk;
+    public final float score;
+
+    Hit(Chunk chunk, float score) {
+      this.chunk = chunk;
+      this.score = score;
+    }
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @Inject
+  EmbeddingClient embeddings;
+
+  @ConfigProperty(name = "retrieval.enabled", defaultValue = "true")
+  boolean enabled;
+
+  @ConfigProperty(name = "retrieval.docs-path", defaultValue = "documents")
+  String docsPath;
+
+  @ConfigProperty(name = "retrieval.index-path", defaultValue = "retrieval-index")
+  String indexPath;
+
+  @ConfigProperty(name = "retrieval.chunk-chars", defaultValue = "1200")
+  int chunkChars;
+
+  @ConfigProperty(name = "retrieval.chunk-overlap", defaultValue = "200")
+  int chunkOverlap;
+
+  @ConfigProperty(name = "retrieval.hnsw.m", defaultValue = "16")
+  int hnswM;
+
+  @ConfigProperty(name = "retrieval.hnsw.ef-construction", defaultValue = "100")
+  int efConstruction;
+
+  @ConfigProperty(name = "retrieval.hnsw.ef-search", defaultValue = "64")
+  int efSearch;
+
+  /** Rebuild the index once tombstoned nodes exceed this share of it. */
+  @ConfigProperty(name = "retrieval.compact-ratio", defaultValue = "0.5")
+  double compactRatio;
+
+  private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+  private final AtomicBoolean ingesting = new AtomicBoolean();
+  private final ExecutorService ingestPool = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "document-ingest");
+    thread.setDaemon(true);
+    return thread;
+  });
+
+  private Manifest manifest = new Manifest();
+  private VectorIndex index;
+  private FileChannel chunks;
+  // Searches read through their own channel: an interrupted reader closes it, and it is reopened
+  private volatile FileChannel chunkReader;
+  private Path dir;
+
+  private volatile String lastError;
+  private volatile long lastIngestAt;
+  private volatile long lastIngestMillis;
+  private volatile int lastIngestFiles;
+  private volatile long lastSearchMicros;
+
+  @PostConstruct
+  void init() {
+    dir = Paths.get(indexPath);
+    try {
+      Files.createDirectories(dir);
+      Path manifestFile = dir.resolve("manifest.json");
+      if (Files.exists(manifestFile))
+        manifest = objectMapper.readValue(manifestFile.toFile(), Manifest.class);
+      chunks = openChunks(dir.resolve("chunks.dat"), false);
+      chunkReader = FileChannel.open(dir.resolve("chunks.dat"), StandardOpenOption.READ);
+      if (manifest.dim > 0) {
+        index = VectorIndex.open(dir.resolve("vectors.hnsw"), manifest.dim, hnswM, efConstruction);
+        tombstoneUnreferenced();
+        System.out.println("Mapped retrieval index: " + manifest.files.size() + " files, "
+            + (index.size() - index.deletedCount()) + " chunks");
+      }
+    } catch (IOException e) {
+      System.err.println("Discarding unreadable retrieval index: " + e.getMessage());
+      try {
+        reset();
+      } catch (IOException inner) {
+        throw new IllegalStateException("Cannot create retrieval index in " + dir, inner);
+      }
+    }
+  }
+
+  void close(@Observes ShutdownEvent ev) {
+    lock.writeLock().lock();
+    try {
+      if (index != null)
+        index.close();
+      if (chunks != null)
+        chunks.close();
+      if (chunkReader != null)
+        chunkReader.close();
+    } catch (IOException e) {
+      System.err.println("Failed to close retrieval index: " + e.getMessage());
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  /** Whether documents can be indexed and searched, which needs an embedding server. */
+  public boolean isAvailable() {
+    return enabled && embeddings.isConfigured();
+  }
+
+  @Scheduled(every = "${retrieval.scan-interval:5m}", delayed = "30s")
+  void scheduledIngest() {
+    if (isAvailable() && Files.isDirectory(Paths.get(docsPath)))
+      ingest();
+  }
+
+  /** Starts an ingest in the background; false if one is already running. */
+  public boolean ingestAsync() {
+    if (ingesting.get())
+      return false;
+    ingestPool.submit(this::ingest);
+    return true;
+  }
+
+  /**
+   * Brings the index in line with the documents folder. Returns false if an
+   * ingest was already running.
+   */
+  public boolean ingest() {
+    if (!ingesting.compareAndSet(false, true))
+      return false;
+    long start = System.currentTimeMillis();
+    int indexed = 0;
+    try {
+      Path root = Paths.get(docsPath);
+      Files.createDirectories(root);
+      Map<String, BasicFileAttributes> found = listDocuments(root);
+      if (found.isEmpty() && manifest.files.isEmpty())
+        return true;
+
+      checkModel();
+
+      List<String> removed = new ArrayList<>();
+      for (String path : manifest.files.keySet()) {
+        if (!found.containsKey(path))
+          removed.add(path);
+      }
+      if (!removed.isEmpty()) {
+        lock.writeLock().lock();
+        try {
+          for (String path : removed)
+            tombstone(manifest.files.remove(path));
+        } finally {
+          lock.writeLock().unlock();
+        }
+      }
+
+      for (Map.Entry<String, BasicFileAttributes> file : found.entrySet()) {
+        FileEntry known = manifest.files.get(file.getKey());
+        BasicFileAttributes attrs = file.getValue();
+        if (known != null && known.size == attrs.size() && known.modified == attrs.lastModifiedTime().toMillis())
+          continue;
+        indexFile(root, file.getKey(), attrs);
+        indexed++;
+      }
+
+      if (index != null && index.size() > 0 && index.deletedCount() > index.size() * compactRatio)
+        compact();
+      if (!removed.isEmpty())
+        saveManifest();
+      lastError = null;
+    } catch (IOException e) {
+      lastError = e.getMessage();
+      System.err.println("Document ingest failed: " + e.getMessage());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      // Keep what was embedded before a failure
+      if (indexed > 0)
+        saveManifestQuietly();
+      lastIngestAt = System.currentTimeMillis();
+      lastIngestMillis = lastIngestAt - start;
+      lastIngestFiles = indexed;
+      ingesting.set(false);
+    }
+    if (indexed > 0)
+      System.out.println("Indexed " + indexed + " documents in " + lastIngestMillis + " ms");
+    return true;
+  }
+
+  /** The {@code k} chunks most similar to {@code query}, best first. */
+  public List<Hit> search(String query, int k) throws IOException, InterruptedException {
+    if (!isAvailable())
+      throw new IOException("Local search is disabled; set retrieval.embedding-url");
+    if (index == null)
+      return List.of();
+    // Embed outside the lock so a running ingest does not delay the query
+    float[] vector = embeddings.embedQuery(query);
+
+    lock.readLock().lock();
+    try {
+      if (index == null)
+        return List.of();
+      if (vector.length != index.dimension())
+        throw new IOException("Embedding model changed since the documents were indexed; reindex them");
+      long start = System.nanoTime();
+      List<Hit> hits = new ArrayList<>();
+      for (VectorIndex.Hit hit : index.search(vector, k, efSearch))
+        hits.add(new Hit(readChunk(hit.payload), hit.score));
+      lastSearchMicros = (System.nanoTime() - start) / 1000;
+      return hits;
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  public Map<String, Object> getStats() {
+    Map<String, Object> stats = new HashMap<>();
+    lock.readLock().lock();
+    try {
+      stats.put("files", manifest.files.size());
+      stats.put("model", manifest.model);
+      stats.put("dimensions", manifest.dim);
+      stats.put("chunks", index == null ? 0 : index.size() - index.deletedCount());
+      stats.put("deletedChunks", index == null ? 0 : index.deletedCount());
+      stats.put("indexBytes", index == null ? 0 : index.fileBytes());
+    } finally {
+      lock.readLock().unlock();
+    }
+    stats.put("docsPath", Paths.get(docsPath).toAbsolutePath().toString());
+    stats.put("available", isAvailable());
+    stats.put("embeddingUrl", embeddings.baseUrl());
+    stats.put("ingesting", ingesting.get());
+    stats.put("lastIngestAt", lastIngestAt);
+    stats.put("lastIngestMillis", lastIngestMillis);
+    stats.put("lastIngestFiles", lastIngestFiles);
+    stats.put("lastSearchMicros", lastSearchMicros);
+    stats.put("lastError", lastError == null ? "" : lastError);
+    return stats;
+  }
+
+  private Map<String, BasicFileAttributes> listDocuments(Path root) throws IOException {
+    Map<String, BasicFileAttributes> found = new TreeMap<>();
+    try (Stream<Path> paths = Files.walk(root)) {
+      for (Path path : (Iterable<Path>) paths::iterator) {
+        if (!EXTENSIONS.contains(extension(path)))
+          continue;
+        BasicFileAttributes attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        if (attrs.isRegularFile())
+          found.put(root.relativize(path).toString().replace('\\', '/'), attrs);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Vectors from different models are not comparable, so a change of
+   * embedding model or dimension starts the index over.
+   */
+  private void checkModel() throws IOException, InterruptedException {
+    EmbeddingClient.Result probe = embeddings.embed(List.of("dimension probe"));
+    int dim = probe.vectors.get(0).length;
+    if (manifest.dim == dim && (probe.model.isEmpty() || probe.model.equals(manifest.model)))
+      return;
+    lock.writeLock().lock();
+    try {
+      if (manifest.dim > 0)
+        System.out.println("Embedding model changed to " + probe.model + " (" + dim + " dims); rebuilding index");
+      reset();
+      manifest.model = probe.model;
+      manifest.dim = dim;
+      index = VectorIndex.open(dir.resolve("vectors.hnsw"), dim, hnswM, efConstruction);
+      embeddings.clearQueryCache();
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void indexFile(Path root, String relative, BasicFileAttributes attrs)
+      throws IOException, InterruptedException {
+    List<String> parts = split(readText(root.resolve(relative)));
+    List<float[]> vectors = new ArrayList<>(parts.size());
+    for (int i = 0; i < parts.size(); i += EMBED_BATCH)
+      vectors.addAll(embeddings.embed(parts.subList(i, Math.min(parts.size(), i + EMBED_BATCH))).vectors);
+
+    FileEntry entry = new FileEntry();
+    entry.size = attrs.size();
+    entry.modified = attrs.lastModifiedTime().toMillis();
+    lock.writeLock().lock();
+    try {
+      tombstone(manifest.files.get(relative));
+      for (int i = 0; i < parts.size(); i++) {
+        Chunk chunk = new Chunk();
+        chunk.path = relative;
+        chunk.chunk = i;
+        chunk.text = parts.get(i);
+        entry.nodes.add(index.add(vectors.get(i), appendChunk(chunk)));
+      }
+      manifest.files.put(relative, entry);
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private String readText(Path file) throws IOException {
+    String text = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    String ext = extension(file);
+    if (!ext.equals("html") && !ext.equals("htm"))
+      return text;
+    Document doc = Jsoup.parse(text);
+    doc.select("script, style, noscript, svg, nav").remove();
+    // Keep block boundaries as paragraph breaks for the chunker
+    for (Element block : doc.body().select("p, h1, h2, h3, h4, h5, h6, li, pre, blockquote, tr, dt, dd, div, br"))
+      block.appendText("\n\n");
+    return doc.body().wholeText();
+  }
+
+  /**
+   * Packs paragraphs into chunks of up to {@code chunkChars}, starting each
+   * chunk with the tail of the previous one so a passage cut at a boundary is
+   * still found whole in one of them.
+   */
+  List<String> split(String text) {
+    List<String> parts = new ArrayList<>();
+    StringBuilder current = new StringBuilder();
+    int carried = 0;
+    for (String paragraph : text.split("\\n\\s*\\n")) {
+      String trimmed = paragraph.strip().replaceAll("\\s+", " ");
+      while (!trimmed.isEmpty()) {
+        int room = chunkChars - current.length() - (current.length() > 0 ? 1 : 0);
+        if (trimmed.length() <= room) {
+          if (current.length() > 0)
+            current.append('\n');
+          current.append(trimmed);
+          break;
+        }
+        if (room >= chunkChars / 4) {
+          // Fill the chunk up to a word boundary, carry the rest over
+          int cut = trimmed.lastIndexOf(' ', room);
+          if (cut <= 0)
+            cut = room;
+          if (current.length() > 0)
+            current.append('\n');
+          current.append(trimmed, 0, cut);
+          trimmed = trimmed.substring(cut).strip();
+        }
+        if (current.length() > 0) {
+          String done = current.toString();
+          parts.add(done);
+          current.setLength(0);
+          current.append(overlap(done));
+          carried = current.length();
+        }
+      }
+    }
+    if (current.length() > carried)
+      parts.add(current.toString());
+    return parts;
+  }
+
+  private String overlap(String chunk) {
+    if (chunkOverlap <= 0 || chunk.length() <= chunkOverlap)
+      return "";
+    int start = chunk.indexOf(' ', chunk.length() - chunkOverlap);
+    return start < 0 ? "" : chunk.substring(start + 1);
+  }
+
+  private void tombstone(FileEntry entry) {
+    if (entry == null || index == null)
+      return;
+    for (int node : entry.nodes)
+      index.markDeleted(node);
+  }
+
+  /** Hides nodes written after the last saved manifest, e.g. by an interrupted ingest. */
+  private void tombstoneUnreferenced() {
+    BitSet referenced = new BitSet(index.size());
+    for (FileEntry entry : manifest.files.values()) {
+      for (int node : entry.nodes)
+        referenced.set(node);
+    }
+    for (int id = 0; id < index.size(); id++) {
+      if (!referenced.get(id))
+        index.markDeleted(id);
+    }
+  }
+
+  /** Rewrites the index and chunk file with only the live nodes. */
+  private void compact() throws IOException {
+    lock.writeLock().lock();
+    try {
+      long start = System.currentTimeMillis();
+      int before = index.size();
+      Path newIndexFile = dir.resolve("vectors.hnsw.tmp");
+      Path newChunksFile = dir.resolve("chunks.dat.tmp");
+      Files.deleteIfExists(newIndexFile);
+      VectorIndex rebuilt = VectorIndex.open(newIndexFile, manifest.dim, hnswM, efConstruction);
+      FileChannel oldChunks = chunks;
+      chunks = openChunks(newChunksFile, true);
+      try {
+        for (FileEntry entry : manifest.files.values()) {
+          List<Integer> nodes = new ArrayList<>(entry.nodes.size());
+          for (int node : entry.nodes) {
+            long offset = appendChunk(readChunkBytes(oldChunks, index.payload(node)));
+            nodes.add(rebuilt.add(index.vector(node), offset));
+          }
+          entry.nodes = nodes;
+        }
+      } finally {
+        oldChunks.close();
+      }
+      index.close();
+      rebuilt.close();
+      chunks.force(false);
+      chunks.close();
+      Files.move(newIndexFile, dir.resolve("vectors.hnsw"), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      Files.move(newChunksFile, dir.resolve("chunks.dat"), StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+      index = VectorIndex.open(dir.resolve("vectors.hnsw"), manifest.dim, hnswM, efConstruction);
+      chunks = openChunks(dir.resolve("chunks.dat"), false);
+      reopenChunkReader(chunkReader);
+      System.out.println("Compacted retrieval index from " + before + " to " + index.size() + " chunks in "
+          + (System.currentTimeMillis() - start) + " ms");
+    } finally {
+      lock.writeLock().unlock();
+    }
+  }
+
+  private void reset() throws IOException {
+    if (index != null)
+      index.close();
+    index = null;
+    if (chunks != null)
+      chunks.close();
+    Files.deleteIfExists(dir.resolve("vectors.hnsw"));
+    Files.deleteIfExists(dir.resolve("manifest.json"));
+    chunks = openChunks(dir.resolve("chunks.dat"), true);
+    reopenChunkReader(chunkReader);
+    manifest = new Manifest();
+  }
+
+  /**
+   * Flushes the index and chunks before the manifest that references them,
+   * so a crash can only leave unreferenced nodes behind.
+   */
+  private void saveManifest() throws IOException {
+    lock.readLock().lock();
+    try {
+      if (index != null)
+        index.force();
+      chunks.force(false);
+      Path file = dir.resolve("manifest.json");
+      Path temp = dir.resolve("manifest.json.tmp");
+      objectMapper.writeValue(temp.toFile(), manifest);
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } finally {
+      lock.readLock().unlock();
+    }
+  }
+
+  private void saveManifestQuietly() {
+    try {
+      saveManifest();
+    } catch (IOException e) {
+      System.err.println("Failed to save retrieval manifest: " + e.getMessage());
+    }
+  }
+
+  private static FileChannel openChunks(Path path, boolean truncate) throws IOException {
+    if (truncate)
+      return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+          StandardOpenOption.READ, StandardOpenOption.WRITE);
+    return FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+  }
+
+  private long appendChunk(Chunk chunk) throws IOException {
+    return appendChunk(objectMapper.writeValueAsBytes(chunk));
+  }
+
+  /** Chunk records are a 4-byte length followed by the chunk's JSON. */
+  private long appendChunk(byte[] json) throws IOException {
+    long offset = chunks.size();
+    ByteBuffer record = ByteBuffer.allocate(4 + json.length);
+    record.putInt(json.length).put(json).flip();
+    long position = offset;
+    while (record.hasRemaining())
+      position += chunks.write(record, position);
+    return offset;
+  }
+
+  /**
+   * Reads a chunk for a search. A search thread interrupted mid-read closes
+   * the channel it reads from, so the reader is reopened for the searches
+   * after it, and a search that lost its channel to another's interrupt
+   * retries once.
+   */
+  private Chunk readChunk(long offset) throws IOException {
+    for (int attempt = 1; ; attempt++) {
+      FileChannel reader = chunkReader;
+      try {
+        return objectMapper.readValue(readChunkBytes(reader, offset), Chunk.class);
+      } catch (ClosedChannelException e) {
+        reopenChunkReader(reader);
+        if (e instanceof ClosedByInterruptException || attempt > 1)
+          throw e;
+      }
+    }
+  }
+
+  private synchronized void reopenChunkReader(FileChannel current) throws IOException {
+    if (chunkReader != current)
+      return;
+    if (current != null)
+      current.close();
+    chunkReader = FileChannel.open(dir.resolve("chunks.dat"), StandardOpenOption.READ);
+  }
+
+  private static byte[] readChunkBytes(FileChannel channel, long offset) throws IOException {
+    ByteBuffer length = ByteBuffer.allocate(4);
+    readFully(channel, length, offset);
+    ByteBuffer json = ByteBuffer.allocate(length.flip().getInt());
+    readFully(channel, json, offset + 4);
+    return json.array();
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      int read = channel.read(buffer, position);
+      if (read < 0)
+        throw new IOException("Chunk file ends inside a record at " + position);
+      position += read;
+    }
+  }
+
+  private static String extension(Path path) {
+    String name = path.getFileName().toString();
+    int dot = name.lastIndexOf('.');
+    return dot < 0 ? "" : name.substring(dot + 1).toLowerCase(Locale.ROOT);
+  }
+}
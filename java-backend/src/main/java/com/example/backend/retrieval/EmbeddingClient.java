@@ -0,0 +1,130 @@
+package com.example.backend.retrieval;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import jakarta.annotation.PostConstruct;
+import jakarta.enterprise.context.ApplicationScoped;
+import jakarta.inject.Inject;
+import org.eclipse.microprofile.config.inject.ConfigProperty;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * Computes embeddings with llama-server's OpenAI-compatible /v1/embeddings
+ * endpoint on the server at {@code retrieval.embedding-url}. It has to be a
+ * dedicated embedding server: llama-server started with {@code --embeddings}
+ * serves nothing else, so the chat server can't be used. Query embeddings are
+ * cached, since the same questions tend to be searched repeatedly within a
+ * conversation.
+ */
+@ApplicationScoped
+public class EmbeddingClient {
+
+  public static class Result {
+    public final String model;
+    public final List<float[]> vectors;
+
+    Result(String model, List<float[]> vectors) {
+      this.model = model;
+      this.vectors = vectors;
+    }
+  }
+
+  @Inject
+  ObjectMapper objectMapper;
+
+  @ConfigProperty(name = "retrieval.embedding-url")
+  Optional<String> embeddingUrl;
+
+  @ConfigProperty(name = "retrieval.embedding-timeout-ms", defaultValue = "60000")
+  long timeoutMs;
+
+  @ConfigProperty(name = "retrieval.query-cache-size", defaultValue = "256")
+  int queryCacheSize;
+
+  private HttpClient client;
+  private final Map<String, float[]> queryCache = Collections.synchronizedMap(
+      new LinkedHashMap<>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, float[]> eldest) {
+          return size() > queryCacheSize;
+        }
+      });
+
+  @PostConstruct
+  void init() {
+    client = HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_1_1)
+        .connectTimeout(Duration.ofSeconds(5))
+        .build();
+  }
+
+  public boolean isConfigured() {
+    return embeddingUrl.filter(url -> !url.isBlank()).isPresent();
+  }
+
+  /** The embedding server's url, or an empty string when none is configured. */
+  public String baseUrl() {
+    return embeddingUrl.filter(url -> !url.isBlank()).orElse("");
+  }
+
+  public Result embed(List<String> texts) throws IOException, InterruptedException {
+    if (!isConfigured())
+      throw new IOException("No embedding server configured; set retrieval.embedding-url");
+    Map<String, Object> body = Map.of("input", texts);
+    HttpRequest request = HttpRequest.newBuilder(URI.create(baseUrl() + "/v1/embeddings"))
+        .timeout(Duration.ofMillis(timeoutMs))
+        .header("Content-Type", "application/json")
+        .POST(HttpRequest.BodyPublishers.ofByteArray(objectMapper.writeValueAsBytes(body)))
+        .build();
+    HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+    if (response.statusCode() != 200)
+      throw new IOException("Embedding request failed with HTTP " + response.statusCode() + ": "
+          + new String(response.body(), 0, Math.min(300, response.body().length), StandardCharsets.UTF_8));
+
+    JsonNode root = objectMapper.readTree(response.body());
+    JsonNode data = root.path("data");
+    List<float[]> vectors = new ArrayList<>(Collections.nCopies(texts.size(), null));
+    for (int i = 0; i < data.size(); i++) {
+      JsonNode item = data.get(i);
+      int index = item.path("index").asInt(i);
+      JsonNode values = item.path("embedding");
+      // Servers without pooling return one vector per token; only pooled output is usable
+      if (values.size() > 0 && values.get(0).isArray())
+        throw new IOException("Embedding server returned unpooled embeddings; start it with --pooling mean");
+      float[] vector = new float[values.size()];
+      for (int j = 0; j < vector.length; j++)
+        vector[j] = (float) values.get(j).asDouble();
+      if (index >= 0 && index < vectors.size())
+        vectors.set(index, vector);
+    }
+    if (vectors.contains(null))
+      throw new IOException("Embedding response is missing vectors");
+    return new Result(root.path("model").asText(""), vectors);
+  }
+
+  public float[] embedQuery(String text) throws IOException, InterruptedException {
+    float[] cached = queryCache.get(text);
+    if (cached != null)
+      return cached;
+    float[] vector = embed(List.of(text)).vectors.get(0);
+    queryCache.put(text, vector);
+    return vector;
+  }
+
+  public void clearQueryCache() {
+    queryCache.clear();
+  }
+}
@@ -0,0 +1,69 @@
+package com.example.backend.retrieval;
+
+import jakarta.inject.Inject;
+import jakarta.ws.rs.DefaultValue;
+import jakarta.ws.rs.GET;
+import jakarta.ws.rs.POST;
+import jakarta.ws.rs.Path;
+import jakarta.ws.rs.Produces;
+import jakarta.ws.rs.QueryParam;
+import jakarta.ws.rs.core.MediaType;
+import jakarta.ws.rs.core.Response;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+@Path("/api/retrieval")
+public class RetrievalController {
+
+  @Inject
+  DocumentIndexer documentIndexer;
+
+  @GET
+  @Path("/status")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Map<String, Object> getStatus() {
+    return documentIndexer.getStats();
+  }
+
+  @POST
+  @Path("/reindex")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response reindex() {
+    if (!documentIndexer.isAvailable())
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+          .entity(Map.of("message", "Set retrieval.embedding-url to index documents")).build();
+    if (!documentIndexer.ingestAsync())
+      return Response.status(Response.Status.CONFLICT)
+          .entity(Map.of("message", "Indexing is already running")).build();
+    return Response.accepted(Map.of("message", "Indexing started")).build();
+  }
+
+  @GET
+  @Path("/search")
+  @Produces(MediaType.APPLICATION_JSON)
+  public Response search(@QueryParam("q") String query, @QueryParam("k") @DefaultValue("5") int k) {
+    if (query == null || query.isBlank())
+      return Response.status(Response.Status.BAD_REQUEST).entity(Map.of("message", "q is required")).build();
+    try {
+      List<Map<String, Object>> results = new ArrayList<>();
+      for (DocumentIndexer.Hit hit : documentIndexer.search(query, Math.max(1, Math.min(k, 50)))) {
+        Map<String, Object> result = new LinkedHashMap<>();
+        result.put("path", hit.chunk.path);
+        result.put("chunk", hit.chunk.chunk);
+        result.put("score", hit.score);
+        result.put("text", hit.chunk.text);
+        results.add(result);
+      }
+      return Response.ok(results).build();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE).entity(Map.of("message", "Search cancelled")).build();
+    } catch (Exception e) {
+      return Response.status(Response.Status.SERVICE_UNAVAILABLE)
+          .entity(Map.of("message", "Search failed: " + e.getMessage())).build();
+    }
+  }
+}
@@ -0,0 +1,446 @@
+package com.example.backend.retrieval;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * HNSW graph over unit-length vectors, kept in a memory-mapped file so an
+ * existing index is usable as soon as it is mapped. Every node is a fixed-size
+ * record holding its vector, an opaque payload and its neighbour lists, so
+ * nodes are addressed by id without any decoding. Similarity is the dot
+ * product of normalized vectors, i.e. cosine similarity.
+ *
+ * <p>
+ * Not thread-safe: callers serialize writes against reads.
+ */
+class VectorIndex implements Closeable {
+
+  private static final int MAGIC = 0x57534E48; // "HNSW"
+  private static final int VERSION = 1;
+  private static final int HEADER_BYTES = 64;
+  private static final int INITIAL_CAPACITY = 1024;
+  /** Upper layers beyond this are folded into it; with M=16 they are vanishingly rare. */
+  static final int MAX_LEVEL = 4;
+
+  // Header fields
+  private static final int H_MAGIC = 0;
+  private static final int H_VERSION = 4;
+  private static final int H_DIM = 8;
+  private static final int H_M = 12;
+  private static final int H_COUNT = 16;
+  private static final int H_ENTRY = 20;
+  private static final int H_TOP_LEVEL = 24;
+  private static final int H_DELETED = 28;
+
+  // Record fields
+  private static final int R_LEVEL = 0;
+  private static final int R_DELETED = 4;
+  private static final int R_PAYLOAD = 8;
+  private static final int R_VECTOR = 16;
+
+  public static class Hit {
+    public final int id;
+    public final float score;
+    public final long payload;
+
+    Hit(int id, float score, long payload) {
+      this.id = id;
+      this.score = score;
+      this.payload = payload;
+    }
+  }
+
+  private static class Scored {
+    final int id;
+    final float similarity;
+
+    Scored(int id, float similarity) {
+      this.id = id;
+      this.similarity = similarity;
+    }
+  }
+
+  private static final Comparator<Scored> NEAREST_FIRST = (a, b) -> Float.compare(b.similarity, a.similarity);
+  private static final Comparator<Scored> FARTHEST_FIRST = (a, b) -> Float.compare(a.similarity, b.similarity);
+
+  private final FileChannel channel;
+  private final int dim;
+  private final int m;
+  private final int m0;
+  private final int efConstruction;
+  private final double levelFactor;
+  private final int linksOffset;
+  private final int recordBytes;
+  private MappedByteBuffer buffer;
+  private int capacity;
+
+  private VectorIndex(FileChannel channel, int dim, int m, int efConstruction) {
+    this.channel = channel;
+    this.dim = dim;
+    this.m = m;
+    this.m0 = 2 * m;
+    this.efConstruction = efConstruction;
+    this.levelFactor = 1 / Math.log(m);
+    this.linksOffset = R_VECTOR + dim * 4;
+    this.recordBytes = linksOffset + 4 + m0 * 4 + MAX_LEVEL * (4 + m * 4);
+  }
+
+  /**
+   * Maps the index at {@code path}, creating it if missing. An existing file
+   * built with a different dimension or M is rejected.
+   */
+  static VectorIndex open(Path path, int dim, int m, int efConstruction) throws IOException {
+    boolean exists = Files.exists(path) && Files.size(path) >= HEADER_BYTES;
+    FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+        StandardOpenOption.WRITE);
+    VectorIndex index = new VectorIndex(channel, dim, m, efConstruction);
+    try {
+      if (exists) {
+        index.map((int) ((channel.size() - HEADER_BYTES) / index.recordBytes));
+        if (index.buffer.getInt(H_MAGIC) != MAGIC || index.buffer.getInt(H_VERSION) != VERSION)
+          throw new IOException("Not a vector index: " + path);
+        if (index.buffer.getInt(H_DIM) != dim || index.buffer.getInt(H_M) != m)
+          throw new IOException("Vector index " + path + " was built with dim=" + index.buffer.getInt(H_DIM)
+              + ", m=" + index.buffer.getInt(H_M));
+      } else {
+        index.map(INITIAL_CAPACITY);
+        index.buffer.putInt(H_MAGIC, MAGIC);
+        index.buffer.putInt(H_VERSION, VERSION);
+        index.buffer.putInt(H_DIM, dim);
+        index.buffer.putInt(H_M, m);
+        index.buffer.putInt(H_COUNT, 0);
+        index.buffer.putInt(H_ENTRY, -1);
+        index.buffer.putInt(H_TOP_LEVEL, -1);
+        index.buffer.putInt(H_DELETED, 0);
+      }
+    } catch (IOException e) {
+      channel.close();
+      throw e;
+    }
+    return index;
+  }
+
+  int dimension() {
+    return dim;
+  }
+
+  int size() {
+    return buffer.getInt(H_COUNT);
+  }
+
+  int deletedCount() {
+    return buffer.getInt(H_DELETED);
+  }
+
+  long fileBytes() {
+    return HEADER_BYTES + (long) capacity * recordBytes;
+  }
+
+  boolean isDeleted(int id) {
+    return buffer.getInt(record(id) + R_DELETED) != 0;
+  }
+
+  long payload(int id) {
+    return buffer.getLong(record(id) + R_PAYLOAD);
+  }
+
+  float[] vector(int id) {
+    float[] vector = new float[dim];
+    int base = record(id) + R_VECTOR;
+    for (int i = 0; i < dim; i++)
+      vector[i] = buffer.getFloat(base + i * 4);
+    return vector;
+  }
+
+  /** Hides a node from results; it keeps routing searches through the graph. */
+  void markDeleted(int id) {
+    if (id < 0 || id >= size() || isDeleted(id))
+      return;
+    buffer.putInt(record(id) + R_DELETED, 1);
+    buffer.putInt(H_DELETED, deletedCount() + 1);
+  }
+
+  /** Inserts a vector and returns its node id. */
+  int add(float[] vector, long payload) throws IOException {
+    if (vector.length != dim)
+      throw new IllegalArgumentException("Expected " + dim + " dimensions but got " + vector.length);
+    float[] unit = normalize(vector);
+    int id = size();
+    if (id >= capacity)
+      map(Math.max(capacity * 2, INITIAL_CAPACITY));
+
+    int level = Math.min(MAX_LEVEL, (int) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) * levelFactor));
+    int base = record(id);
+    buffer.putInt(base + R_LEVEL, level);
+    buffer.putInt(base + R_DELETED, 0);
+    buffer.putLong(base + R_PAYLOAD, payload);
+    for (int i = 0; i < dim; i++)
+      buffer.putFloat(base + R_VECTOR + i * 4, unit[i]);
+    for (int l = 0; l <= MAX_LEVEL; l++)
+      buffer.putInt(linkBase(id, l), 0);
+
+    int entry = buffer.getInt(H_ENTRY);
+    int topLevel = buffer.getInt(H_TOP_LEVEL);
+    if (entry < 0) {
+      buffer.putInt(H_ENTRY, id);
+      buffer.putInt(H_TOP_LEVEL, level);
+      buffer.putInt(H_COUNT, id + 1);
+      return id;
+    }
+
+    Scored current = new Scored(entry, similarity(unit, entry));
+    for (int l = topLevel; l > level; l--)
+      current = greedy(unit, current, l);
+
+    for (int l = Math.min(level, topLevel); l >= 0; l--) {
+      PriorityQueue<Scored> found = searchLayer(unit, current, efConstruction, l);
+      List<Scored> neighbours = selectNeighbours(closest(found, found.size()), l == 0 ? m0 : m);
+      int[] links = new int[neighbours.size()];
+      for (int i = 0; i < links.length; i++)
+        links[i] = neighbours.get(i).id;
+      setLinks(id, l, links);
+      for (int neighbour : links)
+        connect(neighbour, id, l);
+      current = neighbours.get(0);
+    }
+
+    // Publish the node only once it is fully linked
+    buffer.putInt(H_COUNT, id + 1);
+    if (level > topLevel) {
+      buffer.putInt(H_ENTRY, id);
+      buffer.putInt(H_TOP_LEVEL, level);
+    }
+    return id;
+  }
+
+  /** The {@code k} most similar live nodes, best first. */
+  List<Hit> search(float[] query, int k, int ef) {
+    int entry = buffer.getInt(H_ENTRY);
+    if (entry < 0 || k <= 0)
+      return List.of();
+    float[] unit = normalize(query);
+
+    Scored current = new Scored(entry, similarity(unit, entry));
+    for (int l = buffer.getInt(H_TOP_LEVEL); l > 0; l--)
+      current = greedy(unit, current, l);
+
+    // Deleted nodes still take part in the walk, so widen it by their share
+    int live = Math.max(1, size() - deletedCount());
+    int widened = (int) Math.min(size(), (long) Math.max(ef, k) * size() / live);
+    PriorityQueue<Scored> found = searchLayer(unit, current, widened, 0);
+
+    List<Hit> hits = new ArrayList<>(k);
+    for (Scored scored : closest(found, found.size())) {
+      if (isDeleted(scored.id))
+        continue;
+      hits.add(new Hit(scored.id, scored.similarity, payload(scored.id)));
+      if (hits.size() == k)
+        break;
+    }
+    return hits;
+  }
+
+  void force() {
+    buffer.force();
+  }
+
+  @Override
+  public void close() throws IOException {
+    force();
+    channel.close();
+  }
+
+  private Scored greedy(float[] query, Scored start, int level) {
+    Scored best = start;
+    boolean improved = true;
+    while (improved) {
+      improved = false;
+      int base = linkBase(best.id, level);
+      int count = buffer.getInt(base);
+      for (int i = 0; i < count; i++) {
+        int neighbour = buffer.getInt(base + 4 + i * 4);
+        float sim = similarity(query, neighbour);
+        if (sim > best.similarity) {
+          best = new Scored(neighbour, sim);
+          improved = true;
+        }
+      }
+    }
+    return best;
+  }
+
+  /** Best-first search of one layer; returns up to {@code ef} nodes, farthest at the head. */
+  private PriorityQueue<Scored> searchLayer(float[] query, Scored entry, int ef, int level) {
+    BitSet visited = new BitSet(size() + 1);
+    visited.set(entry.id);
+    PriorityQueue<Scored> candidates = new PriorityQueue<>(NEAREST_FIRST);
+    PriorityQueue<Scored> results = new PriorityQueue<>(FARTHEST_FIRST);
+    candidates.add(entry);
+    results.add(entry);
+
+    while (!candidates.isEmpty()) {
+      Scored candidate = candidates.poll();
+      if (results.size() >= ef && candidate.similarity < results.peek().similarity)
+        break;
+      int base = linkBase(candidate.id, level);
+      int count = buffer.getInt(base);
+      for (int i = 0; i < count; i++) {
+        int neighbour = buffer.getInt(base + 4 + i * 4);
+        if (visited.get(neighbour))
+          continue;
+        visited.set(neighbour);
+        float sim = similarity(query, neighbour);
+        if (results.size() < ef || sim > results.peek().similarity) {
+          Scored scored = new Scored(neighbour, sim);
+          candidates.add(scored);
+          results.add(scored);
+          if (results.size() > ef)
+            results.poll();
+        }
+      }
+    }
+    return results;
+  }
+
+  private static List<Scored> closest(PriorityQueue<Scored> found, int limit) {
+    List<Scored> sorted = new ArrayList<>(found);
+    sorted.sort(NEAREST_FIRST);
+    return sorted.size() > limit ? sorted.subList(0, limit) : sorted;
+  }
+
+  /**
+   * The neighbour selection heuristic of the HNSW paper: a candidate is kept
+   * only if it is closer to the base node than to any neighbour kept so far,
+   * which spreads links across directions instead of into one cluster. Free
+   * slots are then filled with the closest of the skipped candidates.
+   */
+  private List<Scored> selectNeighbours(List<Scored> nearestFirst, int max) {
+    List<Scored> kept = new ArrayList<>(max);
+    List<Scored> skipped = new ArrayList<>();
+    for (Scored candidate : nearestFirst) {
+      if (kept.size() == max)
+        break;
+      boolean diverse = true;
+      for (Scored other : kept) {
+        if (similarity(candidate.id, other.id) > candidate.similarity) {
+          diverse = false;
+          break;
+        }
+      }
+      if (diverse) {
+        kept.add(candidate);
+      } else {
+        skipped.add(candidate);
+      }
+    }
+    for (int i = 0; i < skipped.size() && kept.size() < max; i++)
+      kept.add(skipped.get(i));
+    return kept;
+  }
+
+  /** Adds {@code id} to {@code node}'s links, keeping only the closest when full. */
+  private void connect(int node, int id, int level) {
+    int base = linkBase(node, level);
+    int count = buffer.getInt(base);
+    int max = level == 0 ? m0 : m;
+    if (count < max) {
+      buffer.putInt(base + 4 + count * 4, id);
+      buffer.putInt(base, count + 1);
+      return;
+    }
+
+    float[] nodeVector = vector(node);
+    float idSimilarity = similarity(nodeVector, id);
+    PriorityQueue<Scored> all = new PriorityQueue<>(FARTHEST_FIRST);
+    for (int i = 0; i < count; i++) {
+      int neighbour = buffer.getInt(base + 4 + i * 4);
+      all.add(new Scored(neighbour, similarity(nodeVector, neighbour)));
+    }
+    // Usually the new node is the farthest and lies behind a neighbour that is
+    // already linked; the heuristic would drop it, so the list stays as it is
+    if (all.peek().similarity >= idSimilarity) {
+      for (Scored neighbour : all) {
+        if (similarity(id, neighbour.id) > idSimilarity)
+          return;
+      }
+    }
+    all.add(new Scored(id, idSimilarity));
+    List<Scored> kept = selectNeighbours(closest(all, all.size()), max);
+    int[] links = new int[kept.size()];
+    for (int i = 0; i < links.length; i++)
+      links[i] = kept.get(i).id;
+    setLinks(node, level, links);
+  }
+
+  private void setLinks(int node, int level, int[] links) {
+    int base = linkBase(node, level);
+    buffer.putInt(base, links.length);
+    for (int i = 0; i < links.length; i++)
+      buffer.putInt(base + 4 + i * 4, links[i]);
+  }
+
+  private float similarity(float[] query, int id) {
+    int base = record(id) + R_VECTOR;
+    float sum = 0;
+    for (int i = 0; i < dim; i++)
+      sum += query[i] * buffer.getFloat(base + i * 4);
+    return sum;
+  }
+
+  private float similarity(int a, int b) {
+    int baseA = record(a) + R_VECTOR;
+    int baseB = record(b) + R_VECTOR;
+    float sum = 0;
+    for (int i = 0; i < dim * 4; i += 4)
+      sum += buffer.getFloat(baseA + i) * buffer.getFloat(baseB + i);
+    return sum;
+  }
+
+  private int record(int id) {
+    return HEADER_BYTES + id * recordBytes;
+  }
+
+  private int linkBase(int id, int level) {
+    int offset = level == 0 ? linksOffset : linksOffset + 4 + m0 * 4 + (level - 1) * (4 + m * 4);
+    return record(id) + offset;
+  }
+
+  private void map(int nodes) throws IOException {
+    // A single mapping is limited to 2 GB
+    int maxNodes = (Integer.MAX_VALUE - HEADER_BYTES) / recordBytes;
+    if (capacity >= maxNodes)
+      throw new IOException("Vector index is full (" + capacity + " nodes)");
+    nodes = Math.min(nodes, maxNodes);
+    long bytes = HEADER_BYTES + (long) nodes * recordBytes;
+    if (buffer != null)
+      buffer.force();
+    buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    capacity = nodes;
+  }
+
+  private static float[] normalize(float[] vector) {
+    double norm = 0;
+    for (float value : vector)
+      norm += value * value;
+    norm = Math.sqrt(norm);
+    if (norm == 0)
+      return vector.clone();
+    float[] unit = new float[vector.length];
+    for (int i = 0; i < vector.length; i++)
+      unit[i] = (float) (vector[i] / norm);
+    return unit;
+  }
+}
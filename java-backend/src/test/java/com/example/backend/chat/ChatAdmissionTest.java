@@ -0,0 +1,94 @@
+package com.example.backend.chat;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChatAdmissionTest {
+
+  private ChatUpstream upstream;
+  private ChatAdmission admission;
+  private final List<String> granted = new ArrayList<>();
+  private final Map<String, ChatAdmission.Ticket> tickets = new HashMap<>();
+
+  @BeforeEach
+  void setUp() {
+    SlotRouter slotRouter = new SlotRouter();
+    slotRouter.slotCount = 1;
+    upstream = new ChatUpstream();
+    upstream.slotRouter = slotRouter;
+    upstream.defaultUrl = "http://127.0.0.1:1";
+    upstream.configuredReplicas = Optional.empty();
+
+    admission = new ChatAdmission();
+    admission.chatUpstream = upstream;
+    admission.queueSize = 8;
+    admission.init();
+  }
+
+  private ChatAdmission.Ticket enter(String client, String label) {
+    ChatAdmission.Ticket ticket = admission.enter(client);
+    if (ticket != null) {
+      tickets.put(label, ticket);
+      ticket.whenGranted(position -> { }, () -> granted.add(label));
+    }
+    return ticket;
+  }
+
+  @Test
+  void servesWaitingClientsRoundRobin() {
+    enter("busy", "busy-0");
+    enter("busy", "busy-1");
+    enter("busy", "busy-2");
+    enter("busy", "busy-3");
+    enter("quiet", "quiet-1");
+    assertEquals(List.of("busy-0"), granted);
+
+    // Each release lets in one request, taking the clients in turn
+    for (int i = 0; i < 4; i++)
+      tickets.get(granted.get(granted.size() - 1)).release();
+    // The quiet client's one request goes ahead of the busy client's backlog
+    assertEquals(List.of("busy-0", "busy-1", "quiet-1", "busy-2", "busy-3"), granted);
+  }
+
+  @Test
+  void reportsQueuePositionsAndRejectsWhenFull() {
+    admission.queueSize = 2;
+    List<Integer> positions = new ArrayList<>();
+    enter("a", "a-0");
+    ChatAdmission.Ticket waiting = admission.enter("b");
+    waiting.whenGranted(positions::add, () -> granted.add("b-1"));
+    enter("c", "c-1");
+
+    assertNull(admission.enter("d"));
+    assertEquals(List.of(1), positions);
+
+    waiting.release();
+    assertFalse(granted.contains("b-1"));
+    assertEquals(1, admission.getStats().get("queued"));
+  }
+
+  @Test
+  void grantsWaitingTicketsWhenCapacityGrows() {
+    enter("a", "a-0");
+    enter("b", "b-1");
+    enter("c", "c-1");
+    assertEquals(List.of("a-0"), granted);
+
+    // A hosted model adds a slot; nobody released a ticket
+    upstream.addHosted("http://127.0.0.1:2", 1);
+    assertEquals(List.of("a-0", "b-1"), granted);
+    assertEquals(2, admission.getStats().get("running"));
+    assertTrue((int) admission.getStats().get("limit") >= 2);
+  }
+}
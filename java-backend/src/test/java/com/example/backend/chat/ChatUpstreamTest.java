@@ -0,0 +1,270 @@
+package com.example.backend.chat;
+
+import com.example.backend.metrics.TestMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Replica selection, probing and failover against in-process stub servers. */
+class ChatUpstreamTest {
+
+  private static final Map<String, Object> PAYLOAD = Map.of("messages", List.of(), "stream", true);
+
+  /** A llama-server stand-in whose completions stream its name. */
+  private static class Stub {
+    final String name;
+    final HttpServer server;
+    final AtomicInteger completions = new AtomicInteger();
+    volatile int completionStatus = 200;
+    volatile int healthStatus = 200;
+
+    Stub(String name) throws IOException {
+      this.name = name;
+      server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+      server.createContext("/health", exchange -> respond(exchange, healthStatus, "{}"));
+      server.createContext("/v1/chat/completions", exchange -> {
+        completions.incrementAndGet();
+        exchange.getRequestBody().readAllBytes();
+        respond(exchange, completionStatus, completionStatus == 200 ? frame(name) + "data: [DONE]\n\n" : "busy");
+      });
+      server.start();
+    }
+
+    String url() {
+      return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private static void respond(HttpExchange exchange, int status, String body) throws IOException {
+      byte[] bytes = body.getBytes(StandardCharsets.UTF_8);
+      exchange.sendResponseHeaders(status, bytes.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(bytes);
+      }
+    }
+  }
+
+  private final List<Stub> stubs = new ArrayList<>();
+  private ChatUpstream upstream;
+
+  @BeforeEach
+  void setUp() throws IOException {
+    Stub primary = stub("primary");
+    SlotRouter slotRouter = new SlotRouter();
+    slotRouter.slotCount = 1;
+    upstream = new ChatUpstream();
+    upstream.slotRouter = slotRouter;
+    upstream.objectMapper = new ObjectMapper();
+    upstream.metrics = TestMetrics.create();
+    upstream.defaultUrl = primary.url();
+    upstream.connectTimeoutMs = 2000;
+    upstream.readTimeoutMs = 5000;
+    upstream.configuredReplicas = Optional.empty();
+    upstream.defaultReplicaCapacity = 1;
+    upstream.unhealthyAfter = 2;
+    upstream.init();
+  }
+
+  @AfterEach
+  void tearDown() {
+    stubs.forEach(stub -> stub.server.stop(0));
+  }
+
+  private Stub stub(String name) throws IOException {
+    Stub stub = new Stub(name);
+    stubs.add(stub);
+    return stub;
+  }
+
+  private static String frame(String content) {
+    return "data: {\"choices\":[{\"delta\":{\"content\":\"" + content + "\"}}]}\n\n";
+  }
+
+  /** Acquires leases until one lands on {@code url}; the random choice gets there quickly. */
+  private ChatUpstream.Lease leaseOn(String url) {
+    for (int i = 0; i < 200; i++) {
+      ChatUpstream.Lease lease = upstream.acquire();
+      if (lease.url().equals(url))
+        return lease;
+      lease.close();
+    }
+    throw new AssertionError("never picked " + url);
+  }
+
+  private static String complete(ChatUpstream.Lease lease) throws Exception {
+    try (InputStream body = lease.openStream(PAYLOAD)) {
+      return new String(body.readAllBytes(), StandardCharsets.UTF_8);
+    }
+  }
+
+  @Test
+  void failsOverWhenAServerRefusesBeforeStreaming() throws Exception {
+    Stub primary = stubs.get(0);
+    Stub replica = stub("replica");
+    upstream.addReplica(replica.url(), 1);
+
+    primary.completionStatus = 503;
+    try (ChatUpstream.Lease lease = leaseOn(primary.url())) {
+      assertEquals(frame("replica") + "data: [DONE]\n\n", complete(lease));
+      assertEquals(replica.url(), lease.url());
+    }
+    assertEquals(1, primary.completions.get());
+    assertFalse(upstream.current().healthy);
+
+    // The server that failed is skipped until a probe finds it healthy again
+    for (int i = 0; i < 20; i++) {
+      try (ChatUpstream.Lease lease = upstream.acquire()) {
+        assertEquals(replica.url(), lease.url());
+      }
+    }
+    primary.completionStatus = 200;
+    upstream.probeAll();
+    assertTrue(upstream.current().healthy);
+    leaseOn(primary.url()).close();
+  }
+
+  @Test
+  void failsOverWhenAServerRefusesConnections() throws Exception {
+    Stub replica = stub("replica");
+    upstream.addReplica(replica.url(), 1);
+    String closedPort;
+    try (ServerSocket socket = new ServerSocket(0)) {
+      closedPort = "http://127.0.0.1:" + socket.getLocalPort();
+    }
+    upstream.addReplica(closedPort, 1);
+    // One failed probe at registration is not yet enough to mark it down
+    assertTrue(upstream.getReplicas().stream().allMatch(state -> (boolean) state.get("healthy")));
+
+    try (ChatUpstream.Lease lease = leaseOn(closedPort)) {
+      String answer = complete(lease);
+      assertNotEquals(closedPort, lease.url());
+      assertTrue(answer.startsWith(frame("primary")) || answer.startsWith(frame("replica")), answer);
+    }
+  }
+
+  @Test
+  void doesNotFailOverOnceStreamingHasStarted() throws Exception {
+    Stub replica = stub("replica");
+    String first = frame("partial");
+    // Answers probes, and sends a completion's headers and first frame before dropping the connection
+    try (ServerSocket dropping = new ServerSocket(0)) {
+      Thread server = new Thread(() -> {
+        while (true) {
+          try (Socket socket = dropping.accept()) {
+            OutputStream out = socket.getOutputStream();
+            if (readRequest(socket.getInputStream()).startsWith("GET")) {
+              out.write("HTTP/1.1 200 OK\r\nContent-Length: 0\r\nConnection: close\r\n\r\n"
+                  .getBytes(StandardCharsets.UTF_8));
+              continue;
+            }
+            out.write(("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + Integer.toHexString(first.length()) + "\r\n" + first + "\r\n").getBytes(StandardCharsets.UTF_8));
+            out.flush();
+          } catch (IOException e) {
+            // The test closed the listening socket
+            return;
+          }
+        }
+      });
+      server.start();
+      String droppingUrl = "http://127.0.0.1:" + dropping.getLocalPort();
+      upstream.addReplica(droppingUrl, 1);
+      upstream.addReplica(replica.url(), 1);
+
+      try (ChatUpstream.Lease lease = leaseOn(droppingUrl)) {
+        InputStream body = lease.openStream(PAYLOAD);
+        assertEquals(first, new String(body.readNBytes(first.length()), StandardCharsets.UTF_8));
+        assertThrows(IOException.class, body::readAllBytes);
+        body.close();
+        assertEquals(droppingUrl, lease.url());
+      }
+    }
+    assertEquals(0, replica.completions.get());
+    assertEquals(0, stubs.get(0).completions.get());
+  }
+
+  @Test
+  void neverPicksARemovedReplica() throws Exception {
+    Stub kept = stub("kept");
+    Stub removed = stub("removed");
+    upstream.addReplica(kept.url(), 1);
+    upstream.addReplica(removed.url() + "/", 1);
+
+    // A request already on the replica finishes there
+    try (ChatUpstream.Lease lease = leaseOn(removed.url())) {
+      assertTrue(upstream.removeReplica(removed.url()));
+      assertEquals(frame("removed") + "data: [DONE]\n\n", complete(lease));
+    }
+    for (int i = 0; i < 50; i++) {
+      try (ChatUpstream.Lease lease = upstream.acquire()) {
+        assertNotEquals(removed.url(), lease.url());
+      }
+    }
+    assertEquals(1, removed.completions.get());
+    assertEquals(2, upstream.getReplicas().size());
+  }
+
+  @Test
+  void probesTakeAnUnhealthyServerOutOfRotationAndBack() throws Exception {
+    Stub replica = stub("replica");
+    upstream.addReplica(replica.url(), 2);
+    AtomicInteger capacityChanges = new AtomicInteger();
+    upstream.onCapacityChange(capacityChanges::incrementAndGet);
+    assertEquals(3, upstream.capacity());
+
+    replica.healthStatus = 500;
+    upstream.probeAll();
+    assertEquals(3, upstream.capacity());
+    upstream.probeAll();
+    assertEquals(1, upstream.capacity());
+    for (int i = 0; i < 20; i++) {
+      try (ChatUpstream.Lease lease = upstream.acquire()) {
+        assertEquals(stubs.get(0).url(), lease.url());
+      }
+    }
+
+    replica.healthStatus = 200;
+    upstream.probeAll();
+    assertEquals(3, upstream.capacity());
+    assertEquals(1, capacityChanges.get());
+    leaseOn(replica.url()).close();
+  }
+
+  /** Reads a request's headers and its Content-Length body; returns the headers. */
+  private static String readRequest(InputStream in) throws IOException {
+    StringBuilder headers = new StringBuilder();
+    while (!headers.toString().endsWith("\r\n\r\n")) {
+      int next = in.read();
+      if (next < 0)
+        throw new IOException("Connection closed mid-request");
+      headers.append((char) next);
+    }
+    for (String line : headers.toString().split("\r\n")) {
+      if (line.toLowerCase(Locale.ROOT).startsWith("content-length:"))
+        in.readNBytes(Integer.parseInt(line.substring(15).trim()));
+    }
+    return headers.toString();
+  }
+}
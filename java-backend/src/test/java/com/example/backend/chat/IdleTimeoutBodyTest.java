@@ -0,0 +1,112 @@
+package com.example.backend.chat;
+
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+class IdleTimeoutBodyTest {
+
+  private HttpServer server;
+  private final CountDownLatch release = new CountDownLatch(1);
+  private final HttpClient client = HttpClient.newBuilder().version(HttpClient.Version.HTTP_1_1).build();
+
+  @BeforeEach
+  void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    // Sends one frame, then stalls until released, then sends another
+    server.createContext("/stream", exchange -> {
+      exchange.sendResponseHeaders(200, 0);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write("data: one\n\n".getBytes(StandardCharsets.UTF_8));
+        out.flush();
+        release.await(10, TimeUnit.SECONDS);
+        out.write("data: two\n\n".getBytes(StandardCharsets.UTF_8));
+      } catch (InterruptedException | IOException e) {
+        // The client gave up on the stream
+      }
+    });
+    server.setExecutor(Executors.newCachedThreadPool());
+    server.start();
+  }
+
+  @AfterEach
+  void stop() {
+    release.countDown();
+    server.stop(0);
+  }
+
+  private InputStream open(long idleTimeoutMs) throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(
+        URI.create("http://127.0.0.1:" + server.getAddress().getPort() + "/stream")).build();
+    return client.send(request, IdleTimeoutBody.handler(idleTimeoutMs)).body();
+  }
+
+  private static String readFrame(InputStream in) throws IOException {
+    StringBuilder frame = new StringBuilder();
+    while (!frame.toString().endsWith("\n\n")) {
+      int b = in.read();
+      if (b < 0)
+        break;
+      frame.append((char) b);
+    }
+    return frame.toString();
+  }
+
+  @Test
+  void readsTheWholeStreamWhileDataKeepsComing() throws Exception {
+    try (InputStream body = open(5000)) {
+      assertEquals("data: one\n\n", readFrame(body));
+      release.countDown();
+      assertEquals("data: two\n\n", readFrame(body));
+      assertEquals(-1, body.read());
+    }
+  }
+
+  @Test
+  void failsAReadOnceTheServerGoesQuiet() throws Exception {
+    try (InputStream body = open(300)) {
+      assertEquals("data: one\n\n", readFrame(body));
+      assertTimeoutPreemptively(Duration.ofSeconds(5), () -> {
+        assertThrows(HttpTimeoutException.class, () -> body.read(new byte[64]));
+      });
+    }
+  }
+
+  @Test
+  void anInterruptEndsABlockedRead() throws Exception {
+    try (InputStream body = open(10000)) {
+      assertEquals("data: one\n\n", readFrame(body));
+      Thread reader = Thread.currentThread();
+      Thread interrupter = new Thread(() -> {
+        try {
+          Thread.sleep(200);
+        } catch (InterruptedException ignored) {
+        }
+        reader.interrupt();
+      });
+      interrupter.start();
+      assertThrows(InterruptedIOException.class, () -> body.read(new byte[64]));
+      Thread.interrupted();
+    }
+  }
+}
@@ -0,0 +1,177 @@
+package com.example.backend.chat;
+
+import com.example.backend.llama.LlamaRunner;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ResponseCacheTest {
+
+  private static final List<String> FRAMES = List.of(
+      "data: {\"choices\":[{\"delta\":{\"tool_name\":\"web_search\",\"status\":\"tool_start\"}}]}\n\n",
+      "data: {\"choices\":[{\"delta\":{\"content\":\"Hello\"}}]}\n\n",
+      "data: {\"choices\":[{\"delta\":{\"content\":\" world\"}}]}\n\n");
+
+  @TempDir
+  Path folder;
+
+  private ChatUpstream upstream;
+  private Vertx vertx;
+  private ResponseCache.Entry served;
+  private boolean servePaced;
+  private int port;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    SlotRouter slotRouter = new SlotRouter();
+    slotRouter.slotCount = 1;
+    upstream = new ChatUpstream();
+    upstream.slotRouter = slotRouter;
+    upstream.defaultUrl = "http://127.0.0.1:1";
+    upstream.configuredReplicas = Optional.empty();
+
+    // Replays whatever entry the test put in served, the way ChatController does
+    vertx = Vertx.vertx();
+    HttpServer server = vertx.createHttpServer().requestHandler(request -> {
+      SseWriter writer = new SseWriter(request.response(), vertx, 20, 4096);
+      new Thread(() -> {
+        try {
+          newCache().replay(served, writer, servePaced);
+        } catch (InterruptedException ignored) {
+        }
+        writer.complete();
+      }).start();
+    });
+    port = server.listen(0, "127.0.0.1").toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS)
+        .actualPort();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  private ResponseCache newCache() {
+    ResponseCache cache = new ResponseCache();
+    cache.objectMapper = new ObjectMapper();
+    cache.llamaRunner = new LlamaRunner();
+    cache.chatUpstream = upstream;
+    cache.enabled = true;
+    cache.maxBytes = 1 << 20;
+    cache.maxEntryBytes = 1 << 16;
+    cache.ttlSeconds = 3600;
+    cache.replayMode = "instant";
+    cache.diskPath = Optional.of(folder.toString());
+    cache.diskMaxBytes = 1 << 20;
+    cache.init();
+    return cache;
+  }
+
+  private static Map<String, Object> payload(double temperature) {
+    Map<String, Object> payload = new HashMap<>();
+    payload.put("messages", List.of(Map.of("role", "user", "content", "hi")));
+    payload.put("temperature", temperature);
+    payload.put("stream", true);
+    return payload;
+  }
+
+  private static void record(ResponseCache cache, String key, long gapMs) throws InterruptedException {
+    ResponseCache.Recording recording = cache.record(key);
+    for (String frame : FRAMES) {
+      Thread.sleep(gapMs);
+      byte[] bytes = frame.getBytes(StandardCharsets.UTF_8);
+      recording.add(bytes, 0, bytes.length);
+    }
+    cache.store(recording, "Hello world");
+  }
+
+  private String fetchReplay() throws Exception {
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/")).build();
+    return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+  }
+
+  @Test
+  void keysOnlyDeterministicRequestsAndIgnoresTransportFields() {
+    ResponseCache cache = newCache();
+    assertNull(cache.key(payload(0.7)));
+
+    Map<String, Object> other = payload(0);
+    other.put("stream", false);
+    other.put("id_slot", 0);
+    other.put("conversation_id", "abc");
+    assertEquals(cache.key(payload(0)), cache.key(other));
+
+    other.put("max_tokens", 16);
+    assertNotEquals(cache.key(payload(0)), cache.key(other));
+  }
+
+  @Test
+  void replaysTheRecordedFramesByteForByte() throws Exception {
+    ResponseCache cache = newCache();
+    String key = cache.key(payload(0));
+    assertNull(cache.lookup(key));
+    record(cache, key, 0);
+
+    served = cache.lookup(key);
+    assertNotNull(served);
+    assertEquals("Hello world", served.getAnswer());
+    assertEquals(String.join("", FRAMES), fetchReplay());
+    assertEquals(1L, cache.getStats().get("hits"));
+  }
+
+  @Test
+  void pacedReplayKeepsTheOriginalTiming() throws Exception {
+    ResponseCache cache = newCache();
+    String key = cache.key(payload(0));
+    record(cache, key, 150);
+
+    served = cache.lookup(key);
+    servePaced = true;
+    long start = System.nanoTime();
+    assertEquals(String.join("", FRAMES), fetchReplay());
+    assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(400));
+  }
+
+  @Test
+  void servesFromDiskAfterARestartUntilTheModelChanges() throws Exception {
+    ResponseCache first = newCache();
+    String key = first.key(payload(0));
+    record(first, key, 0);
+
+    ResponseCache restarted = newCache();
+    assertEquals(key, restarted.key(payload(0)));
+    served = restarted.lookup(key);
+    assertNotNull(served);
+    assertEquals(1L, restarted.getStats().get("diskHits"));
+    assertEquals(String.join("", FRAMES), fetchReplay());
+
+    // Another model behind the upstream: nothing recorded for the old one may be replayed
+    upstream.switchTo("http://127.0.0.1:2");
+    String newKey = restarted.key(payload(0));
+    assertNull(restarted.lookup(newKey));
+    assertNull(restarted.lookup(key));
+    assertEquals(1L, restarted.getStats().get("invalidations"));
+  }
+}
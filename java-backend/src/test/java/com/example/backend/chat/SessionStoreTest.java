@@ -0,0 +1,101 @@
+package com.example.backend.chat;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * The session protocol behind /api/chat's 409: a client whose view of the
+ * history is out of step is refused and resyncs by resending it in full.
+ */
+class SessionStoreTest {
+
+  @TempDir
+  Path folder;
+
+  private SessionStore store;
+
+  @BeforeEach
+  void setUp() {
+    store = open(128);
+  }
+
+  @AfterEach
+  void tearDown() {
+    store.close(null);
+  }
+
+  private SessionStore open(int memoryEntries) {
+    SessionStore sessions = new SessionStore();
+    sessions.objectMapper = new ObjectMapper();
+    sessions.logPath = folder.resolve("sessions.log").toString();
+    sessions.memoryEntries = memoryEntries;
+    sessions.compactRatio = 0.5;
+    sessions.init();
+    return sessions;
+  }
+
+  private static Map<String, Object> user(String content) {
+    return Map.of("role", "user", "content", content);
+  }
+
+  private static List<Object> contents(List<Map<String, Object>> history) {
+    List<Object> contents = new ArrayList<>();
+    for (Map<String, Object> message : history)
+      contents.add(message.get("content"));
+    return contents;
+  }
+
+  @Test
+  void appendsOnlyTheNewMessagesOfEachTurn() throws Exception {
+    assertEquals(List.of("one"), contents(store.open("s1", List.of(user("one")), 0, false)));
+    store.appendAnswer("s1", "answer one");
+
+    List<Map<String, Object>> history = store.open("s1", List.of(user("two")), 2, false);
+    assertEquals(List.of("one", "answer one", "two"), contents(history));
+  }
+
+  @Test
+  void refusesAClientThatIsOutOfStepUntilItResends() throws Exception {
+    store.open("s1", List.of(user("one")), 0, false);
+    store.appendAnswer("s1", "answer one");
+
+    // The client missed the answer, e.g. it disconnected mid-stream
+    assertNull(store.open("s1", List.of(user("two")), 1, false));
+    // A session the server no longer has, with a client that expected one
+    assertNull(store.open("gone", List.of(user("hello")), 4, false));
+
+    // The 409 tells the client to resend everything with session_reset
+    List<Map<String, Object>> resent = List.of(user("one"), user("two"));
+    assertEquals(List.of("one", "two"), contents(store.open("s1", resent, null, true)));
+    assertEquals(List.of("one", "two", "three"),
+        contents(store.open("s1", List.of(user("three")), 2, false)));
+  }
+
+  @Test
+  void restoresSessionsFromTheLog() throws Exception {
+    store.open("s1", List.of(user("one")), 0, false);
+    store.appendAnswer("s1", "answer one");
+    store.open("s2", List.of(user("other")), 0, false);
+    store.open("s2", List.of(user("replaced")), null, true);
+    assertTrue(store.delete("s2"));
+    store.close(null);
+
+    store = open(1);
+    assertEquals(List.of("one", "answer one", "two"),
+        contents(store.open("s1", List.of(user("two")), 2, false)));
+    assertNull(store.open("s2", List.of(user("again")), 2, false));
+    assertEquals(1, store.getStats().get("sessions"));
+  }
+}
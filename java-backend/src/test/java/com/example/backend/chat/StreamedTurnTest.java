@@ -0,0 +1,186 @@
+package com.example.backend.chat;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import io.vertx.core.Vertx;
+import io.vertx.core.http.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * One iteration of the tool loop as ChatController streams it: content frames
+ * go to the client undecoded as they arrive, and tool call fragments are held
+ * back and merged until the stream ends.
+ */
+class StreamedTurnTest {
+
+  private final ObjectMapper objectMapper = new ObjectMapper()
+      .configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
+  private ChatController controller;
+  private Vertx vertx;
+  private int port;
+  private volatile String upstreamBody;
+  private volatile StreamedTurn turn;
+
+  @BeforeEach
+  void setUp() throws Exception {
+    SlotRouter slotRouter = new SlotRouter();
+    slotRouter.slotCount = 1;
+    controller = new ChatController();
+    controller.objectMapper = objectMapper;
+    controller.slotRouter = slotRouter;
+
+    // Streams upstreamBody through the controller to whoever asks, the way /api/chat does
+    vertx = Vertx.vertx();
+    HttpServer server = vertx.createHttpServer().requestHandler(request -> {
+      SseWriter writer = new SseWriter(request.response(), vertx, 20, 4096);
+      new Thread(() -> {
+        try {
+          turn = controller.readTurn(trickle(upstreamBody), writer);
+        } catch (IOException e) {
+          throw new UncheckedIOException(e);
+        } finally {
+          writer.complete();
+        }
+      }).start();
+    });
+    port = server.listen(0, "127.0.0.1").toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS)
+        .actualPort();
+  }
+
+  @AfterEach
+  void tearDown() throws Exception {
+    vertx.close().toCompletionStage().toCompletableFuture().get(5, TimeUnit.SECONDS);
+  }
+
+  private static String frame(String json) {
+    return "data: " + json + "\n\n";
+  }
+
+  private static String content(String text) {
+    return frame("{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"" + text + "\"},\"finish_reason\":null}]}");
+  }
+
+  /** Hands out a few bytes per read, so frames arrive split the way a socket splits them. */
+  private static InputStream trickle(String body) {
+    return new ByteArrayInputStream(body.getBytes(StandardCharsets.UTF_8)) {
+      @Override
+      public synchronized int read(byte[] b, int off, int len) {
+        return super.read(b, off, Math.min(len, 7));
+      }
+    };
+  }
+
+  /** Streams {@code body} as the upstream response; returns what the client received. */
+  private String stream(String body) throws Exception {
+    upstreamBody = body;
+    HttpRequest request = HttpRequest.newBuilder(URI.create("http://127.0.0.1:" + port + "/")).build();
+    return HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString()).body();
+  }
+
+  @Test
+  void forwardsContentAndMergesToolCallFragments() throws Exception {
+    String contentFrames = content("Let") + content(" me") + content(" check.");
+    String finish = frame("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"tool_calls\"}],"
+        + "\"timings\":{\"predicted_n\":12,\"predicted_ms\":240.5}}");
+    String body = contentFrames
+        + frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"id\":\"call_abc\",\"type\":\"function\","
+            + "\"function\":{\"name\":\"web_search\",\"arguments\":\"\"}}]}}]}")
+        + frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"{\\\"query\\\":\"}}]}}]}")
+        + frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":1,\"function\":{\"name\":\"fetch_page\","
+            + "\"arguments\":\"{\\\"url\\\":\\\"https://example.com\\\"}\"}}]}}]}")
+        + frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"index\":0,\"function\":{\"arguments\":\"\\\"quarkus\\\"}\"}}]}}]}")
+        + finish
+        + frame("[DONE]");
+
+    String forwarded = stream(body);
+
+    // Content went out byte for byte, tool fragments not at all
+    assertEquals(contentFrames + finish, forwarded);
+    assertEquals("Let me check.", turn.getContent());
+    assertEquals("tool_calls", turn.getFinishReason());
+    assertEquals(12, turn.getTimings().predicted_n);
+    assertEquals(3, turn.getContentChunks());
+    assertTrue(turn.getFirstContentNanos() > 0);
+
+    assertTrue(turn.hasToolCalls());
+    List<ChatResponse.ToolCall> calls = turn.getToolCalls();
+    assertEquals(2, calls.size());
+    assertEquals("call_abc", calls.get(0).id);
+    assertEquals("web_search", calls.get(0).function.name);
+    assertEquals("{\"query\":\"quarkus\"}", calls.get(0).function.arguments);
+    assertEquals("call_1", calls.get(1).id);
+    assertEquals("fetch_page", calls.get(1).function.name);
+    assertEquals("{\"url\":\"https://example.com\"}", calls.get(1).function.arguments);
+  }
+
+  @Test
+  void keepsContentThatArrivesWithTheFinishReasonLast() throws Exception {
+    String body = content("The answer")
+        + content(" is")
+        + frame("{\"choices\":[{\"index\":0,\"delta\":{\"content\":\" 42.\"},\"finish_reason\":\"stop\"}]}")
+        + frame("[DONE]");
+
+    stream(body);
+
+    assertFalse(turn.hasToolCalls());
+    assertEquals("stop", turn.getFinishReason());
+    assertEquals("The answer is 42.", turn.getContent());
+    // Decoding the held-back frames twice must not repeat them
+    assertEquals("The answer is 42.", turn.getContent());
+  }
+
+  @Test
+  void keepsContentInArrivalOrderAroundDecodedFrames() throws Exception {
+    // A frame that is decoded for its timings also carries content, mid-stream
+    String body = content("A")
+        + frame("{\"choices\":[{\"index\":0,\"delta\":{\"content\":\"B\"}}],\"timings\":{\"predicted_n\":2}}")
+        + content("C")
+        + frame("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"stop\"}]}")
+        + frame("[DONE]");
+
+    stream(body);
+
+    assertEquals("ABC", turn.getContent());
+    assertEquals(3, turn.getContentChunks());
+  }
+
+  @Test
+  void continuesTheOpenCallForFragmentsWithoutAnIndex() throws Exception {
+    String body = frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"id\":\"call_a\",\"type\":\"function\","
+            + "\"function\":{\"name\":\"web_search\",\"arguments\":\"{\\\"query\\\":\"}}]}}]}")
+        + frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"function\":{\"arguments\":\"\\\"llama\\\"}\"}}]}}]}")
+        + frame("{\"choices\":[{\"delta\":{\"tool_calls\":[{\"id\":\"call_b\",\"type\":\"function\","
+            + "\"function\":{\"name\":\"fetch_page\",\"arguments\":\"{}\"}}]}}]}")
+        + frame("{\"choices\":[{\"index\":0,\"delta\":{},\"finish_reason\":\"tool_calls\"}]}")
+        + frame("[DONE]");
+
+    stream(body);
+
+    List<ChatResponse.ToolCall> calls = turn.getToolCalls();
+    assertEquals(2, calls.size());
+    assertEquals("call_a", calls.get(0).id);
+    assertEquals("web_search", calls.get(0).function.name);
+    assertEquals("{\"query\":\"llama\"}", calls.get(0).function.arguments);
+    assertEquals("call_b", calls.get(1).id);
+    assertEquals("fetch_page", calls.get(1).function.name);
+  }
+}
@@ -0,0 +1,146 @@
+package com.example.backend.chat.tools;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SearchCacheTest {
+
+  private static final String KEY = SearchCache.key("Quarkus  Native", null);
+
+  private SearchCache cache;
+  private ExecutorService callers;
+
+  @BeforeEach
+  void setUp() {
+    cache = new SearchCache();
+    cache.ttlSeconds = 300;
+    cache.maxEntries = 16;
+    callers = Executors.newCachedThreadPool();
+  }
+
+  @AfterEach
+  void tearDown() {
+    callers.shutdownNow();
+    cache.shutdown();
+  }
+
+  private static SearchFetcher.Results results(boolean complete, String... urls) {
+    List<Map<String, String>> ranked = new ArrayList<>();
+    for (String url : urls)
+      ranked.add(Map.of("title", url, "url", url, "snippet", ""));
+    return new SearchFetcher.Results(ranked, complete);
+  }
+
+  /** Submits a lookup and returns once it is waiting on the in-flight fetch. */
+  private Future<SearchFetcher.Results> lookup(Set<String> seen, int wanted, SearchCache.Fetcher fetcher)
+      throws InterruptedException {
+    long coalescedBefore = (long) cache.getStats().get("coalesced");
+    long missesBefore = (long) cache.getStats().get("misses");
+    Future<SearchFetcher.Results> future = callers.submit(() -> cache.get(KEY, seen, wanted, fetcher));
+    long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+    while ((long) cache.getStats().get("coalesced") == coalescedBefore
+        && (long) cache.getStats().get("misses") == missesBefore) {
+      assertTrue(System.nanoTime() < deadline, "lookup never reached the cache");
+      Thread.sleep(5);
+    }
+    return future;
+  }
+
+  @Test
+  void concurrentLookupsShareOneFetch() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger fetches = new AtomicInteger();
+    SearchFetcher.Results page = results(true, "a", "b", "c");
+    SearchCache.Fetcher fetcher = () -> {
+      fetches.incrementAndGet();
+      release.await();
+      return page;
+    };
+
+    Future<SearchFetcher.Results> first = lookup(Set.of(), 2, fetcher);
+    Future<SearchFetcher.Results> second = lookup(Set.of(), 2, fetcher);
+    release.countDown();
+
+    assertSame(page, first.get(5, TimeUnit.SECONDS));
+    assertSame(page, second.get(5, TimeUnit.SECONDS));
+    assertEquals(1, fetches.get());
+    assertSame(page, cache.get(KEY, Set.of(), 2, () -> {
+      throw new AssertionError("should have been a hit");
+    }));
+  }
+
+  @Test
+  void cancelledLeaderOnlyStopsWaiting() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    SearchFetcher.Results page = results(true, "a", "b");
+    SearchCache.Fetcher fetcher = () -> {
+      release.await();
+      return page;
+    };
+
+    Future<SearchFetcher.Results> leader = lookup(Set.of(), 1, fetcher);
+    Future<SearchFetcher.Results> follower = lookup(Set.of(), 1, fetcher);
+    // What ToolExecutor does to a search that outlived its turn
+    leader.cancel(true);
+    release.countDown();
+
+    assertSame(page, follower.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void followerRetriesWhenTheLeadersFetchWasInterrupted() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    Future<SearchFetcher.Results> leader = lookup(Set.of(), 1, () -> {
+      release.await();
+      throw new InterruptedException();
+    });
+    SearchFetcher.Results own = results(true, "x");
+    Future<SearchFetcher.Results> follower = lookup(Set.of(), 1, () -> own);
+    release.countDown();
+
+    assertThrows(ExecutionException.class, () -> leader.get(5, TimeUnit.SECONDS));
+    assertSame(own, follower.get(5, TimeUnit.SECONDS));
+  }
+
+  @Test
+  void followerFetchesAgainWhenTheSharedResultDoesNotCoverIt() throws Exception {
+    CountDownLatch release = new CountDownLatch(1);
+    // The leader stopped reading once it had two unseen results
+    SearchFetcher.Results partial = results(false, "a", "b");
+    Future<SearchFetcher.Results> leader = lookup(Set.of(), 2, () -> {
+      release.await();
+      return partial;
+    });
+    SearchFetcher.Results deeper = results(false, "a", "b", "c");
+    CompletableFuture<Void> followerFetched = new CompletableFuture<>();
+    Future<SearchFetcher.Results> follower = lookup(Set.of("a", "b"), 1, () -> {
+      followerFetched.complete(null);
+      return deeper;
+    });
+    release.countDown();
+
+    assertSame(partial, leader.get(5, TimeUnit.SECONDS));
+    assertSame(deeper, follower.get(5, TimeUnit.SECONDS));
+    assertTrue(followerFetched.isDone());
+    assertEquals(List.of("c"), follower.get().unseen(Set.of("a", "b"), 1).stream().map(r -> r.get("url")).toList());
+  }
+}
@@ -0,0 +1,185 @@
+package com.example.backend.llama;
+
+import com.example.backend.metrics.TestMetrics;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Segmented downloads against a stub server that serves Range requests. */
+class ModelDownloaderTest {
+
+  private static final String FILE = "model.gguf";
+  private static final Pattern RANGE = Pattern.compile("bytes=(\\d+)-(\\d+)");
+  // Three segments of at least the 16MB minimum
+  private static final byte[] DATA = new byte[48 << 20];
+
+  static {
+    new Random(42).nextBytes(DATA);
+  }
+
+  @TempDir
+  Path folder;
+
+  private HttpServer server;
+  private ModelDownloader downloader;
+  private final List<Long> rangeStarts = new CopyOnWriteArrayList<>();
+  private volatile boolean emptyBodies;
+
+  @BeforeEach
+  void start() throws IOException {
+    server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/", this::serve);
+    server.start();
+
+    downloader = new ModelDownloader();
+    downloader.objectMapper = new ObjectMapper();
+    downloader.metrics = TestMetrics.create();
+    downloader.baseUrl = "http://127.0.0.1:" + server.getAddress().getPort();
+    downloader.segmentCount = 3;
+  }
+
+  @AfterEach
+  void stop() {
+    server.stop(0);
+  }
+
+  private void serve(HttpExchange exchange) throws IOException {
+    exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+    if ("HEAD".equals(exchange.getRequestMethod())) {
+      exchange.getResponseHeaders().set("Content-Length", Long.toString(DATA.length));
+      exchange.sendResponseHeaders(200, -1);
+      exchange.close();
+      return;
+    }
+
+    String range = exchange.getRequestHeaders().getFirst("Range");
+    Matcher matcher = range != null ? RANGE.matcher(range) : null;
+    if (matcher == null || !matcher.matches()) {
+      exchange.sendResponseHeaders(200, DATA.length);
+      try (OutputStream out = exchange.getResponseBody()) {
+        out.write(DATA);
+      }
+      return;
+    }
+
+    int from = Integer.parseInt(matcher.group(1));
+    int to = Integer.parseInt(matcher.group(2));
+    rangeStarts.add((long) from);
+    if (emptyBodies) {
+      exchange.sendResponseHeaders(206, -1);
+      exchange.close();
+      return;
+    }
+    exchange.getResponseHeaders().set("Content-Range", "bytes " + from + "-" + to + "/" + DATA.length);
+    exchange.sendResponseHeaders(206, to - from + 1);
+    try (OutputStream out = exchange.getResponseBody()) {
+      out.write(DATA, from, to - from + 1);
+    }
+  }
+
+  private static String sha256(byte[] data) throws Exception {
+    return HexFormat.of().formatHex(MessageDigest.getInstance("SHA-256").digest(data));
+  }
+
+  private void download(String sha256) {
+    assertTimeoutPreemptively(Duration.ofSeconds(60),
+        () -> downloader.performDownload("org/repo", FILE, folder.toString(), sha256));
+  }
+
+  @Test
+  void downloadsAllSegmentsAndVerifiesChecksum() throws Exception {
+    download(sha256(DATA));
+
+    assertEquals(100, downloader.getProgress(FILE));
+    assertEquals(3, rangeStarts.size());
+    assertArrayEquals(DATA, Files.readAllBytes(folder.resolve(FILE)));
+    assertFalse(Files.exists(folder.resolve(FILE + ".part")));
+    assertFalse(Files.exists(folder.resolve(FILE + ".part.json")));
+  }
+
+  @Test
+  void resumesSegmentsFromTheirSavedPositions() throws Exception {
+    long segment = DATA.length / 3;
+    long halfway = segment + segment / 2;
+    String url = downloader.baseUrl + "/org/repo/resolve/main/" + FILE;
+
+    // The first segment is finished and the second got halfway before the process stopped
+    try (RandomAccessFile part = new RandomAccessFile(folder.resolve(FILE + ".part").toFile(), "rw")) {
+      part.setLength(DATA.length);
+      part.write(DATA, 0, (int) halfway);
+    }
+    ModelDownloader.DownloadState state = new ModelDownloader.DownloadState();
+    state.repo = "org/repo";
+    state.fileName = FILE;
+    state.url = url;
+    state.size = DATA.length;
+    for (int i = 0; i < 3; i++) {
+      ModelDownloader.Segment s = new ModelDownloader.Segment();
+      s.start = i * segment;
+      s.end = i == 2 ? DATA.length - 1 : (i + 1) * segment - 1;
+      s.position = i == 0 ? s.end + 1 : i == 1 ? halfway : s.start;
+      state.segments.add(s);
+    }
+    new ObjectMapper().writeValue(folder.resolve(FILE + ".part.json").toFile(), state);
+
+    download(sha256(DATA));
+
+    assertEquals(100, downloader.getProgress(FILE));
+    List<Long> starts = rangeStarts.stream().sorted().toList();
+    assertEquals(List.of(halfway, 2 * segment), starts);
+    assertArrayEquals(DATA, Files.readAllBytes(folder.resolve(FILE)));
+  }
+
+  @Test
+  void givesUpOnEmptyPartialResponses() {
+    emptyBodies = true;
+
+    download(null);
+
+    assertEquals(-500, downloader.getProgress(FILE));
+    assertFalse(Files.exists(folder.resolve(FILE)));
+    // The first segment to try its range three times without progress stops the others
+    Map<Long, Long> attempts = rangeStarts.stream().collect(Collectors.groupingBy(start -> start, Collectors.counting()));
+    assertEquals(3L, Collections.max(attempts.values()));
+  }
+
+  @Test
+  void deletesThePartFileOnChecksumMismatch() throws Exception {
+    byte[] other = Arrays.copyOf(DATA, 16);
+    download(sha256(other));
+
+    assertEquals(-500, downloader.getProgress(FILE));
+    assertFalse(Files.exists(folder.resolve(FILE)));
+    assertFalse(Files.exists(folder.resolve(FILE + ".part")));
+    assertTrue(rangeStarts.size() >= 3);
+  }
+}
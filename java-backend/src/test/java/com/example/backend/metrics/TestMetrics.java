@@ -0,0 +1,17 @@
+package com.example.backend.metrics;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+/** A {@link BackendMetrics} backed by an in-memory registry, for tests outside the container. */
+public final class TestMetrics {
+
+  private TestMetrics() {
+  }
+
+  public static BackendMetrics create() {
+    BackendMetrics metrics = new BackendMetrics();
+    metrics.registry = new SimpleMeterRegistry();
+    metrics.init();
+    return metrics;
+  }
+}
@@ -0,0 +1,175 @@
+package com.example.backend.retrieval;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class DocumentIndexerTest {
+
+  /** Bag-of-words vectors, so a query finds the chunks that contain its words. */
+  static class WordEmbeddings extends EmbeddingClient {
+    static final int DIM = 64;
+
+    WordEmbeddings() {
+      embeddingUrl = Optional.of("http://embeddings.invalid");
+    }
+
+    @Override
+    public Result embed(List<String> texts) {
+      List<float[]> vectors = new ArrayList<>();
+      for (String text : texts) {
+        float[] vector = new float[DIM];
+        for (String word : text.toLowerCase(Locale.ROOT).split("\\W+")) {
+          if (!word.isEmpty())
+            vector[Math.floorMod(word.hashCode(), DIM)] += 1;
+        }
+        vectors.add(vector);
+      }
+      return new Result("words", vectors);
+    }
+  }
+
+  @TempDir
+  Path folder;
+
+  private Path docs;
+  private DocumentIndexer indexer;
+
+  @BeforeEach
+  void setUp() {
+    docs = folder.resolve("documents");
+    indexer = open();
+  }
+
+  @AfterEach
+  void tearDown() {
+    indexer.close(null);
+  }
+
+  private DocumentIndexer open() {
+    DocumentIndexer documents = new DocumentIndexer();
+    documents.objectMapper = new ObjectMapper();
+    documents.embeddings = new WordEmbeddings();
+    documents.enabled = true;
+    documents.docsPath = docs.toString();
+    documents.indexPath = folder.resolve("index").toString();
+    documents.chunkChars = 100;
+    documents.chunkOverlap = 30;
+    documents.hnswM = 8;
+    documents.efConstruction = 50;
+    documents.efSearch = 32;
+    documents.compactRatio = 0.5;
+    documents.init();
+    return documents;
+  }
+
+  private static List<String> words(String text) {
+    return Arrays.asList(text.strip().split("\\s+"));
+  }
+
+  private String topHit(String query) throws Exception {
+    DocumentIndexer.Hit hit = indexer.search(query, 1).get(0);
+    return hit.chunk.path + ": " + hit.chunk.text;
+  }
+
+  @Test
+  void packsShortParagraphsIntoOneChunk() {
+    assertEquals(List.of("First paragraph.\nSecond one, with extra spaces."),
+        indexer.split("First paragraph.\n\n  Second   one, with\nextra spaces.  \n\n\n"));
+    assertEquals(List.of(), indexer.split("\n\n  \n"));
+  }
+
+  @Test
+  void overlapsChunksAtWordBoundariesWithoutLosingWords() {
+    StringBuilder text = new StringBuilder();
+    for (int paragraph = 0; paragraph < 6; paragraph++) {
+      for (int word = 0; word < 15 + paragraph * 7; word++)
+        text.append("p").append(paragraph).append("w").append(word).append(' ');
+      text.append("\n\n");
+    }
+
+    List<String> parts = indexer.split(text.toString());
+    assertTrue(parts.size() > 3);
+    List<String> rebuilt = new ArrayList<>(words(parts.get(0)));
+    for (int i = 1; i < parts.size(); i++) {
+      String previous = parts.get(i - 1);
+      String part = parts.get(i);
+      assertTrue(part.length() <= 100, part);
+      // The next chunk opens with whole words from the end of the previous one, at most 30 chars of them
+      List<String> partWords = words(part);
+      String previousWords = String.join(" ", words(previous));
+      int shared = partWords.size();
+      while (shared > 0 && !previousWords.endsWith(" " + String.join(" ", partWords.subList(0, shared))))
+        shared--;
+      assertTrue(shared > 0, "no overlap before " + part);
+      assertTrue(String.join(" ", partWords.subList(0, shared)).length() <= 30, part);
+      rebuilt.addAll(partWords.subList(shared, partWords.size()));
+    }
+    assertEquals(words(text.toString()), rebuilt);
+  }
+
+  @Test
+  void cutsAWordLongerThanAChunk() {
+    String word = "x".repeat(250);
+    List<String> parts = indexer.split("short start\n\n" + word);
+    assertEquals(String.join("", parts).replace("short start\n", "").replace("\n", ""), word);
+    for (String part : parts)
+      assertTrue(part.length() <= 100);
+  }
+
+  @Test
+  void reindexesChangedFilesAndCompactsAwayRemovedOnes() throws Exception {
+    Files.createDirectories(docs);
+    StringBuilder apples = new StringBuilder();
+    for (int i = 0; i < 8; i++)
+      apples.append("Orchard note ").append(i).append(": the apple harvest was early this year.\n\n");
+    Files.writeString(docs.resolve("apples.txt"), apples);
+    Files.writeString(docs.resolve("fruit.md"), "# Fruit\n\nA banana is a berry.");
+    Files.writeString(docs.resolve("page.html"),
+        "<html><body><script>var banana = 1;</script><p>The kiwi is a bird.</p></body></html>");
+
+    assertTrue(indexer.ingest());
+    assertEquals(3, indexer.getStats().get("files"));
+    int appleChunks = (int) indexer.getStats().get("chunks") - 2;
+    assertTrue(appleChunks > 1);
+    assertEquals("fruit.md: # Fruit\nA banana is a berry.", topHit("banana"));
+    assertEquals("page.html: The kiwi is a bird.", topHit("kiwi bird"));
+
+    // A changed file replaces its chunks; the old ones are tombstoned
+    Files.writeString(docs.resolve("fruit.md"), "# Fruit\n\nA cherry is a drupe, not a berry.");
+    assertTrue(indexer.ingest());
+    assertEquals(1, indexer.getStats().get("deletedChunks"));
+    assertEquals("fruit.md: # Fruit\nA cherry is a drupe, not a berry.", topHit("cherry drupe"));
+    for (DocumentIndexer.Hit hit : indexer.search("banana", 10))
+      assertFalse(hit.chunk.text.contains("banana"), hit.chunk.text);
+
+    // Removing most of the index rebuilds it from the live chunks only
+    Files.delete(docs.resolve("apples.txt"));
+    Files.delete(docs.resolve("page.html"));
+    assertTrue(indexer.ingest());
+    assertEquals(1, indexer.getStats().get("files"));
+    assertEquals(1, indexer.getStats().get("chunks"));
+    assertEquals(0, indexer.getStats().get("deletedChunks"));
+    assertEquals("fruit.md: # Fruit\nA cherry is a drupe, not a berry.", topHit("cherry"));
+
+    // The compacted index is what a restart maps
+    indexer.close(null);
+    indexer = open();
+    assertEquals(1, indexer.getStats().get("chunks"));
+    assertEquals("fruit.md: # Fruit\nA cherry is a drupe, not a berry.", topHit("drupe"));
+  }
+}
@@ -0,0 +1,174 @@
+package com.example.backend.retrieval;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/** Search quality of the HNSW graph, measured against a brute-force scan. */
+class VectorIndexTest {
+
+  private static final int DIM = 32;
+  private static final int M = 16;
+  private static final int EF_CONSTRUCTION = 100;
+  private static final int EF_SEARCH = 32;
+  private static final int K = 10;
+  // More than the initial mapping, so the file is remapped while nodes are added
+  private static final int NODES = 3000;
+
+  @TempDir
+  Path folder;
+
+  private final Random random = new Random(7);
+
+  private float[] randomVector() {
+    float[] vector = new float[DIM];
+    for (int i = 0; i < DIM; i++)
+      vector[i] = (float) random.nextGaussian();
+    return vector;
+  }
+
+  private static float cosine(float[] a, float[] b) {
+    double dot = 0;
+    double normA = 0;
+    double normB = 0;
+    for (int i = 0; i < a.length; i++) {
+      dot += a[i] * b[i];
+      normA += a[i] * a[i];
+      normB += b[i] * b[i];
+    }
+    return (float) (dot / Math.sqrt(normA * normB));
+  }
+
+  /** Ids of the {@code k} live vectors most similar to {@code query}. */
+  private static Set<Integer> exact(List<float[]> vectors, Set<Integer> deleted, float[] query, int k) {
+    List<Integer> ids = new ArrayList<>();
+    for (int id = 0; id < vectors.size(); id++) {
+      if (!deleted.contains(id))
+        ids.add(id);
+    }
+    ids.sort((a, b) -> Float.compare(cosine(vectors.get(b), query), cosine(vectors.get(a), query)));
+    return new HashSet<>(ids.subList(0, k));
+  }
+
+  /** Share of the true top-k found by the index over {@code queries}. */
+  private static double recall(VectorIndex index, List<float[]> vectors, Set<Integer> deleted,
+      List<float[]> queries) {
+    int found = 0;
+    for (float[] query : queries) {
+      Set<Integer> truth = exact(vectors, deleted, query, K);
+      for (VectorIndex.Hit hit : index.search(query, K, EF_SEARCH)) {
+        assertFalse(deleted.contains(hit.id), "a deleted node was returned");
+        if (truth.contains(hit.id))
+          found++;
+      }
+    }
+    return (double) found / (queries.size() * K);
+  }
+
+  private List<float[]> fill(VectorIndex index) throws IOException {
+    List<float[]> vectors = new ArrayList<>();
+    for (int i = 0; i < NODES; i++) {
+      float[] vector = randomVector();
+      vectors.add(vector);
+      assertEquals(i, index.add(vector, 1000L + i));
+    }
+    return vectors;
+  }
+
+  private List<float[]> queries(int count) {
+    List<float[]> queries = new ArrayList<>();
+    for (int i = 0; i < count; i++)
+      queries.add(randomVector());
+    return queries;
+  }
+
+  @Test
+  void findsNearlyAllTrueNeighbours() throws IOException {
+    try (VectorIndex index = VectorIndex.open(folder.resolve("vectors.hnsw"), DIM, M, EF_CONSTRUCTION)) {
+      List<float[]> vectors = fill(index);
+      assertEquals(NODES, index.size());
+
+      double recall = recall(index, vectors, Set.of(), queries(50));
+      assertTrue(recall >= 0.9, "recall " + recall);
+
+      // A stored vector is its own nearest neighbour, with its payload
+      VectorIndex.Hit self = index.search(vectors.get(123), 1, EF_SEARCH).get(0);
+      assertEquals(123, self.id);
+      assertEquals(1123L, self.payload);
+      assertEquals(1f, self.score, 1e-4);
+    }
+  }
+
+  @Test
+  void skipsDeletedNodesWithoutLosingRecall() throws IOException {
+    try (VectorIndex index = VectorIndex.open(folder.resolve("vectors.hnsw"), DIM, M, EF_CONSTRUCTION)) {
+      List<float[]> vectors = fill(index);
+      List<float[]> queries = queries(50);
+
+      // Delete half the nodes, including the best answers to the queries
+      Set<Integer> deleted = new HashSet<>();
+      for (float[] query : queries)
+        deleted.addAll(exact(vectors, deleted, query, 3));
+      for (int id = 0; deleted.size() < NODES / 2; id += 2)
+        deleted.add(id);
+      for (int id : deleted)
+        index.markDeleted(id);
+      index.markDeleted(deleted.iterator().next());
+      assertEquals(deleted.size(), index.deletedCount());
+
+      double recall = recall(index, vectors, deleted, queries);
+      assertTrue(recall >= 0.9, "recall " + recall);
+    }
+  }
+
+  @Test
+  void reopensTheMappedFileWithTheSameGraph() throws IOException {
+    Path file = folder.resolve("vectors.hnsw");
+    List<float[]> vectors;
+    List<float[]> queries = queries(20);
+    List<List<Integer>> before = new ArrayList<>();
+    try (VectorIndex index = VectorIndex.open(file, DIM, M, EF_CONSTRUCTION)) {
+      vectors = fill(index);
+      index.markDeleted(5);
+      for (float[] query : queries)
+        before.add(ids(index.search(query, K, EF_SEARCH)));
+    }
+
+    try (VectorIndex reopened = VectorIndex.open(file, DIM, M, EF_CONSTRUCTION)) {
+      assertEquals(NODES, reopened.size());
+      assertEquals(1, reopened.deletedCount());
+      assertTrue(reopened.isDeleted(5));
+      assertEquals(1042L, reopened.payload(42));
+      assertEquals(1f, cosine(vectors.get(42), reopened.vector(42)), 1e-5);
+      for (int i = 0; i < queries.size(); i++)
+        assertEquals(before.get(i), ids(reopened.search(queries.get(i), K, EF_SEARCH)));
+
+      // Nodes added after reopening link into the existing graph
+      float[] extra = randomVector();
+      int id = reopened.add(extra, 7L);
+      assertEquals(NODES, id);
+      assertEquals(id, reopened.search(extra, 1, EF_SEARCH).get(0).id);
+    }
+
+    assertThrows(IOException.class, () -> VectorIndex.open(file, DIM + 1, M, EF_CONSTRUCTION));
+  }
+
+  private static List<Integer> ids(List<VectorIndex.Hit> hits) {
+    List<Integer> ids = new ArrayList<>();
+    for (VectorIndex.Hit hit : hits)
+      ids.add(hit.id);
+    return ids;
+  }
+}
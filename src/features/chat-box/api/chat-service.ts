@@ -1,7 +1,7 @@
 import { Message } from "@/types";
 import { env } from '@/config/env';
 import { API_ROUTES } from "@/lib/api-routes";
-import { availableTools } from '@/config/available-tools'
+import { getClientId } from "@/lib/client-id";
 
 const CHAT_API_URL = env.PRIMARY_BACKEND_URL + API_ROUTES.ACCESS_CHAT;
 
@@ -20,7 +20,6 @@ export const sendChatMessage = async (content: string): Promise<{ content: strin
       method: "POST",
       headers: { "Content-Type": "application/json" },
       body: JSON.stringify({
-        model: "Qwen3VL-2B-Instruct-Q4_K_M.gguf",
         messages: [{ role: "user", content }],
       }),
     });
@@ -48,47 +47,61 @@ export const sendChatMessage = async (content: string): Promise<{ content: strin
   }
 };
 
+const toApiMessage = (message: Message) => {
+  if (message.images?.length) {
+    return {
+      role: message.role,
+      content: [
+        { type: "text", text: "Analyze this image" },
+        { type: "image_url", image_url: { url: message.images?.[0] ?? "" } }
+      ]
+
+    };
+  }
+  return {
+    role: message.role,
+    content: message.content + (message.extraContext ? "\n" + message.extraContext : "")
+  };
+};
+
+// With a sessionId the backend keeps the history, so only the newest message is sent
 export const streamChatMessage = async (
   messages: Message[],
   onChunk: (chunk: string) => void,
   onMetrics?: (metrics: ChatMetrics) => void,
   signal?: AbortSignal,
   onToolUsed?: (toolName: string, toolStatus: string) => void,
-  onSourcesFound?: (sources: any[]) => void
+  onSourcesFound?: (sources: any[]) => void,
+  sessionId?: string
 ): Promise<void> => {
   try {
     let tokenCount = 0;
     const startTime = Date.now(); // Start timer
-    const res = await fetch(CHAT_API_URL, {
+    // No model: the backend answers with the one loaded in the side menu
+    const baseBody = {
+      stream: true,
+      stream_options: { include_usage: true } // REQUIRED for usage in stream
+    };
+    const post = (body: object) => fetch(CHAT_API_URL, {
       method: "POST",
-      headers: { "Content-Type": "application/json" },
-      body: JSON.stringify({
-        model: "Qwen3VL-2B-Instruct-Q4_K_M.gguf",
-        messages: messages.map(message => {
-          if (message.images?.length) {
-            return {
-              role: message.role,
-              content: [
-                { type: "text", text: "Analyze this image" },
-                { type: "image_url", image_url: { url: message.images?.[0] ?? "" } }
-              ]
-
-            };
-          } else {
-            return {
-              role: message.role,
-              content: message.content + (message.extraContext ? "\n" + message.extraContext : "")
-            };
-          }
-        }),
-        tools: availableTools,
-        tool_choice: "auto",
-        stream: true,
-        stream_options: { include_usage: true } // REQUIRED for usage in stream
-      }),
+      headers: { "Content-Type": "application/json", "X-Client-Id": getClientId() },
+      body: JSON.stringify({ ...baseBody, ...body }),
       signal,
     });
 
+    let res = sessionId
+      ? await post({
+        session_id: sessionId,
+        history_length: messages.length - 1,
+        messages: messages.slice(-1).map(toApiMessage),
+      })
+      : await post({ messages: messages.map(toApiMessage) });
+
+    // The server's copy of the session is missing or out of step; send everything once
+    if (sessionId && res.status === 409) {
+      res = await post({ session_id: sessionId, session_reset: true, messages: messages.map(toApiMessage) });
+    }
+
     if (!res.ok || !res.body) {
       throw new Error(`API error or empty body: ${res.statusText}`);
     }
@@ -171,4 +184,14 @@ export const streamChatMessage = async (
     console.error("Error streaming:", error);
     throw error;
   }
-};
\ No newline at end of file
+};
+
+export const deleteChatSession = async (sessionId: string): Promise<void> => {
+  try {
+    await fetch(`${env.PRIMARY_BACKEND_URL}${API_ROUTES.CHAT_SESSIONS}/${encodeURIComponent(sessionId)}`, {
+      method: "DELETE",
+    });
+  } catch (error) {
+    console.error("Error deleting chat session:", error);
+  }
+};
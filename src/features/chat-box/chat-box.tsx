@@ -132,7 +132,8 @@ export function ChatBox({ messages, setMessages, onChatSaved, contextLimit, isLo
             }
             return updated;
           });
-        }
+        },
+        chatId?.replace(/^chat-/, "")
       );
     } catch (error: any) {
       if (error.name === 'AbortError') console.log("Stream stopped by user");
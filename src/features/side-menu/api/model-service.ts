@@ -1,6 +1,7 @@
 import { api } from '@/lib/api-client';
 import { API_ROUTES } from '@/lib/api-routes';
 import { env } from '@/config/env';
+import { getClientId } from '@/lib/client-id';
 
 // Legacy fallback for navigator.sendBeacon
 export const API_STOP_URL = env.PRIMARY_BACKEND_URL + API_ROUTES.CONFIG_STOP;
@@ -12,10 +13,11 @@ export const modelService = {
     return data.files || [];
   },
 
-  // Check if the Llama server is currently active
+  // Check if the Llama server is currently active; an idle-unloaded model counts,
+  // since the backend starts it again on the next chat message
   getStatus: async () => {
-    const data = await api.get(API_ROUTES.CONFIG_STATUS) as { running: boolean };
-    return data.running;
+    const data = await api.get(API_ROUTES.CONFIG_STATUS) as { running: boolean; suspended?: boolean };
+    return data.running || !!data.suspended;
   },
 
   // Get download percentage or error code (negative) for a file
@@ -46,5 +48,11 @@ export const modelService = {
   // Send keep-alive signal to prevent backend auto-shutdown
   sendHeartbeat: () => {
     return api.post(API_ROUTES.CONFIG_HEARTBEAT, {});
+  },
+
+  // Drop this tab's lease when it closes; beacons can't carry headers
+  releaseLease: () => {
+    const url = `${env.PRIMARY_BACKEND_URL}${API_ROUTES.CONFIG_HEARTBEAT_RELEASE}?clientId=${encodeURIComponent(getClientId())}`;
+    navigator.sendBeacon(url);
   }
 };
\ No newline at end of file
@@ -1,5 +1,6 @@
 import { useEffect, useState } from "react";
 import { loadChat, ChatData } from "@/features/chat-box/utils/chat-serializer";
+import { deleteChatSession } from "@/features/chat-box/api/chat-service";
 import { CircleButton } from "@/components/ui";
 
 interface ChatHistoryListProps {
@@ -40,6 +41,7 @@ export function ChatHistoryList({ onLoadChat, saveTrigger, isLoading }: ChatHist
 
   const handleRemoveChat = (chatId: string) => {
     localStorage.removeItem(chatId);
+    deleteChatSession(chatId.replace(/^chat-/, ""));
     setSavedChats((prevChats) => prevChats.filter((id) => id !== chatId));
   };
 
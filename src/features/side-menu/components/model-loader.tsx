@@ -121,6 +121,11 @@ export function ModelLoader({ contextSize, setContextSize }: ModelLoaderProps) {
     return () => clearInterval(intervalId);
   }, [checkServerStatus, refreshFiles, isRunning]);
 
+  useEffect(() => {
+    window.addEventListener('pagehide', modelService.releaseLease);
+    return () => window.removeEventListener('pagehide', modelService.releaseLease);
+  }, []);
+
   return (
     <div className="flex flex-col mt-4 p-4 glass">
       <div className="flex justify-between items-center mb-1">
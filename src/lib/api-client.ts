@@ -1,5 +1,6 @@
 import Axios, { InternalAxiosRequestConfig } from 'axios';
 import { env } from '@/config/env';
+import { getClientId } from '@/lib/client-id';
 
 /**
  * Request Interceptor: Used to set necessary headers and credentials globally.
@@ -7,6 +8,7 @@ import { env } from '@/config/env';
 function authRequestInterceptor(config: InternalAxiosRequestConfig) {
   if (config.headers) {
     config.headers.Accept = 'application/json';
+    config.headers['X-Client-Id'] = getClientId();
   }
 
   return config;
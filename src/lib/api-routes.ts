@@ -1,10 +1,12 @@
 export const API_ROUTES = {
   ACCESS_CHAT: '/api/chat',
+  CHAT_SESSIONS: '/api/chat/sessions',
   CHAT_COMPLETIONS: '/v1/chat/completions',
   CONFIG_START: '/api/config/start',
   CONFIG_STATUS: '/api/config/status',
   CONFIG_STOP: '/api/config/stop',
   CONFIG_HEARTBEAT: '/api/config/heartbeat',
+  CONFIG_HEARTBEAT_RELEASE: '/api/config/heartbeat/release',
   CONFIG_FILES: '/api/config/files',
   CONFIG_DOWNLOAD: '/api/config/download',
   CONFIG_DOWNLOAD_STATUS: '/api/config/download-status',
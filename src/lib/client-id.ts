@@ -0,0 +1,17 @@
+const STORAGE_KEY = 'client-id';
+
+/**
+ * Identifies this browser tab to the backend, which keeps a lease per client
+ * so one tab closing doesn't unload the model for the others.
+ */
+export const getClientId = (): string => {
+  let id = sessionStorage.getItem(STORAGE_KEY);
+  if (!id) {
+    // randomUUID is only available in secure contexts, not on plain-http LAN addresses
+    id = typeof crypto.randomUUID === 'function'
+      ? crypto.randomUUID()
+      : `${Date.now().toString(36)}-${Math.random().toString(36).slice(2)}`;
+    sessionStorage.setItem(STORAGE_KEY, id);
+  }
+  return id;
+};